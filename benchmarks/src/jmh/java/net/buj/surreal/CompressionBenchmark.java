@@ -0,0 +1,121 @@
+package net.buj.surreal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CPU cost of permessage-deflate against the bytes it saves.
+ * <p>
+ * Compresses response frames the way the extension does: raw deflate ending
+ * with a sync flush, without reusing the window of earlier messages, which is
+ * the worst case. The {@code raw} and {@code compressed} counters add up the
+ * bytes before and after compression.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+    @Param({ "1", "100", "10000" })
+    public int rows;
+
+    @Param({ "1", "6", "9" })
+    public int level;
+
+    /**
+     * Bytes before and after compression.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Bytes {
+        public long raw;
+        public long compressed;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            raw = 0;
+            compressed = 0;
+        }
+    }
+
+    private byte[] frame;
+    private byte[] output;
+    private byte[] compressedFrame;
+    private int compressedLength;
+    private Deflater deflater;
+    private Inflater inflater;
+
+    @Setup
+    public void setup() {
+        frame = Fixtures.response(1, rows).getBytes(StandardCharsets.UTF_8);
+        output = new byte[frame.length + 64];
+        deflater = new Deflater(level, true);
+        inflater = new Inflater(true);
+
+        compressedLength = compress();
+        compressedFrame = Arrays.copyOf(output, compressedLength);
+    }
+
+    @TearDown
+    public void tearDown() {
+        deflater.end();
+        inflater.end();
+    }
+
+    private int compress() {
+        deflater.setInput(frame);
+        int length = 0;
+        while (true) {
+            length += deflater.deflate(output, length, output.length - length, Deflater.SYNC_FLUSH);
+            if (length < output.length)
+                break;
+            output = Arrays.copyOf(output, output.length * 2);
+        }
+        deflater.reset();
+        return length;
+    }
+
+    @Benchmark
+    public int deflate(Bytes bytes) {
+        int length = compress();
+        bytes.raw += frame.length;
+        // The extension drops the empty block the flush ends with.
+        bytes.compressed += length - 4;
+        return length;
+    }
+
+    /**
+     * Decompress a frame, with the empty block added back like the extension
+     * does.
+     */
+    @Benchmark
+    public int inflate() throws DataFormatException {
+        inflater.setInput(compressedFrame, 0, compressedLength);
+        int length = 0;
+        while (!inflater.needsInput() && length < frame.length)
+            length += inflater.inflate(output, length, output.length - length);
+        inflater.reset();
+        return length;
+    }
+}
@@ -0,0 +1,76 @@
+package net.buj.surreal;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Round trips through a {@link Driver} connected to a {@link MockServer}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DriverBenchmark {
+    private static final int PIPELINED = 64;
+
+    private MockServer server;
+    private Driver driver;
+
+    @Setup
+    public void setup() throws Exception {
+        server = MockServer.launch();
+        server.result(Fixtures.SQL, MockServer.statement(Fixtures.rows(10)));
+        server.result(Fixtures.LARGE_SQL, MockServer.statement(Fixtures.rows(Fixtures.LARGE_ROWS)));
+        driver = new Driver(server.url());
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        driver.close();
+        server.stop();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Response[] query() {
+        return driver.queryAsync(new Query(Fixtures.SQL).x("name", "Tobie").x("score", 42)).join();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Response querySingle() {
+        return driver.querySingleAsync(new Query(Fixtures.SQL).x("name", "Tobie").x("score", 42)).join();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINED)
+    public Object pipelined() {
+        // Keeps many requests in flight from a single thread.
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[PIPELINED];
+        for (int i = 0; i < PIPELINED; i++)
+            futures[i] = driver.queryAsync(new Query(Fixtures.SQL).x("name", "Tobie").x("score", i));
+        return CompletableFuture.allOf(futures).join();
+    }
+
+    @Benchmark
+    public List<Fixtures.Row> largeResult() {
+        return driver.queryAsync(new Query(Fixtures.LARGE_SQL), Fixtures.Row.class).join();
+    }
+}
@@ -0,0 +1,56 @@
+package net.buj.surreal;
+
+import mjson.Json;
+
+/**
+ * Data shared by benchmarks.
+ */
+final class Fixtures {
+    static final String SQL = "SELECT * FROM user WHERE name = $name AND score > $score LIMIT 10";
+    static final String LARGE_SQL = "SELECT * FROM user";
+    static final int LARGE_ROWS = 10_000;
+
+    /**
+     * A mapped row.
+     */
+    public static class Row {
+        public String id;
+        public String name;
+        public long score;
+        public boolean active;
+    }
+
+    private Fixtures() {
+    }
+
+    static Json params() {
+        return Json.object().set("name", "Tobie \"quoted\"").set("score", 42);
+    }
+
+    static String row(int i) {
+        return "{\"id\":\"user:" + i + "\",\"name\":\"User " + i + "\",\"score\":" + i * 7
+                + ",\"active\":" + (i % 2 == 0) + "}";
+    }
+
+    static String rows(int count) {
+        StringBuilder rows = new StringBuilder("[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                rows.append(',');
+            rows.append(row(i));
+        }
+        return rows.append(']').toString();
+    }
+
+    /**
+     * Build a {@code query} response frame.
+     *
+     * @param id   JSON-RPC ID.
+     * @param rows Amount of rows in the result.
+     *
+     * @return The frame.
+     */
+    static String response(int id, int rows) {
+        return "{\"id\":" + id + ",\"result\":" + MockServer.statement(rows(rows)) + "}";
+    }
+}
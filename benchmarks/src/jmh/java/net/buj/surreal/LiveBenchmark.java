@@ -0,0 +1,94 @@
+package net.buj.surreal;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing and dispatch of live notifications.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LiveBenchmark {
+    /**
+     * Whether handlers run on an executor, see
+     * {@link Driver#setLiveExecutor(java.util.concurrent.Executor)}.
+     */
+    @Param({ "false", "true" })
+    public boolean executor;
+
+    private MockServer server;
+    private Driver driver;
+    private RpcClient client;
+    private ExecutorService pool;
+    private final LongAdder received = new LongAdder();
+    private String frame;
+
+    @Setup
+    public void setup() throws Exception {
+        server = MockServer.launch();
+        driver = new Driver(server.url());
+        if (executor) {
+            pool = Executors.newFixedThreadPool(4);
+            driver.setLiveExecutor(pool);
+        }
+
+        String id = driver.querySingleAsync(new Query("LIVE SELECT * FROM user")).join().result().asString();
+        driver.onLive(id, new EventCallback<LiveResponse>() {
+            @Override
+            public void run(LiveResponse value) {
+                received.increment();
+            }
+
+            @Override
+            public void fail(Exception error) {
+            }
+        });
+        // Also a global listener, like most applications have.
+        driver.onLive(new EventCallback<LiveResponse>() {
+            @Override
+            public void run(LiveResponse value) {
+            }
+
+            @Override
+            public void fail(Exception error) {
+            }
+        });
+
+        // Never connected, frames are fed to it directly.
+        client = new RpcClient(driver, server.url(), new WebSocketTransport());
+        frame = MockServer.liveFrame(id, "UPDATE", Fixtures.row(1));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        driver.close();
+        server.stop();
+        if (pool != null)
+            pool.shutdownNow();
+    }
+
+    @Benchmark
+    public RpcClient dispatch() {
+        client.onText(frame);
+        return client;
+    }
+}
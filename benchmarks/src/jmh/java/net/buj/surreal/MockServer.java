@@ -0,0 +1,155 @@
+package net.buj.surreal;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+
+/**
+ * An in-process server speaking enough of the SurrealDB RPC protocol for
+ * benchmarks.
+ * <p>
+ * Answers {@code authenticate}, {@code use} and {@code kill} with
+ * {@code null}, {@code LIVE SELECT} queries with a new live query ID, and
+ * other queries with the result registered for their SurrealQL text, or an
+ * empty result. Only JSON is supported, connect with token authorization.
+ */
+final class MockServer extends WebSocketServer {
+    static final String EMPTY = "[{\"status\":\"OK\",\"time\":\"1.2\u00b5s\",\"result\":[]}]";
+
+    private final Map<String, String> results = new ConcurrentHashMap<>();
+    private final AtomicInteger liveIds = new AtomicInteger();
+    private final CountDownLatch started = new CountDownLatch(1);
+    private volatile Exception failure;
+
+    private MockServer() {
+        super(new InetSocketAddress("127.0.0.1", 0));
+        setReuseAddr(true);
+    }
+
+    /**
+     * Start a server on a free port.
+     *
+     * @return The started server.
+     *
+     * @throws InterruptedException If interrupted while starting.
+     */
+    static MockServer launch() throws InterruptedException {
+        MockServer server = new MockServer();
+        server.start();
+        server.started.await();
+        if (server.failure != null)
+            throw new IllegalStateException("Mock server failed to start", server.failure);
+        return server;
+    }
+
+    /**
+     * Get a URL for connecting to this server.
+     *
+     * @return SurrealRPC URL.
+     */
+    SurrealURL url() {
+        try {
+            return new SurrealURL("ws://token@127.0.0.1:" + getPort() + "/ns/db");
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Set the result of a query.
+     *
+     * @param sql    SurrealQL text of the query.
+     * @param result JSON of the {@code result} member, an array of statement
+     *               results.
+     */
+    void result(String sql, String result) {
+        results.put(sql, result);
+    }
+
+    /**
+     * Send a live notification to every connection.
+     *
+     * @param id     Live query ID.
+     * @param action Action, such as {@code CREATE}.
+     * @param result JSON of the record.
+     */
+    void live(String id, String action, String result) {
+        broadcast(liveFrame(id, action, result));
+    }
+
+    static String liveFrame(String id, String action, String result) {
+        return "{\"result\":{\"id\":\"" + id + "\",\"action\":\"" + action + "\",\"result\":" + result + "}}";
+    }
+
+    static String statement(String result) {
+        return "[{\"status\":\"OK\",\"time\":\"1.2\u00b5s\",\"result\":" + result + "}]";
+    }
+
+    @Override
+    public void onStart() {
+        started.countDown();
+    }
+
+    @Override
+    public void onOpen(WebSocket conn, ClientHandshake handshake) {
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, String message) {
+        JsonReader reader = new JsonReader(message);
+        int id = -1;
+        String method = null;
+        String sql = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id":
+                    id = reader.nextInt();
+                    break;
+                case "method":
+                    method = reader.nextString();
+                    break;
+                case "params":
+                    reader.beginArray();
+                    if (reader.hasNext() && reader.peek() == JsonReader.Token.STRING)
+                        sql = reader.nextString();
+                    while (reader.hasNext())
+                        reader.skipValue();
+                    reader.endArray();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+
+        String result;
+        if (!"query".equals(method))
+            result = "null";
+        else if (sql != null && sql.startsWith("LIVE SELECT"))
+            result = statement("\"live-" + liveIds.incrementAndGet() + "\"");
+        else
+            result = results.getOrDefault(sql, EMPTY);
+
+        conn.send("{\"id\":" + id + ",\"result\":" + result + "}");
+    }
+
+    @Override
+    public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+    }
+
+    @Override
+    public void onError(WebSocket conn, Exception ex) {
+        // Without a connection, the server itself failed.
+        if (conn == null) {
+            failure = ex;
+            started.countDown();
+        }
+    }
+}
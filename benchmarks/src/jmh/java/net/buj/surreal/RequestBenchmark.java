@@ -0,0 +1,68 @@
+package net.buj.surreal;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import mjson.Json;
+
+/**
+ * Serialization of outbound {@code query} requests.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBenchmark {
+    private Object[] text;
+    private Object[] prepared;
+
+    @Setup
+    public void setup() {
+        Json params = Fixtures.params();
+        text = new Object[] { Fixtures.SQL, params };
+        prepared = new Object[] { new PreparedQuery(Fixtures.SQL), params };
+    }
+
+    private static int encode(Object[] params) {
+        JsonWriter writer = JsonWriter.acquire();
+        try {
+            return writer.encodeRequest(1, "query", params).remaining();
+        } finally {
+            writer.release();
+        }
+    }
+
+    @Benchmark
+    public int json() {
+        return encode(text);
+    }
+
+    @Benchmark
+    public int jsonPrepared() {
+        return encode(prepared);
+    }
+
+    @Benchmark
+    public byte[] cbor() {
+        return Cbor.encodeRequest(1, "query", text);
+    }
+
+    @Benchmark
+    public String tree() {
+        // How requests were built before the direct writer.
+        return Json.object().set("jsonrpc", "2.0").set("method", "query").set("params", Json.array(text))
+                .set("id", 1).toString();
+    }
+}
@@ -0,0 +1,94 @@
+package net.buj.surreal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import mjson.Json;
+
+/**
+ * Parsing of inbound frames and construction of {@link Response}s.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseBenchmark {
+    @Param({ "1", "100", "10000" })
+    public int rows;
+
+    private MockServer server;
+    private Driver driver;
+    private RpcClient client;
+    private String frame;
+    private String result;
+    private Codec<Fixtures.Row> codec;
+
+    @Setup
+    public void setup() throws Exception {
+        server = MockServer.launch();
+        driver = new Driver(server.url());
+        // Never connected, frames are fed to it directly.
+        client = new RpcClient(driver, server.url(), new WebSocketTransport());
+        frame = Fixtures.response(Integer.MAX_VALUE, rows);
+        result = Fixtures.rows(rows);
+        codec = Codec.of(Fixtures.Row.class);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        driver.close();
+        server.stop();
+    }
+
+    @Benchmark
+    public RpcClient onMessage() {
+        // No request is waiting for this ID, so this is the cost of routing a
+        // frame and skipping its result.
+        client.onText(frame);
+        return client;
+    }
+
+    @Benchmark
+    public Json tree() {
+        return Json.read(frame);
+    }
+
+    @Benchmark
+    public Response response() {
+        Json statement = Json.read(frame).at("result").at(0);
+        return new Response(statement.at("status").asString(), statement.at("time").asString(),
+                statement.at("result"));
+    }
+
+    @Benchmark
+    public List<Fixtures.Row> decodeTree() throws ResponseException {
+        return new Response("OK", "1.2\u00b5s", Json.read(result)).asList(Fixtures.Row.class);
+    }
+
+    @Benchmark
+    public List<Fixtures.Row> decodeStreaming() {
+        JsonReader reader = new JsonReader(result);
+        List<Fixtures.Row> list = new ArrayList<>(rows);
+        reader.beginArray();
+        while (reader.hasNext())
+            list.add(codec.read(reader));
+        reader.endArray();
+        return list;
+    }
+}
@@ -0,0 +1,34 @@
+package net.buj.surreal;
+
+/**
+ * A batch of queries was executed, but its results could not be split
+ * between the queries of the batch.
+ * <p>
+ * Statements of the query may have been executed, so it should not be
+ * treated as a query that failed. The results of the whole batch are
+ * available from {@link BatchException#responses()}.
+ */
+public class BatchException extends ResponseException {
+    private final Response[] responses;
+
+    /**
+     * Construct {@link BatchException}.
+     *
+     * @param message   Error message.
+     * @param responses Results of every statement of the batch.
+     */
+    public BatchException(String message, Response[] responses) {
+        super(message);
+        this.responses = responses;
+    }
+
+    /**
+     * Get the results of every statement of the batch, including statements
+     * of other queries.
+     *
+     * @return The results, in order.
+     */
+    public Response[] responses() {
+        return responses.clone();
+    }
+}
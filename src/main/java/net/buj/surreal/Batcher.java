@@ -0,0 +1,216 @@
+package net.buj.surreal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import mjson.Json;
+
+/**
+ * Coalesces queries into multi-statement {@code query} requests.
+ * <p>
+ * The first query submitted to an idle batcher wakes up the flusher, which
+ * waits for the window and then sends everything that has been submitted
+ * meanwhile, up to {@code maxQueries} per request. Query parameters and
+ * variables declared with {@code LET} are renamed to {@code $b<n>_<name>} so
+ * queries of one batch can't see each other's variables.
+ */
+final class Batcher {
+    private static final class Entry {
+        final Query query;
+        final Statements statements;
+        final EventCallback<Response[]> callback;
+
+        Entry(Query query, Statements statements, EventCallback<Response[]> callback) {
+            this.query = query;
+            this.statements = statements;
+            this.callback = callback;
+        }
+    }
+
+    private final Driver driver;
+    private final int maxQueries;
+    private final long windowNanos;
+    private final Queue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final ExecutorService flusher;
+
+    Batcher(Driver driver, int maxQueries, long windowNanos) {
+        this.driver = driver;
+        this.maxQueries = maxQueries;
+        this.windowNanos = windowNanos;
+        // The thread goes away while there is nothing to flush.
+        this.flusher = new ThreadPoolExecutor(0, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), task -> {
+            Thread thread = new Thread(task, "SurrealRPC-batch");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Add a query to the next batch.
+     *
+     * @param query    A query to be executed.
+     * @param callback A callback for its results.
+     *
+     * @return {@code false} if the query can't be batched and must be sent on
+     *         its own.
+     */
+    boolean offer(Query query, EventCallback<Response[]> callback) {
+        if (query.timeout >= 0)
+            return false;
+        Statements statements = query.prepared != null ? query.prepared.statements()
+                : Statements.analyze(query.sql);
+        if (!statements.batchable || statements.count == 0)
+            return false;
+
+        queue.add(new Entry(query, statements, callback));
+        size.incrementAndGet();
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                flusher.execute(this::flush);
+            } catch (RejectedExecutionException e) {
+                // Batching was turned off meanwhile, send what's left right away.
+                flush();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the amount of queries waiting for the next batch.
+     *
+     * @return Amount of queries.
+     */
+    int size() {
+        return size.get();
+    }
+
+    /**
+     * Stop the flusher once it is done.
+     * <p>
+     * Does not wait: queries already submitted are still sent by the flush
+     * scheduled for them, and queries submitted afterwards are sent right
+     * away on the calling thread.
+     */
+    void shutdown() {
+        flusher.shutdown();
+    }
+
+    private void flush() {
+        do {
+            if (windowNanos > 0 && size.get() < maxQueries)
+                LockSupport.parkNanos(windowNanos);
+
+            List<Entry> batch = new ArrayList<>(Math.min(size.get(), maxQueries));
+            Entry entry;
+            while ((entry = queue.poll()) != null) {
+                size.decrementAndGet();
+                batch.add(entry);
+                if (batch.size() == maxQueries) {
+                    send(batch);
+                    batch = new ArrayList<>(Math.min(size.get(), maxQueries));
+                }
+            }
+            if (!batch.isEmpty())
+                send(batch);
+
+            scheduled.set(false);
+            // Queries offered after the queue was drained but before the flag
+            // was cleared didn't schedule a flush.
+        } while (!queue.isEmpty() && scheduled.compareAndSet(false, true));
+    }
+
+    private void send(List<Entry> batch) {
+        if (batch.size() == 1) {
+            Entry entry = batch.get(0);
+            driver.request(entry.query.text(), entry.query.params, -1, entry.query.idempotent, entry.query.tag, null,
+                    entry.callback);
+            return;
+        }
+
+        StringBuilder sql = new StringBuilder();
+        Json params = Json.object();
+        boolean idempotent = true;
+        int total = 0;
+
+        for (int i = 0; i < batch.size(); i++) {
+            Entry entry = batch.get(i);
+            Query query = entry.query;
+            String prefix = "b" + i + "_";
+
+            // On a new line, in case the query ends with a line comment.
+            Set<String> names = new HashSet<>(entry.statements.variables);
+            names.addAll(query.params.asJsonMap().keySet());
+            sql.append(Statements.prefixParams(query.sql, prefix, names));
+            sql.append(entry.statements.terminated ? "\n" : "\n;\n");
+            for (Map.Entry<String, Json> param : query.params.asJsonMap().entrySet())
+                params.set(prefix + param.getKey(), param.getValue());
+            idempotent &= query.idempotent;
+            total += entry.statements.count;
+        }
+
+        int expected = total;
+        driver.request(sql.toString(), params, -1, idempotent, null, null, new EventCallback<Response[]>() {
+            @Override
+            public void run(Response[] value) {
+                if (value.length != expected) {
+                    // The statements ran, but there is no telling which
+                    // results belong to which query.
+                    fail(new BatchException("Batch was executed, but returned " + value.length
+                            + " results instead of " + expected, value));
+                    return;
+                }
+
+                int offset = 0;
+                for (Entry entry : batch) {
+                    Response[] responses = Arrays.copyOfRange(value, offset, offset + entry.statements.count);
+                    offset += entry.statements.count;
+                    try {
+                        entry.callback.run(responses);
+                    } catch (Exception e) {
+                        Batcher.fail(entry, e);
+                    }
+                }
+            }
+
+            @Override
+            public void fail(Exception error) {
+                for (Entry entry : batch)
+                    Batcher.fail(entry, error);
+            }
+        });
+    }
+
+    /**
+     * Fail the callback of one query.
+     * <p>
+     * Errors thrown by callbacks stay with their own query: thrown into the
+     * shared request, they would fail the whole batch, including callbacks
+     * that have already completed.
+     *
+     * @param entry The query.
+     * @param error The error.
+     */
+    private static void fail(Entry entry, Exception error) {
+        try {
+            entry.callback.fail(error);
+        } catch (RuntimeException e) {
+            // There is nobody else to report it to.
+        }
+    }
+}
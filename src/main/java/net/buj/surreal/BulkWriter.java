@@ -0,0 +1,355 @@
+package net.buj.surreal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import mjson.Json;
+
+/**
+ * Writes many records with few requests.
+ * <p>
+ * Created with {@link Driver#bulkInsert(String)} or
+ * {@link Driver#bulkWriter(String)}. Records are grouped into chunks, and
+ * every chunk is written with one statement that gets the records as the
+ * {@code $rows} parameter. Up to {@link BulkWriter#parallelism(int)} chunks
+ * are in flight at once; adding records blocks while all of them are.
+ * <p>
+ * Chunks that could not be written are reported by
+ * {@link BulkWriter#failures()}. Retries are off by default, see
+ * {@link BulkWriter#retries(int, long, TimeUnit)}: a chunk whose request
+ * timed out may have been written anyway, so retrying it may write its
+ * records twice.
+ * <p>
+ * Options must be set before the first record is added.
+ */
+public class BulkWriter implements AutoCloseable {
+    /**
+     * A chunk that could not be written.
+     */
+    public static final class Failure {
+        /**
+         * Records of the chunk, as an array.
+         */
+        public final Json records;
+        /**
+         * The last error.
+         */
+        public final Exception error;
+        /**
+         * Amount of times the chunk was sent.
+         */
+        public final int attempts;
+
+        private Failure(Json records, Exception error, int attempts) {
+            this.records = records;
+            this.error = error;
+            this.attempts = attempts;
+        }
+    }
+
+    private final Driver driver;
+    private final String sql;
+    private int chunkSize = 1000;
+    private long chunkBytes;
+    private int parallelism = 4;
+    private int retries;
+    private long retryDelay = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private Semaphore permits;
+    private Json chunk = Json.array();
+    private int chunkRecords;
+    private long chunkLength;
+    private volatile boolean closed;
+
+    private final Set<CompletableFuture<Void>> inFlight = ConcurrentHashMap.newKeySet();
+    private final Queue<Failure> failures = new ConcurrentLinkedQueue<>();
+    private final LongAdder written = new LongAdder();
+    private final AtomicLong started = new AtomicLong();
+
+    BulkWriter(Driver driver, String sql) {
+        this.driver = driver;
+        this.sql = sql;
+    }
+
+    /**
+     * Set the maximum amount of records per chunk.
+     * <p>
+     * Defaults to 1000.
+     *
+     * @param records Maximum amount of records, at least 1.
+     *
+     * @return Itself.
+     */
+    public BulkWriter chunkSize(int records) {
+        if (records <= 0)
+            throw new IllegalArgumentException("Chunk size must be positive");
+        chunkSize = records;
+        return this;
+    }
+
+    /**
+     * Set the maximum size of a chunk.
+     * <p>
+     * Sizes are the UTF-8 size of the JSON text of records, which costs an
+     * extra encoding of every record. A record larger than the limit is sent
+     * in a chunk of its own. Not limited by default.
+     *
+     * @param bytes Maximum size, or {@code 0} for no limit.
+     *
+     * @return Itself.
+     */
+    public BulkWriter chunkBytes(long bytes) {
+        if (bytes < 0)
+            throw new IllegalArgumentException("Chunk size must not be negative");
+        chunkBytes = bytes;
+        return this;
+    }
+
+    /**
+     * Set the maximum amount of chunks in flight.
+     * <p>
+     * Defaults to 4.
+     *
+     * @param chunks Maximum amount of chunks, at least 1.
+     *
+     * @return Itself.
+     */
+    public BulkWriter parallelism(int chunks) {
+        if (chunks <= 0)
+            throw new IllegalArgumentException("Parallelism must be positive");
+        parallelism = chunks;
+        return this;
+    }
+
+    /**
+     * Retry chunks whose request timed out or whose connection was lost.
+     * <p>
+     * Chunks whose statement fails or that SurrealDB answers with an error
+     * are not retried, since they would fail again. A retried chunk may have
+     * been written already, so only enable retries for statements that can be
+     * executed twice, such as upserts. Inserting the same records again
+     * duplicates records without IDs and fails for records with IDs.
+     * <p>
+     * The delay doubles after every attempt. Defaults to no retries.
+     *
+     * @param retries Maximum amount of retries per chunk, {@code 0} to not
+     *                retry.
+     * @param delay   Delay before the first retry.
+     * @param unit    Unit of {@code delay}.
+     *
+     * @return Itself.
+     */
+    public BulkWriter retries(int retries, long delay, TimeUnit unit) {
+        if (retries < 0)
+            throw new IllegalArgumentException("Retries must not be negative");
+        if (delay < 0)
+            throw new IllegalArgumentException("Delay must not be negative");
+        this.retries = retries;
+        retryDelay = unit.toNanos(delay);
+        return this;
+    }
+
+    /**
+     * Add a record.
+     * <p>
+     * Sends the current chunk if the record doesn't fit into it, waiting if
+     * too many chunks are in flight.
+     *
+     * @param record A {@link Json} object, or an object to map like with
+     *               {@link Response#as(Class)}.
+     *
+     * @throws InterruptedException     If interrupted while waiting.
+     * @throws IllegalArgumentException If the record can't be mapped.
+     * @throws IllegalStateException    If the writer was closed.
+     */
+    public void add(Object record) throws InterruptedException {
+        Json json = record instanceof Json ? (Json) record : Codec.of(record.getClass()).encode(record);
+        long length = chunkBytes > 0 ? JsonWriter.utf8Length(json.toString()) : 0;
+
+        Json full = null;
+        lock.lock();
+        try {
+            if (closed)
+                throw new IllegalStateException("Bulk writer was closed");
+            if (chunkRecords >= chunkSize || chunkBytes > 0 && chunkRecords > 0 && chunkLength + length > chunkBytes)
+                full = take();
+            chunk.add(json);
+            chunkRecords++;
+            chunkLength += length;
+        } finally {
+            lock.unlock();
+        }
+
+        if (full != null)
+            send(full);
+    }
+
+    /**
+     * Add records.
+     * <p>
+     * See {@link BulkWriter#add(Object)}.
+     *
+     * @param records Records to add.
+     *
+     * @throws InterruptedException     If interrupted while waiting.
+     * @throws IllegalArgumentException If a record can't be mapped.
+     * @throws IllegalStateException    If the writer was closed.
+     */
+    public void addAll(Iterable<?> records) throws InterruptedException {
+        for (Object record : records)
+            add(record);
+    }
+
+    private Json take() {
+        Json full = chunk;
+        chunk = Json.array();
+        chunkRecords = 0;
+        chunkLength = 0;
+        if (permits == null)
+            permits = new Semaphore(parallelism);
+        return full;
+    }
+
+    private void send(Json records) throws InterruptedException {
+        Semaphore permits = this.permits;
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            failures.add(new Failure(records, e, 0));
+            throw e;
+        }
+        started.compareAndSet(0, System.nanoTime());
+
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        inFlight.add(done);
+        done.whenComplete((value, error) -> {
+            inFlight.remove(done);
+            permits.release();
+        });
+        attempt(records, 1, done);
+    }
+
+    private void attempt(Json records, int attempt, CompletableFuture<Void> done) {
+        driver.query(new Query(sql).x("rows", records), new EventCallback<Response[]>() {
+            @Override
+            public void run(Response[] value) {
+                try {
+                    for (Response response : value)
+                        response.ok();
+                } catch (ResponseException e) {
+                    // The statement itself failed, sending it again won't help.
+                    failures.add(new Failure(records, e, attempt));
+                    done.complete(null);
+                    return;
+                }
+                written.add(records.asJsonList().size());
+                done.complete(null);
+            }
+
+            @Override
+            public void fail(Exception error) {
+                boolean retryable = error instanceof TimeoutException || error instanceof ConnectionException;
+                if (!retryable || attempt > retries) {
+                    failures.add(new Failure(records, error, attempt));
+                    done.complete(null);
+                    return;
+                }
+                // Sending may block, only wait on the timer thread.
+                TimerWheel.shared().schedule(
+                        () -> TimerWheel.dispatcher().execute(() -> attempt(records, attempt + 1, done)),
+                        retryDelay << Math.min(attempt - 1, 20), TimeUnit.NANOSECONDS);
+            }
+        });
+    }
+
+    /**
+     * Send the current chunk, even if it's not full.
+     *
+     * @return A future completed once every chunk sent so far has been
+     *         written or has failed.
+     *
+     * @throws InterruptedException If interrupted while waiting for a chunk
+     *                              to complete.
+     */
+    public CompletableFuture<Void> flush() throws InterruptedException {
+        return flush(false);
+    }
+
+    private CompletableFuture<Void> flush(boolean close) throws InterruptedException {
+        Json partial = null;
+        lock.lock();
+        try {
+            if (close)
+                closed = true;
+            if (chunkRecords > 0)
+                partial = take();
+        } finally {
+            lock.unlock();
+        }
+
+        if (partial != null)
+            send(partial);
+        return CompletableFuture.allOf(inFlight.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Get the chunks that could not be written so far.
+     *
+     * @return The failed chunks, in the order they failed.
+     */
+    public List<Failure> failures() {
+        return new ArrayList<>(failures);
+    }
+
+    /**
+     * Get the amount of records written so far.
+     *
+     * @return Amount of records.
+     */
+    public long written() {
+        return written.sum();
+    }
+
+    /**
+     * Get the average throughput.
+     *
+     * @return Records written per second since the first chunk was sent.
+     */
+    public double throughput() {
+        long started = this.started.get();
+        if (started == 0)
+            return 0;
+        long elapsed = System.nanoTime() - started;
+        return elapsed > 0 ? written.sum() * 1e9 / elapsed : 0;
+    }
+
+    /**
+     * Send the last chunk and wait until every chunk has been written or has
+     * failed.
+     * <p>
+     * Records can't be added afterwards.
+     *
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        try {
+            flush(true).get();
+        } catch (ExecutionException e) {
+            // Chunk futures only complete normally, failures are recorded.
+        }
+    }
+}
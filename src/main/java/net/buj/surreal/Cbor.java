@@ -0,0 +1,367 @@
+package net.buj.surreal;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import mjson.Json;
+
+/**
+ * CBOR codec for the SurrealDB RPC protocol.
+ * <p>
+ * Decodes into the same {@link Json} trees the JSON protocol produces, so
+ * SurrealDB's custom tags are mapped to their JSON representation: record
+ * IDs become {@code table:id} strings, UUIDs and datetimes become strings and
+ * {@code NONE} becomes {@code null}.
+ * <p>
+ * See <a href="https://www.rfc-editor.org/rfc/rfc8949">RFC 8949</a>.
+ */
+final class Cbor {
+    private static final int TAG_NONE = 6;
+    private static final int TAG_RECORD_ID = 8;
+    private static final int TAG_STRING_DECIMAL = 10;
+    private static final int TAG_COMPACT_DATETIME = 12;
+    private static final int TAG_COMPACT_DURATION = 14;
+    private static final int TAG_UUID = 37;
+
+    private static final int BREAK = 0xff;
+
+    private Cbor() {
+    }
+
+    /**
+     * Encode an RPC request.
+     *
+     * @param id     Request ID.
+     * @param method RPC method.
+     * @param params RPC parameters.
+     *
+     * @return The encoded request.
+     */
+    static byte[] encodeRequest(int id, String method, Object[] params) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        writeHeader(out, 5, 3);
+        writeString(out, "id");
+        writeHeader(out, 0, id);
+        writeString(out, "method");
+        writeString(out, method);
+        writeString(out, "params");
+        writeHeader(out, 4, params.length);
+        for (Object param : params)
+            writeObject(out, param);
+        return out.toByteArray();
+    }
+
+    private static void writeObject(ByteArrayOutputStream out, Object value) {
+        if (value == null) {
+            out.write(0xf6);
+        } else if (value instanceof String) {
+            writeString(out, (String) value);
+        } else if (value instanceof Json) {
+            writeJson(out, (Json) value);
+        } else if (value instanceof PreparedQuery) {
+            writeString(out, ((PreparedQuery) value).sql);
+        } else {
+            writeJson(out, Json.make(value));
+        }
+    }
+
+    private static void writeJson(ByteArrayOutputStream out, Json json) {
+        if (json == null || json.isNull()) {
+            out.write(0xf6);
+        } else if (json.isBoolean()) {
+            out.write(json.asBoolean() ? 0xf5 : 0xf4);
+        } else if (json.isString()) {
+            writeString(out, json.asString());
+        } else if (json.isNumber()) {
+            writeNumber(out, (Number) json.getValue());
+        } else if (json.isArray()) {
+            List<Json> list = json.asJsonList();
+            writeHeader(out, 4, list.size());
+            for (Json item : list)
+                writeJson(out, item);
+        } else if (json.isObject()) {
+            Map<String, Json> map = json.asJsonMap();
+            writeHeader(out, 5, map.size());
+            for (Map.Entry<String, Json> entry : map.entrySet()) {
+                writeString(out, entry.getKey());
+                writeJson(out, entry.getValue());
+            }
+        } else {
+            throw new IllegalArgumentException("Can't encode " + json);
+        }
+    }
+
+    private static void writeNumber(ByteArrayOutputStream out, Number number) {
+        if (number instanceof Integer || number instanceof Long || number instanceof Short
+                || number instanceof Byte || number instanceof BigInteger && ((BigInteger) number).bitLength() < 64) {
+            long value = number.longValue();
+            if (value >= 0)
+                writeHeader(out, 0, value);
+            else
+                writeHeader(out, 1, -1 - value);
+            return;
+        }
+
+        long bits = Double.doubleToLongBits(number.doubleValue());
+        out.write(0xfb);
+        for (int shift = 56; shift >= 0; shift -= 8)
+            out.write((int) (bits >>> shift));
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeHeader(out, 3, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeHeader(ByteArrayOutputStream out, int major, long length) {
+        int type = major << 5;
+        if (length < 24) {
+            out.write(type | (int) length);
+        } else if (length < 0x100) {
+            out.write(type | 24);
+            out.write((int) length);
+        } else if (length < 0x10000) {
+            out.write(type | 25);
+            out.write((int) (length >>> 8));
+            out.write((int) length);
+        } else if (length < 0x100000000L) {
+            out.write(type | 26);
+            for (int shift = 24; shift >= 0; shift -= 8)
+                out.write((int) (length >>> shift));
+        } else {
+            out.write(type | 27);
+            for (int shift = 56; shift >= 0; shift -= 8)
+                out.write((int) (length >>> shift));
+        }
+    }
+
+    /**
+     * Decode a frame.
+     *
+     * @param buffer The frame. Its position is advanced past the decoded value.
+     *
+     * @return The decoded value.
+     *
+     * @throws IllegalStateException If the frame is malformed or uses
+     *                               unsupported values.
+     */
+    static Json decode(ByteBuffer buffer) {
+        try {
+            return read(buffer);
+        } catch (java.nio.BufferUnderflowException | IndexOutOfBoundsException e) {
+            // Absolute reads looking for a break throw the latter.
+            throw new IllegalStateException("Truncated CBOR frame", e);
+        }
+    }
+
+    private static Json read(ByteBuffer buffer) {
+        int initial = buffer.get() & 0xff;
+        if (initial == BREAK)
+            throw new IllegalStateException("Unexpected CBOR break");
+
+        int major = initial >>> 5;
+        int info = initial & 0x1f;
+
+        switch (major) {
+            case 0: {
+                long value = readLength(buffer, info);
+                if (value < 0)
+                    return Json.make(new BigInteger(Long.toUnsignedString(value)));
+                return Json.make(narrow(value));
+            }
+            case 1: {
+                long value = readLength(buffer, info);
+                if (value < 0)
+                    return Json.make(new BigInteger(Long.toUnsignedString(value)).negate().subtract(BigInteger.ONE));
+                return Json.make(narrow(-1 - value));
+            }
+            case 2: {
+                byte[] bytes = readBytes(buffer, info, 2);
+                Json array = Json.array();
+                for (byte b : bytes)
+                    array.add(b & 0xff);
+                return array;
+            }
+            case 3:
+                return Json.make(new String(readBytes(buffer, info, 3), StandardCharsets.UTF_8));
+            case 4: {
+                Json array = Json.array();
+                if (info == 31) {
+                    while (!consumeBreak(buffer))
+                        array.add(read(buffer));
+                } else {
+                    for (long i = readLength(buffer, info); i > 0; i--)
+                        array.add(read(buffer));
+                }
+                return array;
+            }
+            case 5: {
+                Json object = Json.object();
+                if (info == 31) {
+                    while (!consumeBreak(buffer))
+                        object.set(key(read(buffer)), read(buffer));
+                } else {
+                    for (long i = readLength(buffer, info); i > 0; i--)
+                        object.set(key(read(buffer)), read(buffer));
+                }
+                return object;
+            }
+            case 6:
+                return readTagged(buffer, readLength(buffer, info));
+            default:
+                return readSimple(buffer, info);
+        }
+    }
+
+    private static Json readTagged(ByteBuffer buffer, long tag) {
+        if (tag == TAG_NONE) {
+            read(buffer);
+            return Json.nil();
+        }
+
+        if (tag == TAG_UUID) {
+            int initial = buffer.get() & 0xff;
+            byte[] bytes = readBytes(buffer, initial & 0x1f, 2);
+            if (initial >>> 5 != 2 || bytes.length != 16)
+                throw new IllegalStateException("Malformed CBOR UUID");
+            ByteBuffer uuid = ByteBuffer.wrap(bytes);
+            return Json.make(new UUID(uuid.getLong(), uuid.getLong()).toString());
+        }
+
+        Json value = read(buffer);
+        if (tag == TAG_RECORD_ID) {
+            if (!value.isArray() || value.asJsonList().size() != 2)
+                throw new IllegalStateException("Malformed CBOR record ID");
+            Json id = value.at(1);
+            return Json.make(value.at(0).asString() + ":" + (id.isString() ? id.asString() : id.toString()));
+        }
+        if (tag == TAG_STRING_DECIMAL && value.isString())
+            return Json.make(new BigDecimal(value.asString()));
+        if (tag == TAG_COMPACT_DATETIME && value.isArray()) {
+            List<Json> parts = value.asJsonList();
+            long seconds = parts.isEmpty() ? 0 : parts.get(0).asLong();
+            long nanos = parts.size() < 2 ? 0 : parts.get(1).asLong();
+            return Json.make(Instant.ofEpochSecond(seconds, nanos).toString());
+        }
+        if (tag == TAG_COMPACT_DURATION && value.isArray()) {
+            List<Json> parts = value.asJsonList();
+            long seconds = parts.isEmpty() ? 0 : parts.get(0).asLong();
+            long nanos = parts.size() < 2 ? 0 : parts.get(1).asLong();
+            StringBuilder duration = new StringBuilder();
+            if (seconds != 0 || nanos == 0)
+                duration.append(seconds).append('s');
+            if (nanos != 0)
+                duration.append(nanos).append("ns");
+            return Json.make(duration.toString());
+        }
+
+        // String datetimes (0), tables (7), string UUIDs (9) and string
+        // durations (13) are already strings; everything else is passed
+        // through untagged.
+        return value;
+    }
+
+    private static Json readSimple(ByteBuffer buffer, int info) {
+        switch (info) {
+            case 20:
+                return Json.make(false);
+            case 21:
+                return Json.make(true);
+            case 22:
+            case 23:
+                return Json.nil();
+            case 25:
+                return Json.make(halfToFloat(buffer.getShort() & 0xffff));
+            case 26:
+                return Json.make((double) buffer.getFloat());
+            case 27:
+                return Json.make(buffer.getDouble());
+            default:
+                if (info < 20)
+                    return Json.make(info);
+                if (info == 24)
+                    return Json.make(buffer.get() & 0xff);
+                throw new IllegalStateException("Unsupported CBOR simple value " + info);
+        }
+    }
+
+    private static double halfToFloat(int half) {
+        int exponent = (half >>> 10) & 0x1f;
+        int mantissa = half & 0x3ff;
+        double value;
+        if (exponent == 0)
+            value = mantissa * Math.pow(2, -24);
+        else if (exponent == 31)
+            value = mantissa == 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+        else
+            value = (mantissa + 1024) * Math.pow(2, exponent - 25);
+        return (half & 0x8000) != 0 ? -value : value;
+    }
+
+    private static boolean consumeBreak(ByteBuffer buffer) {
+        if ((buffer.get(buffer.position()) & 0xff) != BREAK)
+            return false;
+        buffer.get();
+        return true;
+    }
+
+    private static String key(Json key) {
+        return key.isString() ? key.asString() : key.toString();
+    }
+
+    private static Number narrow(long value) {
+        if (value == (int) value)
+            return (int) value;
+        return value;
+    }
+
+    private static long readLength(ByteBuffer buffer, int info) {
+        if (info < 24)
+            return info;
+        switch (info) {
+            case 24:
+                return buffer.get() & 0xff;
+            case 25:
+                return buffer.getShort() & 0xffff;
+            case 26:
+                return buffer.getInt() & 0xffffffffL;
+            case 27:
+                // Values above Long.MAX_VALUE come out negative, callers check.
+                return buffer.getLong();
+            default:
+                throw new IllegalStateException("Malformed CBOR length");
+        }
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer, int info, int major) {
+        if (info != 31) {
+            long length = readLength(buffer, info);
+            if (length < 0 || length > buffer.remaining())
+                throw new IllegalStateException("Truncated CBOR frame");
+            byte[] bytes = new byte[(int) length];
+            buffer.get(bytes);
+            return bytes;
+        }
+
+        byte[] bytes = new byte[0];
+        while (!consumeBreak(buffer)) {
+            int initial = buffer.get() & 0xff;
+            if (initial >>> 5 != major)
+                throw new IllegalStateException("Malformed CBOR chunk");
+            byte[] chunk = readBytes(buffer, initial & 0x1f, major);
+            int offset = bytes.length;
+            bytes = Arrays.copyOf(bytes, offset + chunk.length);
+            System.arraycopy(chunk, 0, bytes, offset, chunk.length);
+        }
+        return bytes;
+    }
+}
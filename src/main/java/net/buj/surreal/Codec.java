@@ -0,0 +1,545 @@
+package net.buj.surreal;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+import mjson.Json;
+
+/**
+ * Maps between SurrealDB values and Java objects.
+ * <p>
+ * Codecs are built once per class and cached, so mapping a value never
+ * touches reflection. Object codecs read straight from a {@link JsonReader}
+ * without building an intermediate tree.
+ *
+ * @param <T> Mapped type.
+ */
+abstract class Codec<T> {
+    private static final ClassValue<Codec<?>> CACHE = new ClassValue<Codec<?>>() {
+        @Override
+        protected Codec<?> computeValue(Class<?> type) {
+            return create(type);
+        }
+    };
+
+    /**
+     * Collections and maps created for interfaces and abstract classes, the
+     * first one that fits is used.
+     */
+    private static final Class<?>[] IMPLEMENTATIONS = { ArrayList.class, HashSet.class, TreeSet.class,
+            LinkedList.class, LinkedHashMap.class, TreeMap.class };
+
+    /**
+     * Get the codec for a class.
+     *
+     * @param <T>  Mapped type.
+     * @param type Mapped class.
+     *
+     * @return The codec.
+     *
+     * @throws IllegalArgumentException If the class can't be mapped.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> Codec<T> of(Class<T> type) {
+        return (Codec<T>) CACHE.get(type);
+    }
+
+    /**
+     * Convert a value from a tree.
+     *
+     * @param json The value, may be {@code null}.
+     *
+     * @return The converted value.
+     */
+    abstract T fromJson(Json json);
+
+    /**
+     * Convert a value to a tree.
+     *
+     * @param value The value, never {@code null}.
+     *
+     * @return The converted value.
+     */
+    abstract Json toJson(T value);
+
+    /**
+     * Read a value from a reader.
+     *
+     * @param reader Reader positioned at the value.
+     *
+     * @return The converted value.
+     */
+    T read(JsonReader reader) {
+        return fromJson(reader.readJson());
+    }
+
+    /**
+     * Value used for missing and {@code null} values.
+     *
+     * @return The default value.
+     */
+    T defaultValue() {
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    final Json encode(Object value) {
+        return value == null ? Json.nil() : toJson((T) value);
+    }
+
+    static boolean isNull(Json json) {
+        return json == null || json.isNull();
+    }
+
+    private static Codec<?> create(Class<?> type) {
+        if (type == String.class)
+            return STRING;
+        if (type == Json.class || type == Object.class)
+            return JSON;
+        if (type == Boolean.class || type == boolean.class)
+            return new Scalar<>(value -> value instanceof Boolean ? (Boolean) value
+                    : Boolean.valueOf(value.toString()), Json::make, type == boolean.class ? false : null);
+        if (type == Integer.class || type == int.class)
+            return new Scalar<>(value -> number(value).intValue(), Json::make, type == int.class ? 0 : null);
+        if (type == Long.class || type == long.class)
+            return new Scalar<>(value -> number(value).longValue(), Json::make, type == long.class ? 0L : null);
+        if (type == Double.class || type == double.class)
+            return new Scalar<>(value -> number(value).doubleValue(), Json::make, type == double.class ? 0.0 : null);
+        if (type == Float.class || type == float.class)
+            return new Scalar<>(value -> number(value).floatValue(), Json::make, type == float.class ? 0.0f : null);
+        if (type == Short.class || type == short.class)
+            return new Scalar<>(value -> number(value).shortValue(), Json::make,
+                    type == short.class ? (short) 0 : null);
+        if (type == Byte.class || type == byte.class)
+            return new Scalar<>(value -> number(value).byteValue(), Json::make, type == byte.class ? (byte) 0 : null);
+        if (type == Character.class || type == char.class)
+            return new Scalar<>(value -> value.toString().charAt(0), value -> Json.make(String.valueOf(value)),
+                    type == char.class ? '\0' : null);
+        if (type == BigDecimal.class)
+            return new Scalar<>(value -> new BigDecimal(value.toString()), Json::make, null);
+        if (type == BigInteger.class)
+            return new Scalar<>(value -> new BigDecimal(value.toString()).toBigInteger(), Json::make, null);
+        if (type.isEnum())
+            return enumCodec(type.asSubclass(Enum.class));
+        if (type.isArray())
+            return new ArrayCodec<>(type.getComponentType(), forType(type.getComponentType()));
+        if (Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type))
+            return forType(type);
+        if (type.isInterface() || type.isPrimitive() || type.isAnonymousClass())
+            throw new IllegalArgumentException("Can't map " + type.getName());
+        return new ObjectCodec<>(type);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Codec<?> enumCodec(Class<? extends Enum> type) {
+        return new Scalar<Enum<?>>(value -> Enum.valueOf(type, value.toString()), value -> Json.make(value.name()),
+                null);
+    }
+
+    private static Number number(Object value) {
+        return value instanceof Number ? (Number) value : new BigDecimal(value.toString());
+    }
+
+    /**
+     * Get the codec for a possibly generic type.
+     * <p>
+     * Codecs for other classes are resolved lazily, so classes may refer to
+     * themselves.
+     *
+     * @param type The type.
+     *
+     * @return The codec.
+     */
+    static Codec<?> forType(Type type) {
+        if (type instanceof Class) {
+            Class<?> clazz = (Class<?>) type;
+            if (clazz.isPrimitive() || clazz == String.class || clazz == Json.class || clazz == Object.class
+                    || clazz.isEnum()
+                    || Number.class.isAssignableFrom(clazz) || clazz == Boolean.class || clazz == Character.class)
+                return of(clazz);
+            if (Collection.class.isAssignableFrom(clazz))
+                return new CollectionCodec(constructor(clazz), JSON);
+            if (Map.class.isAssignableFrom(clazz))
+                return new MapCodec(constructor(clazz), JSON);
+            return new Lazy<>(clazz);
+        }
+        if (type instanceof ParameterizedType) {
+            ParameterizedType parameterized = (ParameterizedType) type;
+            Class<?> raw = (Class<?>) parameterized.getRawType();
+            Type[] arguments = parameterized.getActualTypeArguments();
+            if (Collection.class.isAssignableFrom(raw))
+                return new CollectionCodec(constructor(raw), forType(arguments[0]));
+            if (Map.class.isAssignableFrom(raw))
+                return new MapCodec(constructor(raw), forType(arguments[1]));
+            return forType(raw);
+        }
+        if (type instanceof GenericArrayType) {
+            Type component = ((GenericArrayType) type).getGenericComponentType();
+            Class<?> raw = component instanceof ParameterizedType
+                    ? (Class<?>) ((ParameterizedType) component).getRawType()
+                    : Object.class;
+            return new ArrayCodec<>(raw, forType(component));
+        }
+        return JSON;
+    }
+
+    /**
+     * Get the constructor of the collection or map to create for a declared
+     * type.
+     *
+     * @param declared Declared type.
+     *
+     * @return A no-argument constructor returning {@code Object}.
+     *
+     * @throws IllegalArgumentException If there is no fitting implementation.
+     */
+    private static MethodHandle constructor(Class<?> declared) {
+        Class<?> type = null;
+        if (!declared.isInterface() && !Modifier.isAbstract(declared.getModifiers())) {
+            type = declared;
+        } else {
+            for (Class<?> implementation : IMPLEMENTATIONS)
+                if (declared.isAssignableFrom(implementation)) {
+                    type = implementation;
+                    break;
+                }
+        }
+        if (type == null)
+            throw new IllegalArgumentException("Can't map " + declared.getName());
+
+        try {
+            return MethodHandles.publicLookup().findConstructor(type, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Can't map " + declared.getName(), e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <C> C newInstance(MethodHandle constructor) {
+        try {
+            return (C) (Object) constructor.invokeExact();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Can't construct " + constructor.type(), e);
+        }
+    }
+
+    static final Codec<String> STRING = new Codec<String>() {
+        @Override
+        String fromJson(Json json) {
+            if (isNull(json))
+                return null;
+            return json.isString() ? json.asString() : json.toString();
+        }
+
+        @Override
+        Json toJson(String value) {
+            return Json.make(value);
+        }
+
+        @Override
+        String read(JsonReader reader) {
+            switch (reader.peek()) {
+                case STRING:
+                    return reader.nextString();
+                case NULL:
+                    reader.nextNull();
+                    return null;
+                default:
+                    return reader.readJson().toString();
+            }
+        }
+    };
+
+    static final Codec<Json> JSON = new Codec<Json>() {
+        @Override
+        Json fromJson(Json json) {
+            return json;
+        }
+
+        @Override
+        Json toJson(Json value) {
+            return value;
+        }
+    };
+
+    /**
+     * Codec for values that are a single JSON primitive.
+     *
+     * @param <T> Mapped type.
+     */
+    private static final class Scalar<T> extends Codec<T> {
+        private final Function<Object, T> from;
+        private final Function<T, Json> to;
+        private final T defaultValue;
+
+        /**
+         * Construct {@link Scalar}.
+         *
+         * @param from         Conversion from a string, number or boolean.
+         * @param to           Conversion to a tree.
+         * @param defaultValue Value for {@code null}.
+         */
+        Scalar(Function<Object, T> from, Function<T, Json> to, T defaultValue) {
+            this.from = from;
+            this.to = to;
+            this.defaultValue = defaultValue;
+        }
+
+        @Override
+        T fromJson(Json json) {
+            if (isNull(json))
+                return defaultValue;
+            if (!json.isPrimitive())
+                throw new IllegalArgumentException("Expected a primitive, got " + json);
+            return from.apply(json.getValue());
+        }
+
+        @Override
+        T read(JsonReader reader) {
+            switch (reader.peek()) {
+                case NULL:
+                    reader.nextNull();
+                    return defaultValue;
+                case STRING:
+                    return from.apply(reader.nextString());
+                case NUMBER:
+                    return from.apply(reader.nextNumber());
+                case BOOLEAN:
+                    return from.apply(reader.nextBoolean());
+                default:
+                    return fromJson(reader.readJson());
+            }
+        }
+
+        @Override
+        Json toJson(T value) {
+            return to.apply(value);
+        }
+
+        @Override
+        T defaultValue() {
+            return defaultValue;
+        }
+    }
+
+    private static final class Lazy<T> extends Codec<T> {
+        private final Class<T> type;
+        private volatile Codec<T> codec;
+
+        Lazy(Class<T> type) {
+            this.type = type;
+        }
+
+        private Codec<T> codec() {
+            Codec<T> resolved = codec;
+            if (resolved == null)
+                codec = resolved = of(type);
+            return resolved;
+        }
+
+        @Override
+        T fromJson(Json json) {
+            return codec().fromJson(json);
+        }
+
+        @Override
+        Json toJson(T value) {
+            return codec().toJson(value);
+        }
+
+        @Override
+        T read(JsonReader reader) {
+            return codec().read(reader);
+        }
+    }
+
+    private static final class CollectionCodec extends Codec<Collection<Object>> {
+        private final MethodHandle constructor;
+        private final Codec<?> element;
+
+        CollectionCodec(MethodHandle constructor, Codec<?> element) {
+            this.constructor = constructor;
+            this.element = element;
+        }
+
+        @Override
+        Collection<Object> fromJson(Json json) {
+            if (isNull(json))
+                return null;
+            Collection<Object> collection = newInstance(constructor);
+            for (Json item : json.asJsonList())
+                collection.add(element.fromJson(item));
+            return collection;
+        }
+
+        @Override
+        Collection<Object> read(JsonReader reader) {
+            if (reader.peek() == JsonReader.Token.NULL) {
+                reader.nextNull();
+                return null;
+            }
+            Collection<Object> collection = newInstance(constructor);
+            reader.beginArray();
+            while (reader.hasNext())
+                collection.add(element.read(reader));
+            reader.endArray();
+            return collection;
+        }
+
+        @Override
+        Json toJson(Collection<Object> value) {
+            Json array = Json.array();
+            for (Object item : value)
+                array.add(element.encode(item));
+            return array;
+        }
+    }
+
+    private static final class MapCodec extends Codec<Map<String, Object>> {
+        private final MethodHandle constructor;
+        private final Codec<?> value;
+
+        MapCodec(MethodHandle constructor, Codec<?> value) {
+            this.constructor = constructor;
+            this.value = value;
+        }
+
+        @Override
+        Map<String, Object> fromJson(Json json) {
+            if (isNull(json))
+                return null;
+            Map<String, Object> map = newInstance(constructor);
+            for (Map.Entry<String, Json> entry : json.asJsonMap().entrySet())
+                map.put(entry.getKey(), value.fromJson(entry.getValue()));
+            return map;
+        }
+
+        @Override
+        Map<String, Object> read(JsonReader reader) {
+            if (reader.peek() == JsonReader.Token.NULL) {
+                reader.nextNull();
+                return null;
+            }
+            Map<String, Object> map = newInstance(constructor);
+            reader.beginObject();
+            while (reader.hasNext())
+                map.put(reader.nextName(), value.read(reader));
+            reader.endObject();
+            return map;
+        }
+
+        @Override
+        Json toJson(Map<String, Object> map) {
+            Json object = Json.object();
+            for (Map.Entry<String, Object> entry : map.entrySet())
+                object.set(entry.getKey(), value.encode(entry.getValue()));
+            return object;
+        }
+    }
+
+    /**
+     * Arrays, accessed through method handles resolved once per codec, so
+     * primitive elements aren't looked up reflectively on every access.
+     */
+    private static final class ArrayCodec<T> extends Codec<T> {
+        private static final MethodType CONSTRUCTOR = MethodType.methodType(Object.class, int.class);
+        private static final MethodType LENGTH = MethodType.methodType(int.class, Object.class);
+        private static final MethodType GETTER = MethodType.methodType(Object.class, Object.class, int.class);
+        private static final MethodType SETTER = MethodType.methodType(void.class, Object.class, int.class,
+                Object.class);
+
+        private final Class<?> type;
+        private final Codec<?> element;
+        private final MethodHandle constructor;
+        private final MethodHandle length;
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+
+        ArrayCodec(Class<?> component, Codec<?> element) {
+            this.type = Array.newInstance(component, 0).getClass();
+            this.element = element;
+            this.constructor = MethodHandles.arrayConstructor(type).asType(CONSTRUCTOR);
+            this.length = MethodHandles.arrayLength(type).asType(LENGTH);
+            this.getter = MethodHandles.arrayElementGetter(type).asType(GETTER);
+            this.setter = MethodHandles.arrayElementSetter(type).asType(SETTER);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        T fromJson(Json json) {
+            if (isNull(json))
+                return null;
+            List<Json> list = json.asJsonList();
+            try {
+                Object array = (Object) constructor.invokeExact(list.size());
+                for (int i = 0; i < list.size(); i++)
+                    setter.invokeExact(array, i, (Object) element.fromJson(list.get(i)));
+                return (T) array;
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("Can't construct " + type.getName(), e);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        T read(JsonReader reader) {
+            if (reader.peek() == JsonReader.Token.NULL) {
+                reader.nextNull();
+                return null;
+            }
+            List<Object> list = new ArrayList<>();
+            reader.beginArray();
+            while (reader.hasNext())
+                list.add(element.read(reader));
+            reader.endArray();
+            try {
+                Object array = (Object) constructor.invokeExact(list.size());
+                for (int i = 0; i < list.size(); i++)
+                    setter.invokeExact(array, i, list.get(i));
+                return (T) array;
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("Can't construct " + type.getName(), e);
+            }
+        }
+
+        @Override
+        Json toJson(T value) {
+            Json array = Json.array();
+            try {
+                int length = (int) this.length.invokeExact((Object) value);
+                for (int i = 0; i < length; i++)
+                    array.add(element.encode((Object) getter.invokeExact((Object) value, i)));
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("Can't read " + type.getName(), e);
+            }
+            return array;
+        }
+    }
+}
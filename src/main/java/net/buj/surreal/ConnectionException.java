@@ -0,0 +1,25 @@
+package net.buj.surreal;
+
+/**
+ * A request failed because the connection to SurrealDB was lost or could
+ * not be used, so it may not have reached SurrealDB.
+ */
+public class ConnectionException extends ResponseException {
+    /**
+     * Construct {@link ConnectionException}.
+     *
+     * @param message Error message.
+     */
+    public ConnectionException(String message) {
+        super(message);
+    }
+
+    /**
+     * Construct {@link ConnectionException}.
+     *
+     * @param cause The error of the connection.
+     */
+    public ConnectionException(Exception cause) {
+        super(cause);
+    }
+}
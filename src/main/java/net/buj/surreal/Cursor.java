@@ -0,0 +1,259 @@
+package net.buj.surreal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import mjson.Json;
+
+/**
+ * Rows of a large {@code SELECT}, read one page at a time.
+ * <p>
+ * Created with {@link Driver#cursor(Query, int)} or
+ * {@link Driver#cursor(String, int)}. The first page is requested right away,
+ * and every page is requested as soon as the one before it has arrived, so
+ * the next page is on its way while the current one is consumed. At most two
+ * pages are held in memory, however large the result is.
+ * <p>
+ * Rows can be iterated, streamed with {@link Cursor#stream()}, or read page
+ * by page without blocking with {@link Cursor#nextPage()}. A cursor is not
+ * thread-safe and should only be read in one of these ways.
+ */
+public final class Cursor implements Iterator<Json>, AutoCloseable {
+    private static final CompletableFuture<List<Json>> END = CompletableFuture.completedFuture(Collections.emptyList());
+
+    /**
+     * Builds the query for a page.
+     */
+    interface Pager {
+        /**
+         * Build the query for a page.
+         *
+         * @param start Amount of rows read so far.
+         * @param last  The last row read so far, or {@code null} for the
+         *              first page.
+         * @param limit Page size.
+         *
+         * @return The query.
+         */
+        Query page(long start, Json last, int limit);
+    }
+
+    private final Driver driver;
+    private final Pager pager;
+    private final int pageSize;
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * The page to be returned next. Completes with an empty list at the end.
+     */
+    private CompletableFuture<List<Json>> pending;
+    /**
+     * Amount of rows fetched, only touched by page callbacks, which run one
+     * after another.
+     */
+    private long fetched;
+    private Iterator<Json> current = Collections.emptyIterator();
+    private boolean done;
+    private volatile boolean closed;
+
+    Cursor(Driver driver, Pager pager, int pageSize) {
+        if (pageSize <= 0)
+            throw new IllegalArgumentException("Page size must be positive");
+        this.driver = driver;
+        this.pager = pager;
+        this.pageSize = pageSize;
+        this.pending = fetch(null);
+    }
+
+    /**
+     * Page through the results of a single {@code SELECT} with
+     * {@code START} and {@code LIMIT}.
+     * <p>
+     * Rows are ordered by {@code id} unless the query has an
+     * {@code ORDER BY} of its own, since pages of rows in no particular order
+     * could overlap or leave out rows.
+     *
+     * @param query A query with a single {@code SELECT} statement.
+     *
+     * @return Pager for the query.
+     *
+     * @throws IllegalArgumentException If the query has more than one
+     *                                  statement.
+     */
+    static Pager offset(Query query) {
+        Statements statements = Statements.analyze(query.sql);
+        if (statements.count != 1)
+            throw new IllegalArgumentException("Only a single statement can be read with a cursor");
+        // Without its separator and trailing comments.
+        String sql = query.sql.substring(0, statements.end);
+        String paged = "SELECT * FROM (" + sql + ")" + (statements.ordered ? "" : " ORDER BY id")
+                + " LIMIT $cursor_limit START $cursor_start";
+
+        return (start, last, limit) -> copy(query, paged).x("cursor_limit", limit).x("cursor_start", start);
+    }
+
+    /**
+     * Page through a table in record ID order, starting every page after the
+     * last record of the one before.
+     *
+     * @param table Table name.
+     *
+     * @return Pager for the table.
+     */
+    static Pager table(String table) {
+        String source = Statements.identifier(table);
+        String first = "SELECT * FROM " + source + " ORDER BY id LIMIT $cursor_limit";
+        String next = "SELECT * FROM " + source + " WHERE id > <record> $cursor_after ORDER BY id LIMIT $cursor_limit";
+
+        return (start, last, limit) -> {
+            if (last == null)
+                return new Query(first).x("cursor_limit", limit);
+            Json id = last.isObject() ? last.at("id") : null;
+            if (id == null)
+                throw new IllegalStateException("Row has no record ID");
+            return new Query(next).x("cursor_limit", limit).x("cursor_after", id);
+        };
+    }
+
+    private static Query copy(Query query, String sql) {
+        Query copy = new Query(sql);
+        for (Map.Entry<String, Json> param : query.params.asJsonMap().entrySet())
+            copy.x(param.getKey(), param.getValue());
+        copy.timeout = query.timeout;
+        copy.idempotent = query.idempotent;
+        copy.tag = query.tag;
+        return copy;
+    }
+
+    private CompletableFuture<List<Json>> fetch(Json last) {
+        CompletableFuture<List<Json>> future = new CompletableFuture<>();
+        List<Json> rows = new ArrayList<>(pageSize);
+        Query query;
+        try {
+            query = pager.page(fetched, last, pageSize);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        driver.query(query, (statement, row) -> rows.add(row), new EventCallback<Response[]>() {
+            @Override
+            public void run(Response[] value) {
+                try {
+                    for (Response response : value)
+                        response.ok();
+                } catch (ResponseException e) {
+                    fail(e);
+                    return;
+                }
+                future.complete(rows);
+            }
+
+            @Override
+            public void fail(Exception error) {
+                future.completeExceptionally(error);
+            }
+        });
+        return future;
+    }
+
+    private CompletableFuture<List<Json>> following(List<Json> rows) {
+        if (rows.size() < pageSize || closed)
+            return END;
+        fetched += rows.size();
+        return fetch(rows.get(rows.size() - 1));
+    }
+
+    /**
+     * Get the next page.
+     * <p>
+     * Requesting a page doesn't wait for the previous one to be consumed. The
+     * page after the returned one is requested as soon as it has arrived.
+     *
+     * @return A future for the rows of the next page, completed with an empty
+     *         list once all rows have been read. Fails if a page couldn't be
+     *         read; the pages after it fail the same way.
+     */
+    public CompletableFuture<List<Json>> nextPage() {
+        lock.lock();
+        try {
+            if (closed)
+                return END;
+            CompletableFuture<List<Json>> page = pending;
+            pending = page.thenCompose(this::following);
+            return page;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Check if there are more rows, waiting for the next page if needed.
+     *
+     * @return {@code true} if there are more rows.
+     *
+     * @throws CompletionException If a page couldn't be read.
+     */
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            if (done)
+                return false;
+            List<Json> page = nextPage().join();
+            if (page.isEmpty())
+                done = true;
+            else
+                current = page.iterator();
+        }
+        return true;
+    }
+
+    /**
+     * Get the next row, waiting for the next page if needed.
+     *
+     * @return The row.
+     *
+     * @throws CompletionException    If a page couldn't be read.
+     * @throws NoSuchElementException If all rows have been read.
+     */
+    @Override
+    public Json next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return current.next();
+    }
+
+    /**
+     * Get the remaining rows as a stream.
+     * <p>
+     * Closing the stream closes the cursor.
+     *
+     * @return A sequential stream of rows.
+     */
+    public Stream<Json> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL),
+                false).onClose(this::close);
+    }
+
+    /**
+     * Stop reading rows.
+     * <p>
+     * A page that has already been requested still arrives, but is dropped.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        done = true;
+        current = Collections.emptyIterator();
+    }
+}
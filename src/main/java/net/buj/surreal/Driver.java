@@ -1,23 +1,35 @@
 package net.buj.surreal;
 
 import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.nio.charset.StandardCharsets;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 import mjson.Json;
 import net.buj.surreal.SurrealURL.RootAuthorization;
@@ -31,6 +43,19 @@ import net.buj.surreal.SurrealURL.TokenAuthorization;
  * SurrealDB driver is mostly asynchronous.
  */
 public class Driver implements AutoCloseable {
+    /**
+     * Callback for requests whose outcome doesn't matter.
+     */
+    static final EventCallback<Object> IGNORE = new EventCallback<Object>() {
+        @Override
+        public void run(Object value) {
+        }
+
+        @Override
+        public void fail(Exception error) {
+        }
+    };
+
     private final List<EventCallback<Object>> connectedListeners = new ArrayList<>();
 
     /**
@@ -70,96 +95,720 @@ public class Driver implements AutoCloseable {
      * @throws InterruptedException If driver gets interrupted while connecting.
      */
     public Driver(SurrealURL url) throws IOException, InterruptedException {
+        this(url, () -> new WebSocketTransport(url));
+    }
+
+    /**
+     * Create a new {@link Driver} with a custom transport.
+     *
+     * @param url        SurrealRPC URL.
+     * @param transports Creates a new, unconnected transport for every
+     *                   connection, including reconnections.
+     *
+     * @throws IOException          If connection to SurrealDB fails.
+     * @throws InterruptedException If driver gets interrupted while connecting.
+     */
+    public Driver(SurrealURL url, Supplier<? extends Transport> transports) throws IOException, InterruptedException {
+        this(url, transports, null);
+        String token = signIn(url, null);
+
+        connect(client);
+
+        handshake(client, token, true);
+    }
+
+    private Driver(SurrealURL url, Supplier<? extends Transport> transports, TokenCache tokens) {
         Objects.requireNonNull(url);
+        Objects.requireNonNull(transports);
 
-        String token;
-        if (url.authorization instanceof TokenAuthorization) {
-            token = ((TokenAuthorization) url.authorization).token;
-        } else if (url.authorization instanceof RootAuthorization) {
-            try {
-                HttpURLConnection con = (HttpURLConnection) url.loginUri.toURL().openConnection();
-                con.setRequestProperty("Accept", "application/json");
-                con.setRequestMethod("POST");
-                con.setDoInput(true);
-                con.setDoOutput(true);
-
-                Json json = Json.object();
-                json.set("user", ((RootAuthorization) url.authorization).username);
-                json.set("pass", ((RootAuthorization) url.authorization).password);
-
-                con.getOutputStream().write(json.toString().getBytes(StandardCharsets.UTF_8));
-                json = Json.read(new String(con.getInputStream().readAllBytes(),
-                        StandardCharsets.UTF_8));
-
-                if (json.at("code").asInteger() != 200)
-                    throw new IOException(json.at("details").asString());
-
-                token = json.at("token").asString();
-            } catch (MalformedURLException oh) {
-                throw new RuntimeException("Internal error. This is a bug in SurrealRPC!",
-                        oh);
+        this.url = url;
+        this.transports = transports;
+        this.tokens = tokens;
+        client = new RpcClient(this, url, transports.get());
+    }
+
+    private void connect(RpcClient client) throws IOException, InterruptedException {
+        try {
+            client.connect().get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not connect to " + url.rpcUri, e.getCause());
+        } catch (TimeoutException e) {
+            client.close();
+            throw new IOException("Timed out connecting to " + url.rpcUri, e);
+        }
+    }
+
+    /**
+     * Connect to SurrealDB without blocking.
+     * <p>
+     * See {@link Driver#connectAsync(SurrealURL, Supplier, TokenCache)}.
+     *
+     * @param url SurrealRPC URL.
+     *
+     * @return A future for the driver, completed once it's connected.
+     */
+    public static CompletableFuture<Driver> connectAsync(SurrealURL url) {
+        return connectAsync(url, () -> new WebSocketTransport(url), null);
+    }
+
+    /**
+     * Connect to SurrealDB without blocking, reusing cached tokens.
+     * <p>
+     * See {@link Driver#connectAsync(SurrealURL, Supplier, TokenCache)}.
+     *
+     * @param url    SurrealRPC URL.
+     * @param tokens Cache for root sign-in tokens, or {@code null}.
+     *
+     * @return A future for the driver, completed once it's connected.
+     */
+    public static CompletableFuture<Driver> connectAsync(SurrealURL url, TokenCache tokens) {
+        return connectAsync(url, () -> new WebSocketTransport(url), tokens);
+    }
+
+    /**
+     * Connect to SurrealDB without blocking.
+     * <p>
+     * Signing in with root authorization and opening the connection happen
+     * at the same time. Reconnections also use the token cache. If SurrealDB
+     * rejects a token, it's dropped from the cache and the driver signs in
+     * once more.
+     * <p>
+     * The future fails with an {@link IOException} if signing in fails or
+     * the connection can't be opened within 5 seconds, or with the error of
+     * the handshake if SurrealDB rejects the token.
+     *
+     * @param url        SurrealRPC URL.
+     * @param transports Creates a new, unconnected transport for every
+     *                   connection, including reconnections.
+     * @param tokens     Cache for root sign-in tokens, or {@code null}.
+     *
+     * @return A future for the driver, completed once it's connected.
+     */
+    public static CompletableFuture<Driver> connectAsync(SurrealURL url, Supplier<? extends Transport> transports,
+            TokenCache tokens) {
+        Driver driver = new Driver(url, transports, tokens);
+        RpcClient client = driver.client;
+        CompletableFuture<Driver> future = new CompletableFuture<>();
+        driver.onConnect(new EventCallback<Object>() {
+            @Override
+            public void run(Object value) {
+                future.complete(driver);
             }
-        } else {
-            throw new RuntimeException("Unreachable!");
+
+            @Override
+            public void fail(Exception error) {
+                driver.closed = true;
+                client.close();
+                future.completeExceptionally(error);
+            }
+        });
+
+        CompletableFuture<Void> open = client.connect().orTimeout(5, TimeUnit.SECONDS);
+        signInAsync(url, tokens).thenCombine(open, (token, value) -> token).whenComplete((token, error) -> {
+            if (error == null) {
+                driver.handshake(client, token, true);
+                return;
+            }
+
+            Exception cause = unwrap(error);
+            IOException failure;
+            if (cause instanceof IOException)
+                failure = (IOException) cause;
+            else if (cause instanceof TimeoutException)
+                failure = new IOException("Timed out connecting to " + url.rpcUri, cause);
+            else
+                failure = new IOException("Could not connect to " + url.rpcUri, cause);
+            driver.handshakeFailed(client, failure, true);
+        });
+        return future;
+    }
+
+    private static String signIn(SurrealURL url, TokenCache tokens) throws IOException {
+        try {
+            return signInAsync(url, tokens).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while signing in", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException("Could not sign in to " + url.loginUri, e.getCause());
         }
+    }
+
+    private static CompletableFuture<String> signInAsync(SurrealURL url, TokenCache tokens) {
+        if (url.authorization instanceof TokenAuthorization)
+            return CompletableFuture.completedFuture(((TokenAuthorization) url.authorization).token);
+        if (!(url.authorization instanceof RootAuthorization))
+            throw new RuntimeException("Unreachable!");
+        if (tokens != null)
+            return tokens.get(url, () -> signInAsync(url, null));
+
+        Json json = Json.object();
+        json.set("user", ((RootAuthorization) url.authorization).username);
+        json.set("pass", ((RootAuthorization) url.authorization).password);
+
+        HttpRequest request = HttpRequest.newBuilder(url.loginUri)
+                .header("Accept", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json.toString()))
+                .build();
+        return HttpClientTransport.shared().sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .thenApply(response -> {
+                    if (response.statusCode() != 200)
+                        throw new CompletionException(new IOException(
+                                "Sign in failed with HTTP status " + response.statusCode() + ": " + response.body()));
+
+                    Json body = Json.read(response.body());
+                    if (body.at("code").asInteger() != 200)
+                        throw new CompletionException(new IOException(body.at("details").asString()));
+                    return body.at("token").asString();
+                });
+    }
 
-        client = new RpcClient(this, url.rpcUri);
-        client.connectBlocking(5, TimeUnit.SECONDS);
+    private void handshake(RpcClient client, String token, boolean initial) {
+        handshake(client, token, initial, tokens != null && url.authorization instanceof RootAuthorization);
+    }
 
+    /**
+     * Authenticate a new connection and select the namespace and database.
+     *
+     * @param client  The connection.
+     * @param token   Token to authenticate with.
+     * @param initial Whether this is the first connection of the driver.
+     * @param retry   Whether to sign in again if the token is rejected, for
+     *                tokens that may come from the cache.
+     */
+    private void handshake(RpcClient client, String token, boolean initial, boolean retry) {
         client.request("authenticate", new EventCallback<Json>() {
             @Override
             public void run(Json value) {
                 client.request("use", new EventCallback<Json>() {
                     @Override
-                    @SuppressWarnings("unchecked")
                     public void run(Json value) {
-                        synchronized (syncObject) {
-                            Queue<Object[]> queue = overheadQueue;
-                            overheadQueue = null;
-
-                            for (Object[] args : queue)
-                                query((Query) args[0], (EventCallback<Response[]>) args[1]);
-                        }
-                        Object object = new Object();
-                        for (EventCallback<Object> listener : connectedListeners)
-                            listener.run(object);
+                        connected(client, initial);
                     }
 
                     @Override
-                    @SuppressWarnings("unchecked")
                     public void fail(Exception error) {
-                        for (EventCallback<Object> listener : connectedListeners)
-                            listener.fail(error);
-
-                        Queue<Object[]> queue = overheadQueue;
-                        overheadQueue = null;
-
-                        for (Object[] args : queue)
-                            ((EventCallback<Response[]>) args[1]).fail(error);
+                        handshakeFailed(client, error, initial);
                     }
                 }, url.namespace, url.database);
             }
 
             @Override
-            @SuppressWarnings("unchecked")
             public void fail(Exception error) {
-                for (EventCallback<Object> listener : connectedListeners)
-                    listener.fail(error);
-
-                Queue<Object[]> queue = overheadQueue;
-                overheadQueue = null;
+                if (!retry) {
+                    handshakeFailed(client, error, initial);
+                    return;
+                }
 
-                for (Object[] args : queue)
-                    ((EventCallback<Response[]>) args[1]).fail(error);
+                // A cached token may have been revoked, or the server may
+                // have restarted since it was issued.
+                tokens.invalidate(url, token);
+                signInAsync(url, tokens).whenComplete((fresh, signInError) -> {
+                    if (signInError == null)
+                        handshake(client, fresh, initial, false);
+                    else
+                        handshakeFailed(client, unwrap(signInError), initial);
+                });
             }
         }, token);
     }
 
-    private final RpcClient client;
-    final Object syncObject = new Object();
-    private Queue<Object[]> overheadQueue = new ArrayDeque<>(16);
-    final Set<EventCallback<LiveResponse>> liveListeners = new HashSet<>();
-    final Map<String, EventCallback<LiveResponse>> sLiveListeners = new HashMap<>();
+    private static Exception unwrap(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause instanceof Exception ? (Exception) cause : new CompletionException(cause);
+    }
+
+    private void connected(RpcClient client, boolean initial) {
+        if (!initial) {
+            reconnectAttempts.set(0);
+            restoreLive(client);
+
+            QueryCache cache = this.cache;
+            if (cache != null)
+                cache.clear();
+
+            RpcClient.Pending pending;
+            while ((pending = replayQueue.poll()) != null)
+                client.replay(pending);
+        }
+
+        queueLock.lock();
+        try {
+            Queue<Queued> queue = overheadQueue;
+            overheadQueue = null;
+
+            replaying = Thread.currentThread();
+            Queued queued;
+            while ((queued = queue.poll()) != null) {
+                if (queued.timer != null)
+                    queued.timer.cancel();
+                replayDeadline = queued.deadline;
+                queued.retry.run();
+            }
+        } finally {
+            replaying = null;
+            replayDeadline = 0;
+            queueLock.unlock();
+        }
+
+        if (initial) {
+            Object object = new Object();
+            for (EventCallback<Object> listener : connectedListeners)
+                listener.run(object);
+        }
+    }
+
+    private void handshakeFailed(RpcClient client, Exception error, boolean initial) {
+        if (!initial) {
+            // Reconnects until the policy gives up.
+            client.close();
+            return;
+        }
+
+        for (EventCallback<Object> listener : connectedListeners)
+            listener.fail(error);
+
+        failQueued(error);
+    }
+
+    private void failQueued(Exception error) {
+        Queue<Queued> queue;
+        queueLock.lock();
+        try {
+            queue = overheadQueue;
+            overheadQueue = null;
+        } finally {
+            queueLock.unlock();
+        }
+
+        if (queue != null)
+            for (Queued queued : queue) {
+                if (queued.timer != null)
+                    queued.timer.cancel();
+                queued.callback.fail(error);
+            }
+
+        RpcClient.Pending pending;
+        while ((pending = replayQueue.poll()) != null)
+            pending.callback.fail(error);
+    }
+
+    /**
+     * Queue an operation until the driver is connected.
+     *
+     * @param retry    The operation, called again once connected.
+     * @param callback Callback of the operation, failed if connection fails.
+     * @param timeout  Timeout of the operation in nanoseconds, or {@code 0}
+     *                 to wait forever. Includes the time spent queued.
+     *
+     * @return {@code true} if the operation was queued, {@code false} if it
+     *         should be executed immediately.
+     */
+    private boolean enqueue(Runnable retry, EventCallback<?> callback, long timeout) {
+        queueLock.lock();
+        try {
+            Queue<Queued> queue = overheadQueue;
+            if (queue == null)
+                return false;
+            if (maxQueued <= 0 || queue.size() < maxQueued) {
+                Queued queued = new Queued(retry, callback, timeout > 0 ? System.nanoTime() + timeout : 0);
+                if (timeout > 0)
+                    queued.timer = TimerWheel.shared().schedule(() -> expire(queue, queued, timeout), timeout,
+                            TimeUnit.NANOSECONDS);
+                queue.add(queued);
+                return true;
+            }
+        } finally {
+            queueLock.unlock();
+        }
+
+        callback.fail(new RejectedExecutionException("Too many queries waiting for the connection"));
+        return true;
+    }
+
+    private void expire(Queue<Queued> queue, Queued queued, long timeout) {
+        queueLock.lock();
+        try {
+            // Already sent or failed.
+            if (!queue.remove(queued))
+                return;
+        } finally {
+            queueLock.unlock();
+        }
+
+        Metrics metrics = this.metrics;
+        if (metrics != null)
+            metrics.timeout();
+        TimerWheel.dispatcher().execute(() -> queued.callback.fail(new TimeoutException(
+                "Query timed out after " + TimeUnit.NANOSECONDS.toMillis(timeout) + "ms waiting for the connection")));
+    }
+
+    private static <T> EventCallback<T> track(Limiter limiter, EventCallback<T> callback) {
+        return limiter == null ? callback : limiter.track(callback);
+    }
+
+    private void admit(Limiter limiter, Runnable send, EventCallback<?> callback) {
+        if (limiter == null)
+            send.run();
+        else if (Thread.currentThread() == replaying)
+            // Blocking here would block the thread that reads responses.
+            limiter.defer(send);
+        else
+            limiter.admit(send, callback);
+    }
+
+    void connectionLost(RpcClient lost, Exception cause) {
+        if (lost != client || !lost.markLost())
+            return;
+
+        List<RpcClient.Pending> orphans = lost.drain();
+        ReconnectPolicy policy = reconnect;
+        for (LiveView<?, ?> view : liveViews.values())
+            view.markStale();
+
+        if (closed || policy == null) {
+            dead = true;
+            for (RpcClient.Pending pending : orphans)
+                pending.callback.fail(cause);
+            failQueued(cause);
+            return;
+        }
+
+        queueLock.lock();
+        try {
+            if (overheadQueue == null)
+                overheadQueue = new ArrayDeque<>(16);
+        } finally {
+            queueLock.unlock();
+        }
+
+        for (RpcClient.Pending pending : orphans) {
+            if (pending.replayable)
+                replayQueue.add(pending);
+            else
+                pending.callback.fail(cause);
+        }
+
+        scheduleReconnect(policy, cause);
+    }
+
+    private void scheduleReconnect(ReconnectPolicy policy, Exception cause) {
+        int attempt = reconnectAttempts.getAndIncrement();
+        if (policy.maxAttempts > 0 && attempt >= policy.maxAttempts) {
+            dead = true;
+            failQueued(cause);
+            return;
+        }
+
+        TimerWheel.shared().schedule(() -> {
+            // Connecting blocks, keep it off the timer thread.
+            Thread thread = new Thread(this::reconnect, "SurrealRPC-reconnect");
+            thread.setDaemon(true);
+            thread.start();
+        }, policy.delay(attempt), TimeUnit.NANOSECONDS);
+    }
+
+    private void reconnect() {
+        ReconnectPolicy policy = reconnect;
+        if (closed || policy == null) {
+            failQueued(new ResponseException("Driver closed while reconnecting"));
+            return;
+        }
+
+        String token;
+        try {
+            token = signIn(url, tokens);
+        } catch (IOException | RuntimeException e) {
+            scheduleReconnect(policy, e);
+            return;
+        }
+
+        RpcClient next = new RpcClient(this, url, transports.get());
+        client = next;
+        try {
+            connect(next);
+        } catch (IOException | InterruptedException e) {
+            if (next.markLost()) {
+                next.close();
+                scheduleReconnect(policy, e);
+            }
+            return;
+        }
+
+        handshake(next, token, false);
+    }
+
+    private void restoreLive(RpcClient client) {
+        for (Map.Entry<String, Query> entry : liveQueries.entrySet()) {
+            String id = entry.getKey();
+            Query query = entry.getValue();
+
+            client.request("query", timeoutOf(query), false, query.tag, new EventCallback<Json>() {
+                @Override
+                public void run(Json value) {
+                    Json json = value.isArray() ? getLast(value.asJsonList()) : value;
+                    if (!json.at("status").asString().equals("OK")) {
+                        fail(new ResponseException(json.at("result").toString()));
+                        return;
+                    }
+
+                    String serverId = json.at("result").asString();
+                    String previous = liveServerIds.put(id, serverId);
+                    if (previous != null)
+                        liveUserIds.remove(previous);
+                    if (!serverId.equals(id))
+                        liveUserIds.put(serverId, id);
+
+                    LiveView<?, ?> view = liveViews.get(id);
+                    if (view != null)
+                        view.reload();
+                }
+
+                @Override
+                public void fail(Exception error) {
+                    EventCallback<LiveResponse> handle = sLiveListeners.get(id);
+                    if (handle != null)
+                        handle.fail(error);
+                }
+            }, query.text(), query.params);
+        }
+    }
+
+    /**
+     * Get the ID a live query was originally registered with.
+     *
+     * @param serverId Live query ID as reported by SurrealDB.
+     *
+     * @return Live query ID as returned by {@link Driver#live(Query, EventCallback)}.
+     */
+    String liveIdOf(String serverId) {
+        String id = liveUserIds.get(serverId);
+        return id != null ? id : serverId;
+    }
+
+    /**
+     * An operation waiting for the connection.
+     */
+    private static final class Queued {
+        final Runnable retry;
+        final EventCallback<?> callback;
+        final long deadline;
+        TimerWheel.Timeout timer;
+
+        Queued(Runnable retry, EventCallback<?> callback, long deadline) {
+            this.retry = retry;
+            this.callback = callback;
+            this.deadline = deadline;
+        }
+    }
+
+    private final SurrealURL url;
+    private final Supplier<? extends Transport> transports;
+    private final TokenCache tokens;
+    private volatile RpcClient client;
+    private volatile ReconnectPolicy reconnect;
+    private volatile boolean closed;
+    private volatile boolean dead;
+    private final AtomicInteger reconnectAttempts = new AtomicInteger();
+    private final Queue<RpcClient.Pending> replayQueue = new ConcurrentLinkedQueue<>();
+    private final Map<String, Query> liveQueries = new ConcurrentHashMap<>();
+    /**
+     * Live views by live query ID, read again once their query is restored.
+     */
+    final Map<String, LiveView<?, ?>> liveViews = new ConcurrentHashMap<>();
+    private final Map<String, String> liveServerIds = new ConcurrentHashMap<>();
+    private final Map<String, String> liveUserIds = new ConcurrentHashMap<>();
+    /**
+     * Guards the queue of operations waiting for the connection. Not a
+     * monitor, so that virtual threads don't pin their carrier while sending
+     * queued queries.
+     */
+    private final ReentrantLock queueLock = new ReentrantLock();
+    private Queue<Queued> overheadQueue = new ArrayDeque<>(16);
+    /**
+     * The thread sending the queued operations once connected, the one that
+     * reads responses.
+     */
+    private volatile Thread replaying;
+    private long replayDeadline;
+    private volatile long timeout;
+    private volatile Batcher batcher;
+    private volatile QueryCache cache;
+    private volatile Limiter limiter;
+    private volatile int maxQueued;
+    volatile Metrics metrics;
+    private final Set<EventCallback<LiveResponse>> liveListeners = new CopyOnWriteArraySet<>();
+    private final Map<String, EventCallback<LiveResponse>> sLiveListeners = new ConcurrentHashMap<>();
+    private volatile Executor liveExecutor;
+    /**
+     * Per live query queues on {@link Driver#liveExecutor}, keeping each live
+     * query's events in order. Removed once they have no events left.
+     */
+    private final Map<String, SerialExecutor> liveQueues = new ConcurrentHashMap<>();
+
+    /**
+     * Enable automatic reconnection.
+     * <p>
+     * When the connection drops, the driver signs in again, re-runs the
+     * {@code authenticate}/{@code use} handshake and re-issues live queries
+     * created with {@link Driver#live(Query, EventCallback)}. Their IDs stay
+     * the same, so handlers registered with
+     * {@link Driver#onLive(String, EventCallback)} keep working.
+     * <p>
+     * Queries submitted while reconnecting are queued. Queries that were in
+     * flight fail, unless they were marked with {@link Query#idempotent()}, in
+     * which case they are sent again.
+     *
+     * @param policy Reconnection policy, or {@code null} to disable
+     *               reconnection.
+     */
+    public void setReconnect(ReconnectPolicy policy) {
+        reconnect = policy;
+    }
+
+    /**
+     * Set the default timeout for queries.
+     * <p>
+     * If SurrealDB does not respond in time, the query callback fails with a
+     * {@link java.util.concurrent.TimeoutException}. Can be overriden per query
+     * with {@link Query#timeout(long, TimeUnit)}. A timeout of {@code 0} (the
+     * default) waits forever.
+     *
+     * @param timeout Maximum time to wait for a response.
+     * @param unit    Unit of {@code timeout}.
+     */
+    public void setTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0)
+            throw new IllegalArgumentException("Timeout must not be negative");
+        this.timeout = unit.toNanos(timeout);
+    }
+
+    /**
+     * Enable request batching.
+     * <p>
+     * Queries submitted through {@link Driver#query(Query, EventCallback)} and
+     * {@link Driver#querySingle(Query, EventCallback)} are collected for up to
+     * {@code window} and sent together as one multi-statement query, at most
+     * {@code maxQueries} at a time. Their parameters and {@code LET} variables
+     * are renamed so they can't collide, and each callback only receives the
+     * results of its own statements.
+     * <p>
+     * Queries with their own timeout, queries that use transactions or
+     * {@code USE}, and queries streaming their rows are never batched. A query
+     * that fails to parse fails every query of its batch. If the results of a
+     * batch can't be split between its queries, every query fails with a
+     * {@link BatchException}, although its statements were executed.
+     *
+     * @param maxQueries Maximum amount of queries per batch. {@code 1} or less
+     *                   disables batching.
+     * @param window     Maximum time to wait for more queries. With {@code 0},
+     *                   only queries submitted while the previous batch is
+     *                   being sent are batched.
+     * @param unit       Unit of {@code window}.
+     */
+    public void setBatching(int maxQueries, long window, TimeUnit unit) {
+        if (window < 0)
+            throw new IllegalArgumentException("Window must not be negative");
+
+        Batcher previous = batcher;
+        batcher = maxQueries > 1 ? new Batcher(this, maxQueries, unit.toNanos(window)) : null;
+        if (previous != null)
+            previous.shutdown();
+    }
+
+    /**
+     * Limit the amount of queries in flight.
+     * <p>
+     * Once {@code maxInFlight} queries are waiting for a response, further
+     * queries are handled according to {@code policy}. Queries submitted
+     * while the driver is connecting are queued up to {@code maxQueued} and
+     * fail with a {@link java.util.concurrent.RejectedExecutionException}
+     * beyond that, regardless of the policy. Once connected, they are sent as
+     * queries complete, like with {@link OverloadPolicy#DEFER}.
+     * <p>
+     * A batch of queries (see {@link Driver#setBatching(int, long, TimeUnit)})
+     * counts as one query.
+     *
+     * @param maxInFlight Maximum amount of queries in flight, or {@code 0} for
+     *                    no limit.
+     * @param maxQueued   Maximum amount of queries waiting to be sent, or
+     *                    {@code 0} for no limit.
+     * @param policy      What to do with queries over the limit.
+     */
+    public void setLimits(int maxInFlight, int maxQueued, OverloadPolicy policy) {
+        Objects.requireNonNull(policy);
+        if (maxInFlight < 0 || maxQueued < 0)
+            throw new IllegalArgumentException("Limits must not be negative");
+
+        this.maxQueued = maxQueued;
+        limiter = maxInFlight > 0 ? new Limiter(maxInFlight, maxQueued, policy) : null;
+    }
+
+    /**
+     * Enable the result cache.
+     * <p>
+     * Results of queries marked with {@link Query#cached(String...)} are kept
+     * for up to {@code ttl}, and dropped early when a table they read changes.
+     * Tables are watched with live queries, one per table. The whole cache is
+     * dropped after reconnecting, since changes may have been missed.
+     *
+     * @param maxEntries Maximum amount of cached queries, least recently used
+     *                   ones are dropped first. {@code 0} disables the cache.
+     * @param ttl        Maximum time to keep results, or {@code 0} to keep them
+     *                   until evicted or invalidated.
+     * @param unit       Unit of {@code ttl}.
+     */
+    public void setCache(int maxEntries, long ttl, TimeUnit unit) {
+        if (maxEntries < 0 || ttl < 0)
+            throw new IllegalArgumentException("Cache size and TTL must not be negative");
+
+        QueryCache previous = cache;
+        cache = maxEntries > 0 ? new QueryCache(this, maxEntries, unit.toNanos(ttl)) : null;
+        if (previous != null)
+            previous.close();
+    }
+
+    /**
+     * Record metrics for this driver.
+     * <p>
+     * One {@link Metrics} can be shared by several drivers, for example by a
+     * whole {@link DriverPool}. Without metrics (the default), nothing is
+     * recorded.
+     *
+     * @param metrics Metrics to record into, or {@code null} to stop
+     *                recording.
+     */
+    public void setMetrics(Metrics metrics) {
+        Metrics previous = this.metrics;
+        if (previous == metrics)
+            return;
+        if (previous != null)
+            previous.unbind(this);
+        this.metrics = metrics;
+        if (metrics != null && !closed)
+            metrics.bind(this);
+    }
+
+    private long timeoutOf(Query query) {
+        return remaining(query.timeout >= 0 ? query.timeout : timeout);
+    }
+
+    /**
+     * Get what is left of a timeout, counting the time spent waiting for the
+     * connection by the operation that is being sent after connecting.
+     *
+     * @param timeout Timeout in nanoseconds, or {@code 0} to wait forever.
+     *
+     * @return Remaining timeout in nanoseconds.
+     */
+    private long remaining(long timeout) {
+        long deadline = replayDeadline;
+        if (timeout <= 0 || deadline == 0 || Thread.currentThread() != replaying)
+            return timeout;
+        return Math.min(timeout, Math.max(deadline - System.nanoTime(), 1));
+    }
 
     /**
      * Handle a live query.
@@ -167,9 +816,7 @@ public class Driver implements AutoCloseable {
      * @param handle A handle for live responses.
      */
     public void onLive(EventCallback<LiveResponse> handle) {
-        synchronized (liveListeners) {
-            liveListeners.add(handle);
-        }
+        liveListeners.add(handle);
     }
 
     /**
@@ -182,9 +829,7 @@ public class Driver implements AutoCloseable {
      * @param handle A handle for live responses.
      */
     public void onLive(String id, EventCallback<LiveResponse> handle) {
-        synchronized (sLiveListeners) {
-            sLiveListeners.put(id, handle);
-        }
+        sLiveListeners.put(id, handle);
     }
 
     /**
@@ -193,13 +838,8 @@ public class Driver implements AutoCloseable {
      * @param handle A handle for live responses.
      */
     public void offLive(EventCallback<LiveResponse> handle) {
-        synchronized (liveListeners) {
-            liveListeners.remove(handle);
-        }
-        synchronized (sLiveListeners) {
-            while (sLiveListeners.values().remove(handle)) {
-            }
-        }
+        liveListeners.remove(handle);
+        sLiveListeners.values().removeIf(handle::equals);
     }
 
     /**
@@ -208,8 +848,71 @@ public class Driver implements AutoCloseable {
      * @param id ID to remove a handler from.
      */
     public void offLive(String id) {
-        synchronized (sLiveListeners) {
-            sLiveListeners.remove(id);
+        sLiveListeners.remove(id);
+    }
+
+    /**
+     * Set the executor live query handlers run on.
+     * <p>
+     * By default, handlers run on the thread that reads responses, so a slow
+     * handler delays every other live event and query response. With an
+     * executor, events of one live query are still handled one at a time and
+     * in order, but different live queries are handled in parallel. Events
+     * that arrive while the executor is being replaced may be handled out of
+     * order.
+     *
+     * @param executor An executor, or {@code null} to handle events on the
+     *                 reading thread.
+     */
+    public void setLiveExecutor(Executor executor) {
+        liveExecutor = executor;
+        liveQueues.clear();
+    }
+
+    void dispatchLive(LiveResponse response) {
+        Executor executor = liveExecutor;
+        if (executor == null) {
+            deliverLive(response);
+            return;
+        }
+
+        // Queued under the lock of the map entry, so that the queue can't be
+        // removed as idle in between.
+        liveQueues.compute(response.id, (id, queue) -> {
+            if (queue == null)
+                queue = new SerialExecutor(executor, idle -> removeLiveQueue(id, idle));
+            queue.add(() -> deliverLive(response));
+            return queue;
+        }).schedule();
+    }
+
+    /**
+     * Remove the queue of a live query once it has handled all its events,
+     * so that queues of finished live queries don't pile up.
+     *
+     * @param id    Live query ID.
+     * @param queue The queue.
+     */
+    private void removeLiveQueue(String id, SerialExecutor queue) {
+        liveQueues.computeIfPresent(id, (key, current) -> current == queue && queue.isIdle() ? null : current);
+    }
+
+    private void deliverLive(LiveResponse response) {
+        EventCallback<LiveResponse> handle = sLiveListeners.get(response.id);
+        if (handle != null) {
+            try {
+                handle.run(response);
+            } catch (Exception e) {
+                handle.fail(e);
+            }
+        }
+
+        for (EventCallback<LiveResponse> listener : liveListeners) {
+            try {
+                listener.run(response);
+            } catch (Exception e) {
+                listener.fail(e);
+            }
         }
     }
 
@@ -224,34 +927,172 @@ public class Driver implements AutoCloseable {
      * @param callback A callback to be executed after the execution of the query.
      */
     public void query(Query query, EventCallback<Response[]> callback) {
-        Objects.requireNonNull(query);
-        Objects.requireNonNull(callback);
-
-        synchronized (syncObject) {
-            if (overheadQueue != null) {
-                overheadQueue.add(new Object[] { query, callback });
-                return;
-            }
-        }
+        query(query, null, callback);
+    }
 
-        client.request("query", new EventCallback<Json>() {
+    /**
+     * Submit a query to SurrealDB, streaming its rows.
+     * <p>
+     * Rows of statements that return arrays are handed to {@code rows} one at a
+     * time while the response is being decoded, so a large result never has to
+     * be held in memory at once. The {@link Response#result()} of such statements
+     * is {@code null}; other statements (and failed ones) are passed to the
+     * callback as usual.
+     * <p>
+     * Query will only execute once driver has successfully connected to
+     * the database. If connection fails - all query callbacks will receive
+     * errors.
+     *
+     * @param query    A query to be executed.
+     * @param rows     A handler for rows, or {@code null} to not stream them.
+     * @param callback A callback to be executed after the execution of the query.
+     */
+    public void query(Query query, RowHandler rows, EventCallback<Response[]> callback) {
+        Objects.requireNonNull(query);
+        Objects.requireNonNull(callback);
+
+        QueryCache cache = this.cache;
+        if (rows == null && cache != null && query.cacheTables != null)
+            cache.query(query, callback);
+        else
+            send(query, rows, callback);
+    }
+
+    /**
+     * Send a query, bypassing the cache.
+     *
+     * @param query    A query to be executed.
+     * @param rows     A handler for rows, or {@code null} to not stream them.
+     * @param callback A callback to be executed after the execution of the query.
+     */
+    void send(Query query, RowHandler rows, EventCallback<Response[]> callback) {
+        Batcher batcher = this.batcher;
+        if (rows == null && batcher != null && batcher.offer(query, callback))
+            return;
+
+        request(query.text(), query.params, query.timeout, query.idempotent, query.tag, rows, callback);
+    }
+
+    /**
+     * Send a {@code query} request.
+     *
+     * @param sql        SurrealQL query, or a {@link PreparedQuery}.
+     * @param params     Query parameters.
+     * @param timeout    Timeout in nanoseconds, or {@code -1} for the default.
+     * @param replayable Whether to send the request again after reconnecting.
+     * @param tag        Metrics tag, or {@code null}.
+     * @param rows       A handler for rows, or {@code null} to not stream them.
+     * @param callback   A callback for the results.
+     */
+    void request(Object sql, Json params, long timeout, boolean replayable, String tag, RowHandler rows,
+            EventCallback<Response[]> callback) {
+        long effective = remaining(timeout >= 0 ? timeout : this.timeout);
+        if (enqueue(() -> request(sql, params, timeout, replayable, tag, rows, callback), callback, effective))
+            return;
+
+        Limiter limiter = this.limiter;
+        EventCallback<Response[]> done = track(limiter, callback);
+        admit(limiter, () -> client.request("query", effective, replayable, tag, new StreamingCallback() {
+                @Override
+                void decode(JsonReader reader) throws Exception {
+                    List<Response> responses = new ArrayList<>();
+                    if (reader.peek() == JsonReader.Token.BEGIN_ARRAY) {
+                        reader.beginArray();
+                        while (reader.hasNext())
+                            responses.add(readResponse(reader, responses.size(), rows));
+                        reader.endArray();
+                    } else {
+                        responses.add(readResponse(reader, 0, rows));
+                    }
+                    done.run(responses.toArray(new Response[0]));
+                }
+
+                @Override
+                public void run(Json value) {
+                    List<Json> list = value.isArray() ? value.asJsonList() : Collections.singletonList(value);
+                    Response[] responses = new Response[list.size()];
+                    try {
+                        for (int i = 0; i < list.size(); i++)
+                            responses[i] = toResponse(list.get(i), i, rows);
+                    } catch (Exception e) {
+                        done.fail(e);
+                        return;
+                    }
+                    done.run(responses);
+                }
+
+                @Override
+                public void fail(Exception error) {
+                    done.fail(error);
+                }
+            }, sql, params), callback);
+    }
+
+    private static Response readResponse(JsonReader reader, int statement, RowHandler rows) throws Exception {
+        String status = null;
+        String time = null;
+        int start = -1;
+        int end = -1;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "status":
+                    status = reader.nextString();
+                    break;
+                case "time":
+                    time = reader.nextString();
+                    break;
+                case "result":
+                    if (rows != null && reader.peek() == JsonReader.Token.BEGIN_ARRAY) {
+                        reader.beginArray();
+                        while (reader.hasNext())
+                            rows.row(statement, reader.readJson());
+                        reader.endArray();
+                    } else {
+                        // Decoded by the response once it's used.
+                        start = reader.valueStart();
+                        reader.skipValue();
+                        end = reader.position();
+                    }
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (start < 0)
+            return new Response(status, time, null);
+        return new Response(status, time, reader.input(), start, end);
+    }
+
+    private static Response toResponse(Json json, int statement, RowHandler rows) throws Exception {
+        Json result = json.at("result");
+        if (rows != null && result != null && result.isArray()) {
+            for (Json row : result.asJsonList())
+                rows.row(statement, row);
+            result = null;
+        }
+        return new Response(json.at("status").asString(), json.at("time").asString(), result);
+    }
+
+    private static EventCallback<Response[]> last(EventCallback<Response> callback) {
+        return new EventCallback<Response[]>() {
             @Override
-            public void run(Json value) {
-                List<Json> list = value.isArray() ? value.asJsonList() : Collections.singletonList(value);
-                Response[] responses = new Response[list.size()];
-                for (int i = 0; i < list.size(); i++) {
-                    Json json = list.get(i);
-                    responses[i] = new Response(json.at("status").asString(), json.at("time").asString(),
-                            json.at("result"));
+            public void run(Response[] value) {
+                if (value.length == 0) {
+                    callback.fail(new IndexOutOfBoundsException("Query returned no outputs"));
+                    return;
                 }
-                callback.run(responses);
+                callback.run(value[value.length - 1]);
             }
 
             @Override
             public void fail(Exception error) {
                 callback.fail(error);
             }
-        }, query.sql, query.params);
+        };
     }
 
     private static <T> T getLast(List<T> list) {
@@ -266,8 +1107,9 @@ public class Driver implements AutoCloseable {
      * errors.
      * <p>
      * If multiple outputs are returned, only the last one will be forwarded
-     * to the handler. Throws a {@link IndexOutOfBoundsException} if there were
-     * no outputs.
+     * to the handler; results of earlier ones are skipped without being
+     * decoded. Throws a {@link IndexOutOfBoundsException} if there were no
+     * outputs.
      *
      * @param query    A query to be executed.
      * @param callback A callback to be executed after the execution of the query.
@@ -276,26 +1118,711 @@ public class Driver implements AutoCloseable {
         Objects.requireNonNull(query);
         Objects.requireNonNull(callback);
 
-        synchronized (syncObject) {
-            if (overheadQueue != null) {
-                overheadQueue.add(new Object[] { query, callback });
-                return;
+        QueryCache cache = this.cache;
+        if (cache != null && query.cacheTables != null) {
+            cache.query(query, last(callback));
+            return;
+        }
+        Batcher batcher = this.batcher;
+        if (batcher != null && batcher.offer(query, last(callback)))
+            return;
+
+        long timeout = timeoutOf(query);
+        if (enqueue(() -> querySingle(query, callback), callback, timeout))
+            return;
+
+        Limiter limiter = this.limiter;
+        EventCallback<Response> done = track(limiter, callback);
+        admit(limiter, () -> client.request("query", timeout, query.idempotent, query.tag,
+                new StreamingCallback() {
+                    @Override
+                    void decode(JsonReader reader) throws Exception {
+                        Response last;
+                        if (reader.peek() == JsonReader.Token.BEGIN_ARRAY) {
+                            last = null;
+                            reader.beginArray();
+                            while (reader.hasNext())
+                                last = readResponse(reader, 0, null);
+                            reader.endArray();
+                            if (last == null)
+                                throw new IndexOutOfBoundsException("Query returned no outputs");
+                        } else {
+                            last = readResponse(reader, 0, null);
+                        }
+                        done.run(last);
+                    }
+
+                    @Override
+                    public void run(Json value) {
+                        Json json = value.isArray() ? getLast(value.asJsonList()) : value;
+                        done.run(new Response(json.at("status").asString(), json.at("time").asString(),
+                                json.at("result")));
+                    }
+
+                    @Override
+                    public void fail(Exception error) {
+                        done.fail(error);
+                    }
+                }, query.text(), query.params), callback);
+    }
+
+    /**
+     * Submit a query to SurrealDB, mapping the rows of its last statement.
+     * <p>
+     * Rows are decoded straight from the response into {@code type}, see
+     * {@link Response#as(Class)} for supported types. Results of earlier
+     * statements are skipped. Fails with {@link ResponseException} if the last
+     * statement has failed.
+     * <p>
+     * Query will only execute once driver has successfully connected to
+     * the database. If connection fails - all query callbacks will receive
+     * errors.
+     *
+     * @param <T>      Mapped type.
+     * @param query    A query to be executed.
+     * @param type     Class to map rows to.
+     * @param callback A callback to be executed after the execution of the query.
+     *
+     * @throws IllegalArgumentException If the class can't be mapped.
+     */
+    public <T> void query(Query query, Class<T> type, EventCallback<List<T>> callback) {
+        Objects.requireNonNull(query);
+        Objects.requireNonNull(callback);
+        Codec<T> codec = Codec.of(type);
+
+        long timeout = timeoutOf(query);
+        if (enqueue(() -> query(query, type, callback), callback, timeout))
+            return;
+
+        Limiter limiter = this.limiter;
+        EventCallback<List<T>> done = track(limiter, callback);
+        admit(limiter, () -> client.request("query", timeout, query.idempotent, query.tag,
+                new StreamingCallback() {
+                    @Override
+                    void decode(JsonReader reader) throws Exception {
+                        int[] range = lastResult(reader);
+                        if (range == null)
+                            throw new IndexOutOfBoundsException("Query returned no outputs");
+
+                        JsonReader rows = new JsonReader(reader.input(), range[0], range[1]);
+                        if (range[2] == 0)
+                            throw new ResponseException(rows.peek() == JsonReader.Token.STRING ? rows.nextString() : "ERR");
+
+                        done.run(Response.readList(codec, rows));
+                    }
+
+                    @Override
+                    public void run(Json value) {
+                        Json json = value.isArray() ? getLast(value.asJsonList()) : value;
+                        List<T> list;
+                        try {
+                            list = new Response(json.at("status").asString(), json.at("time").asString(),
+                                    json.at("result")).asList(type);
+                        } catch (Exception e) {
+                            done.fail(e);
+                            return;
+                        }
+                        done.run(list);
+                    }
+
+                    @Override
+                    public void fail(Exception error) {
+                        done.fail(error);
+                    }
+                }, query.text(), query.params), callback);
+    }
+
+    /**
+     * Find the result of the last statement without decoding any results.
+     *
+     * @param reader Reader positioned at a query result.
+     *
+     * @return Start and end of the last result in the input, and {@code 1} if
+     *         its status is {@code OK} or {@code 0} otherwise; {@code null} if
+     *         there were no statements.
+     */
+    private static int[] lastResult(JsonReader reader) {
+        int[] range = null;
+        boolean array = reader.peek() == JsonReader.Token.BEGIN_ARRAY;
+        if (array)
+            reader.beginArray();
+
+        while (array ? reader.hasNext() : range == null) {
+            if (range == null)
+                range = new int[3];
+            range[2] = 1;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "status":
+                        range[2] = reader.nextString().equals("OK") ? 1 : 0;
+                        break;
+                    case "result":
+                        range[0] = reader.valueStart();
+                        reader.skipValue();
+                        range[1] = reader.position();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
             }
+            reader.endObject();
         }
 
-        client.request("query", new EventCallback<Json>() {
+        if (array)
+            reader.endArray();
+        return range;
+    }
+
+    /**
+     * Submit a query to SurrealDB, mapping the rows of its last statement.
+     * <p>
+     * Same as {@link Driver#query(Query, Class, EventCallback)}, but returns a
+     * future that is completed on the thread that received the response.
+     *
+     * @param <T>   Mapped type.
+     * @param query A query to be executed.
+     * @param type  Class to map rows to.
+     *
+     * @return A future for the mapped rows.
+     *
+     * @throws IllegalArgumentException If the class can't be mapped.
+     */
+    public <T> CompletableFuture<List<T>> queryAsync(Query query, Class<T> type) {
+        FutureCallback<List<T>> future = new FutureCallback<>(null);
+        query(query, type, future);
+        return future;
+    }
+
+    /**
+     * Read the rows of a large {@code SELECT} one page at a time.
+     * <p>
+     * See {@link Cursor}. Pages are read by wrapping the query with
+     * {@code START} and {@code LIMIT}, so every page executes the query
+     * again and makes SurrealDB skip the rows before it.
+     * <p>
+     * Rows are ordered by {@code id} unless the query has its own
+     * {@code ORDER BY}. Without an order that is unique per row, such as for
+     * rows without {@code id}, pages may repeat or skip rows. Rows written
+     * while the cursor is read shift the pages after them the same way. Use
+     * {@link Driver#cursor(String, int)} to read a whole table, which resumes
+     * after the last record ID instead.
+     *
+     * @param query    A query with a single {@code SELECT} statement.
+     * @param pageSize Maximum amount of rows per page.
+     *
+     * @return A cursor over the rows.
+     *
+     * @throws IllegalArgumentException If the query has more than one
+     *                                  statement, or the page size is not
+     *                                  positive.
+     */
+    public Cursor cursor(Query query, int pageSize) {
+        Objects.requireNonNull(query);
+        return new Cursor(this, Cursor.offset(query), pageSize);
+    }
+
+    /**
+     * Read the records of a table one page at a time.
+     * <p>
+     * See {@link Cursor}. Records are read in record ID order, every page
+     * starting after the last record of the one before, so reading a page
+     * takes the same time regardless of how far into the table it is.
+     *
+     * @param table    Table name.
+     * @param pageSize Maximum amount of records per page.
+     *
+     * @return A cursor over the records.
+     *
+     * @throws IllegalArgumentException If the page size is not positive.
+     */
+    public Cursor cursor(String table, int pageSize) {
+        Objects.requireNonNull(table);
+        return new Cursor(this, Cursor.table(table), pageSize);
+    }
+
+    /**
+     * Stream the rows of a large {@code SELECT}.
+     * <p>
+     * Same as {@link Driver#cursor(Query, int)}, as a stream. Close the
+     * stream to stop reading pages early.
+     * <p>
+     * Every page executes the query again, and rows are ordered by
+     * {@code id} unless the query has its own {@code ORDER BY}. Pages may
+     * repeat or skip rows if the order isn't unique per row. Use
+     * {@link Driver#stream(String, int)} to read a whole table, which resumes
+     * after the last record ID instead.
+     *
+     * @param query    A query with a single {@code SELECT} statement.
+     * @param pageSize Maximum amount of rows per page.
+     *
+     * @return A sequential stream of rows.
+     *
+     * @throws IllegalArgumentException If the query has more than one
+     *                                  statement, or the page size is not
+     *                                  positive.
+     */
+    public Stream<Json> stream(Query query, int pageSize) {
+        return cursor(query, pageSize).stream();
+    }
+
+    /**
+     * Stream the records of a table.
+     * <p>
+     * Same as {@link Driver#cursor(String, int)}, as a stream. Close the
+     * stream to stop reading pages early.
+     *
+     * @param table    Table name.
+     * @param pageSize Maximum amount of records per page.
+     *
+     * @return A sequential stream of records.
+     *
+     * @throws IllegalArgumentException If the page size is not positive.
+     */
+    public Stream<Json> stream(String table, int pageSize) {
+        return cursor(table, pageSize).stream();
+    }
+
+    /**
+     * Insert many records into a table.
+     * <p>
+     * See {@link BulkWriter}. Chunks are written with
+     * {@code INSERT INTO table $rows}, which isn't safe to execute twice, so
+     * chunks aren't retried unless enabled with
+     * {@link BulkWriter#retries(int, long, TimeUnit)}.
+     *
+     * @param table Table name.
+     *
+     * @return A writer for the records.
+     */
+    public BulkWriter bulkInsert(String table) {
+        Objects.requireNonNull(table);
+        return new BulkWriter(this, "INSERT INTO " + Statements.identifier(table) + " $rows");
+    }
+
+    /**
+     * Write many records with a custom statement.
+     * <p>
+     * See {@link BulkWriter}. The statement gets the records of a chunk as
+     * the {@code $rows} parameter, for example
+     * {@code INSERT INTO user $rows ON DUPLICATE KEY UPDATE name = $input.name}
+     * to upsert users.
+     *
+     * @param sql SurrealQL statement writing {@code $rows}.
+     *
+     * @return A writer for the records.
+     */
+    public BulkWriter bulkWriter(String sql) {
+        Objects.requireNonNull(sql);
+        return new BulkWriter(this, sql);
+    }
+
+    /**
+     * Start a live query.
+     * <p>
+     * The last statement of the query must be a {@code LIVE SELECT}. Its ID is
+     * passed to the callback and can be used with
+     * {@link Driver#onLive(String, EventCallback)}. Live queries started this
+     * way are restored after reconnecting, see
+     * {@link Driver#setReconnect(ReconnectPolicy)}.
+     *
+     * @param query    A {@code LIVE SELECT} query.
+     * @param callback A callback for the live query ID.
+     */
+    public void live(Query query, EventCallback<String> callback) {
+        Objects.requireNonNull(query);
+        Objects.requireNonNull(callback);
+
+        querySingle(query, new EventCallback<Response>() {
+            @Override
+            public void run(Response value) {
+                String id;
+                try {
+                    id = value.ok().result().asString();
+                } catch (ResponseException e) {
+                    callback.fail(e);
+                    return;
+                }
+                liveQueries.put(id, query);
+                callback.run(id);
+            }
+
+            @Override
+            public void fail(Exception error) {
+                callback.fail(error);
+            }
+        });
+    }
+
+    /**
+     * Publish the events of a live query.
+     * <p>
+     * Same as {@link Driver#live(Query, int, OverflowStrategy)} with a buffer
+     * of 256 events that fails the subscriber when full.
+     *
+     * @param query A {@code LIVE SELECT} query.
+     *
+     * @return A publisher of live events.
+     */
+    public Flow.Publisher<LiveResponse> live(Query query) {
+        return live(query, 256, OverflowStrategy.FAIL);
+    }
+
+    /**
+     * Publish the events of a live query.
+     * <p>
+     * Every subscriber starts its own live query, see
+     * {@link Driver#live(Query, EventCallback)}, and kills it when it cancels
+     * its subscription. Events are only delivered as requested; up to
+     * {@code bufferSize} events wait for the subscriber, after which
+     * {@code overflow} applies. The subscriber fails if the live query can't
+     * be started or restored after reconnecting. Streams never complete.
+     *
+     * @param query      A {@code LIVE SELECT} query.
+     * @param bufferSize Maximum amount of events waiting for the subscriber.
+     * @param overflow   What to do with events beyond {@code bufferSize}.
+     *
+     * @return A publisher of live events.
+     */
+    public Flow.Publisher<LiveResponse> live(Query query, int bufferSize, OverflowStrategy overflow) {
+        Objects.requireNonNull(query);
+        Objects.requireNonNull(overflow);
+        if (bufferSize < 1)
+            throw new IllegalArgumentException("Buffer size must be positive");
+
+        return new LivePublisher(this, query, bufferSize, overflow);
+    }
+
+    /**
+     * Mirror a table into memory, keyed by record ID.
+     * <p>
+     * See {@link LiveView}. Records are mapped like with
+     * {@link Response#as(Class)}.
+     *
+     * @param <V>   Record type.
+     * @param table Table name.
+     * @param type  Class to map records to.
+     *
+     * @return A future for the view, completed once the table has been read.
+     *
+     * @throws IllegalArgumentException If the class can't be mapped.
+     */
+    public <V> CompletableFuture<LiveView<String, V>> liveView(String table, Class<V> type) {
+        return liveView(table, type, null);
+    }
+
+    /**
+     * Mirror a table into memory.
+     * <p>
+     * See {@link LiveView}. Records are mapped like with
+     * {@link Response#as(Class)}.
+     *
+     * @param <K>   Key type.
+     * @param <V>   Record type.
+     * @param table Table name.
+     * @param type  Class to map records to.
+     * @param key   Gets the key of a record, or {@code null} to key records
+     *              by their ID.
+     *
+     * @return A future for the view, completed once the table has been read.
+     *
+     * @throws IllegalArgumentException If the class can't be mapped.
+     */
+    public <K, V> CompletableFuture<LiveView<K, V>> liveView(String table, Class<V> type,
+            Function<? super V, ? extends K> key) {
+        Objects.requireNonNull(table);
+        String source = Statements.identifier(table);
+        LiveView<K, V> view = new LiveView<>(this, source, Codec.of(type), key);
+        CompletableFuture<LiveView<K, V>> future = new CompletableFuture<>();
+
+        // Subscribe first so that no change between reading the table and
+        // subscribing is lost.
+        live(new Query("LIVE SELECT * FROM " + source), new EventCallback<String>() {
+            @Override
+            public void run(String id) {
+                view.liveId = id;
+                liveViews.put(id, view);
+                onLive(id, new EventCallback<LiveResponse>() {
+                    @Override
+                    public void run(LiveResponse value) {
+                        view.event(value);
+                    }
+
+                    @Override
+                    public void fail(Exception error) {
+                        // Either an event couldn't be mapped or the live query
+                        // couldn't be restored, changes may be missing.
+                        view.markStale();
+                    }
+                });
+
+                querySingle(new Query("SELECT * FROM " + source), new EventCallback<Response>() {
+                    @Override
+                    public void run(Response value) {
+                        try {
+                            view.load(value.ok().result());
+                        } catch (Exception e) {
+                            fail(e);
+                            return;
+                        }
+                        future.complete(view);
+                    }
+
+                    @Override
+                    public void fail(Exception error) {
+                        view.close();
+                        future.completeExceptionally(error);
+                    }
+                });
+            }
+
+            @Override
+            public void fail(Exception error) {
+                future.completeExceptionally(error);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Stop a live query.
+     * <p>
+     * Handlers of the live query are not removed, see
+     * {@link Driver#offLive(String)}.
+     *
+     * @param id       Live query ID.
+     * @param callback A callback to be executed after the live query was killed.
+     */
+    public void kill(String id, EventCallback<Object> callback) {
+        Objects.requireNonNull(id);
+        Objects.requireNonNull(callback);
+
+        if (enqueue(() -> kill(id, callback), callback, 0))
+            return;
+
+        liveQueries.remove(id);
+        String serverId = liveServerIds.remove(id);
+        if (serverId != null)
+            liveUserIds.remove(serverId);
+        else
+            serverId = id;
+
+        client.request("kill", new EventCallback<Json>() {
             @Override
             public void run(Json value) {
-                Json json = value.isArray() ? getLast(value.asJsonList()) : value;
-                callback.run(new Response(json.at("status").asString(), json.at("time").asString(),
-                        json.at("result")));
+                callback.run(value);
             }
 
             @Override
             public void fail(Exception error) {
                 callback.fail(error);
             }
-        }, query.sql, query.params);
+        }, serverId);
+    }
+
+    /**
+     * Submit a query to SurrealDB.
+     * <p>
+     * Same as {@link Driver#query(Query, EventCallback)}, but returns a future
+     * that is completed on the thread that received the response.
+     *
+     * @param query A query to be executed.
+     *
+     * @return A future for the query results.
+     */
+    public CompletableFuture<Response[]> queryAsync(Query query) {
+        return queryAsync(query, (Executor) null);
+    }
+
+    /**
+     * Submit a query to SurrealDB.
+     * <p>
+     * Same as {@link Driver#query(Query, EventCallback)}, but returns a future.
+     *
+     * @param query    A query to be executed.
+     * @param executor An executor to complete the future on. If {@code null}, the
+     *                 future is completed on the thread that received the
+     *                 response.
+     *
+     * @return A future for the query results.
+     */
+    public CompletableFuture<Response[]> queryAsync(Query query, Executor executor) {
+        FutureCallback<Response[]> future = new FutureCallback<>(executor);
+        query(query, future);
+        return future;
+    }
+
+    /**
+     * Submit a query with a single output to SurrealDB.
+     * <p>
+     * Same as {@link Driver#querySingle(Query, EventCallback)}, but returns a
+     * future that is completed on the thread that received the response.
+     *
+     * @param query A query to be executed.
+     *
+     * @return A future for the query result.
+     */
+    public CompletableFuture<Response> querySingleAsync(Query query) {
+        return querySingleAsync(query, (Executor) null);
+    }
+
+    /**
+     * Submit a query with a single output to SurrealDB.
+     * <p>
+     * Same as {@link Driver#querySingle(Query, EventCallback)}, but returns a
+     * future.
+     *
+     * @param query    A query to be executed.
+     * @param executor An executor to complete the future on. If {@code null}, the
+     *                 future is completed on the thread that received the
+     *                 response.
+     *
+     * @return A future for the query result.
+     */
+    public CompletableFuture<Response> querySingleAsync(Query query, Executor executor) {
+        FutureCallback<Response> future = new FutureCallback<>(executor);
+        querySingle(query, future);
+        return future;
+    }
+
+    /**
+     * Execute a query and wait for its results.
+     * <p>
+     * Waits until the query completes or times out, see
+     * {@link Driver#setTimeout(long, TimeUnit)}. Waiting parks the thread
+     * without holding any monitor, so it's cheap on virtual threads.
+     *
+     * @param query A query to be executed.
+     *
+     * @return The query results.
+     *
+     * @throws ResponseException    If the query has failed.
+     * @throws TimeoutException     If SurrealDB did not respond in time.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public Response[] queryBlocking(Query query) throws ResponseException, TimeoutException, InterruptedException {
+        return await(queryAsync(query), -1, null);
+    }
+
+    /**
+     * Execute a query and wait for its results.
+     * <p>
+     * Same as {@link Driver#queryBlocking(Query)}, but gives up waiting after
+     * {@code timeout}. The query itself is not cancelled.
+     *
+     * @param query   A query to be executed.
+     * @param timeout Maximum time to wait.
+     * @param unit    Unit of {@code timeout}.
+     *
+     * @return The query results.
+     *
+     * @throws ResponseException    If the query has failed.
+     * @throws TimeoutException     If the results didn't arrive in time.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public Response[] queryBlocking(Query query, long timeout, TimeUnit unit)
+            throws ResponseException, TimeoutException, InterruptedException {
+        return await(queryAsync(query), timeout, unit);
+    }
+
+    /**
+     * Execute a query with a single output and wait for its result.
+     * <p>
+     * See {@link Driver#querySingle(Query, EventCallback)} and
+     * {@link Driver#queryBlocking(Query)}.
+     *
+     * @param query A query to be executed.
+     *
+     * @return The query result.
+     *
+     * @throws ResponseException    If the query has failed.
+     * @throws TimeoutException     If SurrealDB did not respond in time.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public Response querySingleBlocking(Query query) throws ResponseException, TimeoutException, InterruptedException {
+        return await(querySingleAsync(query), -1, null);
+    }
+
+    /**
+     * Execute a query with a single output and wait for its result.
+     * <p>
+     * Same as {@link Driver#querySingleBlocking(Query)}, but gives up waiting
+     * after {@code timeout}. The query itself is not cancelled.
+     *
+     * @param query   A query to be executed.
+     * @param timeout Maximum time to wait.
+     * @param unit    Unit of {@code timeout}.
+     *
+     * @return The query result.
+     *
+     * @throws ResponseException    If the query has failed.
+     * @throws TimeoutException     If the result didn't arrive in time.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public Response querySingleBlocking(Query query, long timeout, TimeUnit unit)
+            throws ResponseException, TimeoutException, InterruptedException {
+        return await(querySingleAsync(query), timeout, unit);
+    }
+
+    static <T> T await(CompletableFuture<T> future, long timeout, TimeUnit unit)
+            throws ResponseException, TimeoutException, InterruptedException {
+        try {
+            return unit == null ? future.get() : future.get(timeout, unit);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ResponseException)
+                throw (ResponseException) cause;
+            if (cause instanceof TimeoutException)
+                throw (TimeoutException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new ResponseException((Exception) cause);
+        }
+    }
+
+    /**
+     * Get the amount of queries that have not completed yet.
+     * <p>
+     * Includes queries waiting for the connection to be established.
+     *
+     * @return Amount of queries in flight.
+     */
+    public int inFlight() {
+        return sent() + queued();
+    }
+
+    /**
+     * Check whether this driver can no longer execute queries, because it was
+     * closed or lost its connection without reconnecting.
+     *
+     * @return {@code true} if dead.
+     */
+    boolean isDead() {
+        return closed || dead;
+    }
+
+    /**
+     * Get the amount of requests waiting for a response.
+     *
+     * @return Amount of requests sent on the current connection.
+     */
+    int sent() {
+        return client.inFlight();
+    }
+
+    private int queued() {
+        int queued;
+        queueLock.lock();
+        try {
+            queued = overheadQueue == null ? 0 : overheadQueue.size();
+        } finally {
+            queueLock.unlock();
+        }
+        Batcher batcher = this.batcher;
+        Limiter limiter = this.limiter;
+        return queued + (batcher == null ? 0 : batcher.size()) + (limiter == null ? 0 : limiter.queued());
     }
 
     /**
@@ -317,7 +1844,18 @@ public class Driver implements AutoCloseable {
      */
     @Override
     public void close() throws Exception {
-        client.closeBlocking();
+        closed = true;
+        Batcher batcher = this.batcher;
+        if (batcher != null)
+            batcher.shutdown();
+        Metrics metrics = this.metrics;
+        if (metrics != null)
+            metrics.unbind(this);
+        try {
+            client.close().get(5, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            // The server didn't answer the close, the connection is gone anyway.
+        }
     }
 
     /**
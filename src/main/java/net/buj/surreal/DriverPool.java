@@ -0,0 +1,553 @@
+package net.buj.surreal;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A pool of {@link Driver}s connected to the same database.
+ * <p>
+ * Every {@link Driver} owns one connection, which is read by one thread.
+ * A pool spreads queries across several connections, always picking the one
+ * with the fewest queries in flight. New connections are opened in the
+ * background when every connection is busy, up to the maximum size, and
+ * connections that stay idle for too long are closed, down to the minimum
+ * size. Connections that are lost for good are replaced.
+ * <p>
+ * Queries submitted while the pool has no usable connection wait until a new
+ * one is open, and fail with a {@link ConnectionException} if it can't be
+ * opened.
+ */
+public class DriverPool implements AutoCloseable {
+    private static final class Member {
+        final Driver driver;
+        // Callers between pick() and release(), or -1 once evicted.
+        final AtomicInteger users = new AtomicInteger();
+        volatile long lastUsed = System.nanoTime();
+
+        Member(Driver driver) {
+            this.driver = driver;
+        }
+
+        boolean acquire() {
+            int current;
+            do {
+                current = users.get();
+                if (current < 0)
+                    return false;
+            } while (!users.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        void release() {
+            lastUsed = System.nanoTime();
+            users.decrementAndGet();
+        }
+    }
+
+    /**
+     * A query waiting for a connection.
+     */
+    private static final class Waiting {
+        final Runnable retry;
+        final Consumer<Exception> fail;
+
+        Waiting(Runnable retry, Consumer<Exception> fail) {
+            this.retry = retry;
+            this.fail = fail;
+        }
+    }
+
+    private final SurrealURL url;
+    private final Supplier<? extends Transport> transports;
+    private final int minSize;
+    private final int maxSize;
+    private final List<Member> members = new CopyOnWriteArrayList<>();
+    private final Queue<Waiting> waiting = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean growing = new AtomicBoolean();
+    /**
+     * Incremented to stop the running eviction schedule.
+     */
+    private final AtomicInteger evictions = new AtomicInteger();
+    private final ExecutorService maintenance = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "SurrealRPC-pool");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile long idleTimeout = TimeUnit.MINUTES.toNanos(1);
+    private volatile long timeout;
+    private volatile Metrics metrics;
+    private volatile boolean closed;
+
+    /**
+     * Create a new {@link DriverPool}.
+     * <p>
+     * Opens {@code minSize} connections before returning, at least one.
+     *
+     * @param url     SurrealRPC URL.
+     * @param minSize Amount of connections that are always kept open.
+     * @param maxSize Maximum amount of connections.
+     *
+     * @throws IOException          If connection to SurrealDB fails.
+     * @throws InterruptedException If pool gets interrupted while connecting.
+     */
+    public DriverPool(SurrealURL url, int minSize, int maxSize) throws IOException, InterruptedException {
+        this(url, minSize, maxSize, () -> new WebSocketTransport(url));
+    }
+
+    /**
+     * Create a new {@link DriverPool} with a custom transport.
+     * <p>
+     * Opens {@code minSize} connections before returning, at least one.
+     *
+     * @param url        SurrealRPC URL.
+     * @param minSize    Amount of connections that are always kept open.
+     * @param maxSize    Maximum amount of connections.
+     * @param transports Creates a new transport for every connection, see
+     *                   {@link Driver#Driver(SurrealURL, Supplier)}.
+     *
+     * @throws IOException          If connection to SurrealDB fails.
+     * @throws InterruptedException If pool gets interrupted while connecting.
+     */
+    public DriverPool(SurrealURL url, int minSize, int maxSize, Supplier<? extends Transport> transports)
+            throws IOException, InterruptedException {
+        Objects.requireNonNull(url);
+        Objects.requireNonNull(transports);
+        if (maxSize < 1 || minSize > maxSize)
+            throw new IllegalArgumentException("Pool size must satisfy minSize <= maxSize and maxSize >= 1");
+
+        this.url = url;
+        this.transports = transports;
+        this.minSize = Math.max(minSize, 1);
+        this.maxSize = maxSize;
+
+        try {
+            for (int i = 0; i < this.minSize; i++)
+                members.add(new Member(new Driver(url, transports)));
+        } catch (IOException | InterruptedException e) {
+            close();
+            throw e;
+        }
+
+        scheduleEviction();
+    }
+
+    /**
+     * Set the idle timeout.
+     * <p>
+     * Connections without queries in flight for this long are closed, as long
+     * as the pool stays above its minimum size. Defaults to 1 minute.
+     *
+     * @param timeout Idle timeout.
+     * @param unit    Unit of {@code timeout}.
+     */
+    public void setIdleTimeout(long timeout, TimeUnit unit) {
+        if (timeout <= 0)
+            throw new IllegalArgumentException("Idle timeout must be positive");
+        idleTimeout = unit.toNanos(timeout);
+        // Check at the new interval right away, not after the old one.
+        scheduleEviction();
+    }
+
+    /**
+     * Set the default timeout for queries on every connection.
+     * <p>
+     * See {@link Driver#setTimeout(long, TimeUnit)}.
+     *
+     * @param timeout Maximum time to wait for a response.
+     * @param unit    Unit of {@code timeout}.
+     */
+    public void setTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0)
+            throw new IllegalArgumentException("Timeout must not be negative");
+        this.timeout = unit.toNanos(timeout);
+        for (Member member : members)
+            member.driver.setTimeout(timeout, unit);
+    }
+
+    /**
+     * Record metrics for every connection.
+     * <p>
+     * See {@link Driver#setMetrics(Metrics)}.
+     *
+     * @param metrics Metrics to record into, or {@code null} to stop
+     *                recording.
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+        for (Member member : members)
+            member.driver.setMetrics(metrics);
+    }
+
+    /**
+     * Get the amount of open connections.
+     *
+     * @return Amount of open connections.
+     */
+    public int size() {
+        return members.size();
+    }
+
+    /**
+     * Get the amount of queries that have not completed yet on all connections.
+     *
+     * @return Amount of queries in flight.
+     */
+    public int inFlight() {
+        int total = waiting.size();
+        for (Member member : members)
+            total += member.driver.inFlight();
+        return total;
+    }
+
+    /**
+     * Pick the member with the fewest queries in flight.
+     *
+     * @return The member, or {@code null} if the pool is closed or has no
+     *         usable connection.
+     */
+    private Member pick() {
+        while (true) {
+            if (closed)
+                return null;
+
+            Member best = null;
+            int bestLoad = Integer.MAX_VALUE;
+            for (Member member : members) {
+                if (member.driver.isDead()) {
+                    // Has no queries in flight, but would fail every query.
+                    discard(member);
+                    continue;
+                }
+                int load = member.driver.inFlight();
+                if (load < bestLoad) {
+                    best = member;
+                    bestLoad = load;
+                    if (load == 0)
+                        break;
+                }
+            }
+
+            if (best == null)
+                return null;
+
+            // Evicted after it was picked, pick again.
+            if (!best.acquire())
+                continue;
+
+            int size = members.size();
+            if (size < minSize || bestLoad > 0 && size < maxSize)
+                grow();
+
+            return best;
+        }
+    }
+
+    /**
+     * Wait for a connection to be opened.
+     *
+     * @param retry Submits the query again.
+     * @param fail  Fails the query.
+     */
+    private void park(Runnable retry, Consumer<Exception> fail) {
+        Waiting entry = new Waiting(retry, fail);
+        waiting.add(entry);
+        // Closed in between, close() may have missed it.
+        if (closed) {
+            if (waiting.remove(entry))
+                fail.accept(new IllegalStateException("Pool is closed"));
+            return;
+        }
+        grow();
+    }
+
+    /**
+     * Submit waiting queries again once a connection was opened, or fail
+     * them if none could be.
+     *
+     * @param error Why no connection could be opened, or {@code null}.
+     */
+    private void resume(Exception error) {
+        // Queries that have to wait again wait for the next connection.
+        for (int i = waiting.size(); i > 0; i--) {
+            Waiting entry = waiting.poll();
+            if (entry == null)
+                return;
+            if (closed)
+                entry.fail.accept(new IllegalStateException("Pool is closed"));
+            else if (members.isEmpty())
+                entry.fail.accept(error != null ? new ConnectionException(error)
+                        : new ConnectionException("Pool has no connections"));
+            else
+                entry.retry.run();
+        }
+    }
+
+    private static <T> void forward(CompletableFuture<T> from, CompletableFuture<T> to) {
+        from.whenComplete((value, error) -> {
+            if (error == null)
+                to.complete(value);
+            else
+                to.completeExceptionally(error);
+        });
+    }
+
+    private void discard(Member member) {
+        if (!members.remove(member))
+            return;
+        try {
+            member.driver.close();
+        } catch (Exception e) {
+            // Already going away.
+        }
+    }
+
+    private void grow() {
+        if (!growing.compareAndSet(false, true))
+            return;
+
+        try {
+            maintenance.execute(() -> {
+                Exception error = null;
+                try {
+                    if (!closed && members.size() < maxSize) {
+                        // Opens one more connection, or replaces lost ones.
+                        do {
+                            Driver driver = new Driver(url, transports);
+                            if (timeout > 0)
+                                driver.setTimeout(timeout, TimeUnit.NANOSECONDS);
+                            driver.setMetrics(metrics);
+                            members.add(new Member(driver));
+                        } while (!closed && members.size() < minSize);
+                        if (closed)
+                            evict();
+                    }
+                } catch (IOException | InterruptedException | RuntimeException e) {
+                    // Keep serving with the connections we already have.
+                    error = e;
+                } finally {
+                    growing.set(false);
+                }
+                // After clearing the flag, so that queries parked in between
+                // start another attempt.
+                resume(error);
+            });
+        } catch (RuntimeException e) {
+            growing.set(false);
+        }
+    }
+
+    private void scheduleEviction() {
+        scheduleEviction(evictions.incrementAndGet());
+    }
+
+    private void scheduleEviction(int schedule) {
+        TimerWheel.shared().schedule(() -> {
+            if (closed || evictions.get() != schedule)
+                return;
+            try {
+                maintenance.execute(() -> {
+                    evict();
+                    scheduleEviction(schedule);
+                });
+            } catch (RuntimeException e) {
+                // Pool is shutting down.
+            }
+        }, Math.min(idleTimeout, TimeUnit.SECONDS.toNanos(10)), TimeUnit.NANOSECONDS);
+    }
+
+    private void evict() {
+        long now = System.nanoTime();
+        for (Member member : members) {
+            if (closed || member.driver.isDead()) {
+                discard(member);
+                continue;
+            }
+            if (members.size() <= minSize || member.driver.inFlight() > 0 || now - member.lastUsed < idleTimeout)
+                continue;
+            if (!member.users.compareAndSet(0, -1))
+                continue;
+            // Used between the checks above and being marked as evicted.
+            if (member.driver.inFlight() > 0 || now - member.lastUsed < idleTimeout) {
+                member.users.set(0);
+                continue;
+            }
+            discard(member);
+        }
+
+        if (!closed && members.size() < minSize)
+            grow();
+    }
+
+    /**
+     * Submit a query to the least busy connection.
+     * <p>
+     * See {@link Driver#query(Query, EventCallback)}.
+     *
+     * @param query    A query to be executed.
+     * @param callback A callback to be executed after the execution of the query.
+     */
+    public void query(Query query, EventCallback<Response[]> callback) {
+        Member member = pick();
+        if (member == null) {
+            park(() -> query(query, callback), callback::fail);
+            return;
+        }
+        try {
+            member.driver.query(query, callback);
+        } finally {
+            member.release();
+        }
+    }
+
+    /**
+     * Submit a query with a single output to the least busy connection.
+     * <p>
+     * See {@link Driver#querySingle(Query, EventCallback)}.
+     *
+     * @param query    A query to be executed.
+     * @param callback A callback to be executed after the execution of the query.
+     */
+    public void querySingle(Query query, EventCallback<Response> callback) {
+        Member member = pick();
+        if (member == null) {
+            park(() -> querySingle(query, callback), callback::fail);
+            return;
+        }
+        try {
+            member.driver.querySingle(query, callback);
+        } finally {
+            member.release();
+        }
+    }
+
+    /**
+     * Submit a query to the least busy connection.
+     * <p>
+     * See {@link Driver#queryAsync(Query, Executor)}.
+     *
+     * @param query    A query to be executed.
+     * @param executor An executor to complete the future on, or {@code null}.
+     *
+     * @return A future for the query results.
+     */
+    public CompletableFuture<Response[]> queryAsync(Query query, Executor executor) {
+        Member member = pick();
+        if (member == null) {
+            CompletableFuture<Response[]> future = new CompletableFuture<>();
+            park(() -> forward(queryAsync(query, executor), future), future::completeExceptionally);
+            return future;
+        }
+        try {
+            return member.driver.queryAsync(query, executor);
+        } finally {
+            member.release();
+        }
+    }
+
+    /**
+     * Submit a query with a single output to the least busy connection.
+     * <p>
+     * See {@link Driver#querySingleAsync(Query, Executor)}.
+     *
+     * @param query    A query to be executed.
+     * @param executor An executor to complete the future on, or {@code null}.
+     *
+     * @return A future for the query result.
+     */
+    public CompletableFuture<Response> querySingleAsync(Query query, Executor executor) {
+        Member member = pick();
+        if (member == null) {
+            CompletableFuture<Response> future = new CompletableFuture<>();
+            park(() -> forward(querySingleAsync(query, executor), future), future::completeExceptionally);
+            return future;
+        }
+        try {
+            return member.driver.querySingleAsync(query, executor);
+        } finally {
+            member.release();
+        }
+    }
+
+    /**
+     * Execute a query on the least busy connection and wait for its results.
+     * <p>
+     * See {@link Driver#queryBlocking(Query, long, TimeUnit)}.
+     *
+     * @param query   A query to be executed.
+     * @param timeout Maximum time to wait.
+     * @param unit    Unit of {@code timeout}.
+     *
+     * @return The query results.
+     *
+     * @throws ResponseException    If the query has failed.
+     * @throws TimeoutException     If the results didn't arrive in time.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public Response[] queryBlocking(Query query, long timeout, TimeUnit unit)
+            throws ResponseException, TimeoutException, InterruptedException {
+        Member member = pick();
+        if (member == null)
+            return Driver.await(queryAsync(query, null), timeout, unit);
+        try {
+            return member.driver.queryBlocking(query, timeout, unit);
+        } finally {
+            member.release();
+        }
+    }
+
+    /**
+     * Execute a query with a single output on the least busy connection and
+     * wait for its result.
+     * <p>
+     * See {@link Driver#querySingleBlocking(Query, long, TimeUnit)}.
+     *
+     * @param query   A query to be executed.
+     * @param timeout Maximum time to wait.
+     * @param unit    Unit of {@code timeout}.
+     *
+     * @return The query result.
+     *
+     * @throws ResponseException    If the query has failed.
+     * @throws TimeoutException     If the result didn't arrive in time.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public Response querySingleBlocking(Query query, long timeout, TimeUnit unit)
+            throws ResponseException, TimeoutException, InterruptedException {
+        Member member = pick();
+        if (member == null)
+            return Driver.await(querySingleAsync(query, null), timeout, unit);
+        try {
+            return member.driver.querySingleBlocking(query, timeout, unit);
+        } finally {
+            member.release();
+        }
+    }
+
+    /**
+     * Close every connection in the pool.
+     * <p>
+     * Closing the pool is a blocking operation.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        closed = true;
+        maintenance.shutdown();
+        maintenance.awaitTermination(10, TimeUnit.SECONDS);
+        evict();
+        resume(null);
+    }
+}
@@ -0,0 +1,53 @@
+package net.buj.surreal;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A {@link CompletableFuture} that is its own {@link EventCallback}, so
+ * async queries don't need an extra adapter.
+ *
+ * @param <T> Result type.
+ */
+final class FutureCallback<T> extends CompletableFuture<T> implements EventCallback<T> {
+    private final Executor executor;
+
+    /**
+     * Construct {@link FutureCallback}.
+     *
+     * @param executor Executor to complete the future on, or {@code null} to
+     *                 complete it on the thread that received the response.
+     */
+    FutureCallback(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public void run(T value) {
+        if (executor == null) {
+            complete(value);
+            return;
+        }
+
+        try {
+            executor.execute(() -> complete(value));
+        } catch (RejectedExecutionException e) {
+            completeExceptionally(e);
+        }
+    }
+
+    @Override
+    public void fail(Exception error) {
+        if (executor == null) {
+            completeExceptionally(error);
+            return;
+        }
+
+        try {
+            executor.execute(() -> completeExceptionally(error));
+        } catch (RejectedExecutionException e) {
+            completeExceptionally(error);
+        }
+    }
+}
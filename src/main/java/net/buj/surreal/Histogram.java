@@ -0,0 +1,139 @@
+package net.buj.surreal;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram.
+ * <p>
+ * Values are counted in log-linear buckets like in HdrHistogram: every power
+ * of two is split into 32 linear buckets, so recorded values are accurate to
+ * about 3% across the whole range of {@code long}, in a fixed amount of
+ * memory. Recording is a few atomic increments.
+ */
+public final class Histogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    Histogram() {
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long lowestValue(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * Record a value.
+     *
+     * @param nanos Latency in nanoseconds. Negative values count as zero.
+     */
+    void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        counts.incrementAndGet(index(value));
+
+        long current;
+        while (value > (current = max.get()))
+            if (max.compareAndSet(current, value))
+                break;
+    }
+
+    /**
+     * Take a snapshot of this histogram.
+     * <p>
+     * Values recorded while the snapshot is being taken may or may not be
+     * part of it.
+     *
+     * @return The snapshot.
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long total = 0;
+        double sum = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = counts.get(i);
+            copy[i] = count;
+            total += count;
+            sum += (double) count * lowestValue(i);
+        }
+        return new Snapshot(copy, total, total == 0 ? 0 : sum / total, max.get());
+    }
+
+    /**
+     * Recorded values at one point in time.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        /**
+         * Amount of recorded values.
+         */
+        public final long count;
+        /**
+         * Approximate mean, in nanoseconds.
+         */
+        public final double mean;
+        /**
+         * Highest recorded value, in nanoseconds.
+         */
+        public final long max;
+
+        private Snapshot(long[] counts, long count, double mean, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.mean = mean;
+            this.max = max;
+        }
+
+        /**
+         * Get a percentile.
+         *
+         * @param percentile Percentile between {@code 0} and {@code 100}.
+         *
+         * @return Highest value below which {@code percentile} percent of
+         *         values fall, in nanoseconds, or {@code 0} if nothing was
+         *         recorded.
+         */
+        public long percentile(double percentile) {
+            if (percentile < 0 || percentile > 100)
+                throw new IllegalArgumentException("Percentile must be between 0 and 100");
+            if (count == 0)
+                return 0;
+
+            long target = Math.max((long) Math.ceil(percentile / 100 * count), 1);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target)
+                    return Math.min(i + 1 < counts.length ? lowestValue(i + 1) - 1 : Long.MAX_VALUE, max);
+            }
+            return max;
+        }
+
+        /**
+         * Get a percentile.
+         *
+         * @param percentile Percentile between {@code 0} and {@code 100}.
+         * @param unit       Unit of the result.
+         *
+         * @return See {@link Snapshot#percentile(double)}.
+         */
+        public long percentile(double percentile, TimeUnit unit) {
+            return unit.convert(percentile(percentile), TimeUnit.NANOSECONDS);
+        }
+    }
+}
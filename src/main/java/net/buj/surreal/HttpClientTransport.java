@@ -0,0 +1,191 @@
+package net.buj.surreal;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Transport on top of the JDK's {@link java.net.http.WebSocket}.
+ * <p>
+ * Sockets are non-blocking and share the selector thread of their
+ * {@link HttpClient}, so many connections don't need a thread each.
+ */
+public class HttpClientTransport implements Transport {
+    private static final class Shared {
+        static final HttpClient CLIENT = HttpClient.newHttpClient();
+    }
+
+    /**
+     * Get the client shared by transports and sign-ins.
+     *
+     * @return The shared client, created on first use.
+     */
+    static HttpClient shared() {
+        return Shared.CLIENT;
+    }
+
+    private final HttpClient http;
+    private final CompletableFuture<Void> closed = new CompletableFuture<>();
+    private final AtomicBoolean closeReported = new AtomicBoolean();
+    private volatile WebSocket socket;
+    private Listener listener;
+    /**
+     * Last queued send. The JDK only allows one outstanding send at a time.
+     */
+    private CompletableFuture<?> sending = CompletableFuture.completedFuture(null);
+    private final ReentrantLock sendLock = new ReentrantLock();
+
+    /**
+     * Create a transport using a client shared by all such transports.
+     */
+    public HttpClientTransport() {
+        this(shared());
+    }
+
+    /**
+     * Create a transport.
+     *
+     * @param http The client to open the WebSocket with.
+     */
+    public HttpClientTransport(HttpClient http) {
+        this.http = Objects.requireNonNull(http);
+    }
+
+    private final class Receiver implements WebSocket.Listener {
+        private final StringBuilder text = new StringBuilder();
+        private ByteBuffer binary;
+
+        @Override
+        public void onOpen(WebSocket webSocket) {
+            socket = webSocket;
+            listener.onOpen();
+            webSocket.request(1);
+        }
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            if (last && text.length() == 0) {
+                listener.onText(data.toString());
+            } else {
+                text.append(data);
+                if (last) {
+                    String message = text.toString();
+                    text.setLength(0);
+                    listener.onText(message);
+                }
+            }
+            webSocket.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onBinary(WebSocket webSocket, ByteBuffer data, boolean last) {
+            if (last && binary == null) {
+                listener.onBinary(data);
+            } else {
+                if (binary == null)
+                    binary = ByteBuffer.allocate(Math.max(data.remaining() * 2, 4096));
+                if (binary.remaining() < data.remaining())
+                    binary = ByteBuffer.allocate(Math.max(binary.capacity() * 2, binary.position() + data.remaining()))
+                            .put(binary.flip());
+                binary.put(data);
+                if (last) {
+                    ByteBuffer message = binary.flip();
+                    binary = null;
+                    listener.onBinary(message);
+                }
+            }
+            webSocket.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+            closed(statusCode, reason);
+            return null;
+        }
+
+        @Override
+        public void onError(WebSocket webSocket, Throwable error) {
+            listener.onError(error instanceof Exception ? (Exception) error : new IOException(error));
+            closed(1006, String.valueOf(error.getMessage()));
+        }
+    }
+
+    private void closed(int code, String reason) {
+        if (!closeReported.compareAndSet(false, true))
+            return;
+        listener.onClose(code, reason);
+        closed.complete(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> connect(URI uri, String subprotocol, Listener listener) {
+        if (this.listener != null)
+            throw new IllegalStateException("Transport was already connected");
+        this.listener = Objects.requireNonNull(listener);
+
+        return http.newWebSocketBuilder().subprotocols(subprotocol).buildAsync(uri, new Receiver())
+                .handle((webSocket, error) -> {
+                    if (error == null)
+                        return null;
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause()
+                            : error;
+                    listener.onError(cause instanceof Exception ? (Exception) cause : new IOException(cause));
+                    closed(1006, String.valueOf(cause.getMessage()));
+                    throw new CompletionException(cause);
+                });
+    }
+
+    private WebSocket open() throws IOException {
+        WebSocket socket = this.socket;
+        if (socket == null || socket.isOutputClosed())
+            throw new IOException("Transport is not connected");
+        return socket;
+    }
+
+    private void enqueue(Supplier<CompletableFuture<WebSocket>> send) {
+        sendLock.lock();
+        try {
+            // A failed send closes the socket, which is reported to the listener.
+            sending = sending.handle((value, error) -> null).thenCompose(value -> send.get());
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    @Override
+    public void sendText(ByteBuffer message) throws IOException {
+        WebSocket socket = open();
+        String text = StandardCharsets.UTF_8.decode(message).toString();
+        enqueue(() -> socket.sendText(text, true));
+    }
+
+    @Override
+    public void sendBinary(ByteBuffer message) throws IOException {
+        WebSocket socket = open();
+        ByteBuffer copy = ByteBuffer.allocate(message.remaining()).put(message).flip();
+        enqueue(() -> socket.sendBinary(copy, true));
+    }
+
+    @Override
+    public CompletableFuture<Void> close() {
+        WebSocket socket = this.socket;
+        if (socket == null)
+            closed.complete(null);
+        else if (!socket.isOutputClosed())
+            enqueue(() -> socket.sendClose(WebSocket.NORMAL_CLOSURE, ""));
+        return closed;
+    }
+}
@@ -0,0 +1,429 @@
+package net.buj.surreal;
+
+import java.util.Arrays;
+
+import mjson.Json;
+
+/**
+ * Pull parser for JSON text.
+ * <p>
+ * Walks a frame once, front to back, without building a tree unless asked
+ * to. Used for routing responses by ID and for handing rows to the user one
+ * at a time.
+ */
+final class JsonReader {
+    /**
+     * Kind of the next token.
+     */
+    enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END
+    }
+
+    private static final int EMPTY_ARRAY = 1;
+    private static final int NONEMPTY_ARRAY = 2;
+    private static final int EMPTY_OBJECT = 3;
+    private static final int DANGLING_NAME = 4;
+    private static final int NONEMPTY_OBJECT = 5;
+    private static final int EMPTY_DOCUMENT = 6;
+    private static final int NONEMPTY_DOCUMENT = 7;
+
+    private final CharSequence in;
+    private final int end;
+    private int pos;
+    private int[] stack = new int[32];
+    private int depth;
+    private Token peeked;
+
+    JsonReader(CharSequence in) {
+        this(in, 0, in.length());
+    }
+
+    JsonReader(CharSequence in, int start, int end) {
+        this.in = in;
+        this.pos = start;
+        this.end = end;
+        stack[depth++] = EMPTY_DOCUMENT;
+    }
+
+    Token peek() {
+        if (peeked != null)
+            return peeked;
+
+        int scope = stack[depth - 1];
+        char c;
+        switch (scope) {
+            case EMPTY_ARRAY:
+                stack[depth - 1] = NONEMPTY_ARRAY;
+                if (nextNonWhitespace() == ']')
+                    return peeked = Token.END_ARRAY;
+                pos--;
+                break;
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']')
+                    return peeked = Token.END_ARRAY;
+                if (c != ',')
+                    throw syntaxError("Expected ',' or ']'");
+                break;
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                stack[depth - 1] = DANGLING_NAME;
+                c = nextNonWhitespace();
+                if (c == '}')
+                    return peeked = Token.END_OBJECT;
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c != ',')
+                        throw syntaxError("Expected ',' or '}'");
+                    c = nextNonWhitespace();
+                }
+                if (c != '"')
+                    throw syntaxError("Expected a name");
+                pos--;
+                return peeked = Token.NAME;
+            case DANGLING_NAME:
+                stack[depth - 1] = NONEMPTY_OBJECT;
+                if (nextNonWhitespace() != ':')
+                    throw syntaxError("Expected ':'");
+                break;
+            case EMPTY_DOCUMENT:
+                stack[depth - 1] = NONEMPTY_DOCUMENT;
+                break;
+            default:
+                skipWhitespace();
+                if (pos < end)
+                    throw syntaxError("Expected end of document");
+                return peeked = Token.END;
+        }
+
+        c = nextNonWhitespace();
+        switch (c) {
+            case '{':
+                return peeked = Token.BEGIN_OBJECT;
+            case '[':
+                return peeked = Token.BEGIN_ARRAY;
+            case '"':
+                pos--;
+                return peeked = Token.STRING;
+            case 't':
+            case 'f':
+                pos--;
+                return peeked = Token.BOOLEAN;
+            case 'n':
+                pos--;
+                return peeked = Token.NULL;
+            default:
+                if (c == '-' || c >= '0' && c <= '9') {
+                    pos--;
+                    return peeked = Token.NUMBER;
+                }
+                throw syntaxError("Unexpected character '" + c + "'");
+        }
+    }
+
+    /**
+     * Get the position of the next unread character.
+     * <p>
+     * Right after {@link JsonReader#peek()} returned a value token, this is
+     * where the value starts.
+     *
+     * @return Position in the input.
+     */
+    int position() {
+        return pos;
+    }
+
+    /**
+     * Get the position where the next value starts.
+     *
+     * @return Position in the input.
+     */
+    int valueStart() {
+        Token token = peek();
+        // Brackets are consumed while peeking.
+        return token == Token.BEGIN_OBJECT || token == Token.BEGIN_ARRAY ? pos - 1 : pos;
+    }
+
+    CharSequence input() {
+        return in;
+    }
+
+    boolean hasNext() {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END;
+    }
+
+    void beginObject() {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    void endObject() {
+        expect(Token.END_OBJECT);
+        depth--;
+    }
+
+    void beginArray() {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    void endArray() {
+        expect(Token.END_ARRAY);
+        depth--;
+    }
+
+    String nextName() {
+        expect(Token.NAME);
+        return readString();
+    }
+
+    String nextString() {
+        expect(Token.STRING);
+        return readString();
+    }
+
+    boolean nextBoolean() {
+        expect(Token.BOOLEAN);
+        if (consume("true"))
+            return true;
+        if (consume("false"))
+            return false;
+        throw syntaxError("Expected a boolean");
+    }
+
+    void nextNull() {
+        expect(Token.NULL);
+        if (!consume("null"))
+            throw syntaxError("Expected null");
+    }
+
+    Number nextNumber() {
+        expect(Token.NUMBER);
+        int start = pos;
+        boolean decimal = false;
+        while (pos < end) {
+            char c = in.charAt(pos);
+            if (c == '.' || c == 'e' || c == 'E')
+                decimal = true;
+            else if (c != '-' && c != '+' && (c < '0' || c > '9'))
+                break;
+            pos++;
+        }
+
+        String text = in.subSequence(start, pos).toString();
+        try {
+            if (decimal)
+                return Double.parseDouble(text);
+            long value = Long.parseLong(text);
+            if (value == (int) value)
+                return (int) value;
+            return value;
+        } catch (NumberFormatException e) {
+            try {
+                return Double.parseDouble(text);
+            } catch (NumberFormatException again) {
+                throw syntaxError("Malformed number '" + text + "'");
+            }
+        }
+    }
+
+    int nextInt() {
+        return nextNumber().intValue();
+    }
+
+    /**
+     * Skip the next value, including everything nested in it.
+     */
+    void skipValue() {
+        int nested = 0;
+        do {
+            switch (peek()) {
+                case BEGIN_OBJECT:
+                    beginObject();
+                    nested++;
+                    break;
+                case BEGIN_ARRAY:
+                    beginArray();
+                    nested++;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    nested--;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    nested--;
+                    break;
+                case NAME:
+                case STRING:
+                    peeked = null;
+                    skipString();
+                    break;
+                case NUMBER:
+                    nextNumber();
+                    break;
+                case BOOLEAN:
+                    nextBoolean();
+                    break;
+                case NULL:
+                    nextNull();
+                    break;
+                case END:
+                    throw syntaxError("Unexpected end of document");
+            }
+        } while (nested > 0);
+    }
+
+    /**
+     * Read the next value into a tree.
+     *
+     * @return The value.
+     */
+    Json readJson() {
+        switch (peek()) {
+            case BEGIN_OBJECT: {
+                Json object = Json.object();
+                beginObject();
+                while (hasNext())
+                    object.set(nextName(), readJson());
+                endObject();
+                return object;
+            }
+            case BEGIN_ARRAY: {
+                Json array = Json.array();
+                beginArray();
+                while (hasNext())
+                    array.add(readJson());
+                endArray();
+                return array;
+            }
+            case STRING:
+                return Json.make(nextString());
+            case NUMBER:
+                return Json.make(nextNumber());
+            case BOOLEAN:
+                return Json.make(nextBoolean());
+            case NULL:
+                nextNull();
+                return Json.nil();
+            default:
+                throw syntaxError("Expected a value");
+        }
+    }
+
+    private void expect(Token token) {
+        Token actual = peek();
+        if (actual != token)
+            throw new IllegalStateException("Expected " + token + " but was " + actual + " at " + pos);
+        peeked = null;
+    }
+
+    private void push(int scope) {
+        if (depth == stack.length)
+            stack = Arrays.copyOf(stack, depth * 2);
+        stack[depth++] = scope;
+    }
+
+    private char nextNonWhitespace() {
+        skipWhitespace();
+        if (pos >= end)
+            throw syntaxError("Unexpected end of document");
+        return in.charAt(pos++);
+    }
+
+    private void skipWhitespace() {
+        while (pos < end) {
+            char c = in.charAt(pos);
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t')
+                return;
+            pos++;
+        }
+    }
+
+    private boolean consume(String literal) {
+        int length = literal.length();
+        if (pos + length > end)
+            return false;
+        for (int i = 0; i < length; i++)
+            if (in.charAt(pos + i) != literal.charAt(i))
+                return false;
+        pos += length;
+        return true;
+    }
+
+    private void skipString() {
+        pos++;
+        while (pos < end) {
+            char c = in.charAt(pos++);
+            if (c == '"')
+                return;
+            if (c == '\\')
+                pos++;
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    private String readString() {
+        int start = ++pos;
+        while (pos < end) {
+            char c = in.charAt(pos);
+            if (c == '"') {
+                pos++;
+                return in.subSequence(start, pos - 1).toString();
+            }
+            if (c == '\\')
+                break;
+            pos++;
+        }
+
+        StringBuilder builder = new StringBuilder(pos - start + 16);
+        builder.append(in, start, pos);
+        while (pos < end) {
+            char c = in.charAt(pos++);
+            if (c == '"')
+                return builder.toString();
+            if (c != '\\') {
+                builder.append(c);
+                continue;
+            }
+            if (pos >= end)
+                break;
+
+            char escaped = in.charAt(pos++);
+            switch (escaped) {
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'u':
+                    if (pos + 4 > end)
+                        throw syntaxError("Malformed unicode escape");
+                    try {
+                        builder.append((char) Integer.parseInt(in.subSequence(pos, pos + 4).toString(), 16));
+                    } catch (NumberFormatException e) {
+                        throw syntaxError("Malformed unicode escape");
+                    }
+                    pos += 4;
+                    break;
+                default:
+                    builder.append(escaped);
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    private IllegalStateException syntaxError(String message) {
+        return new IllegalStateException(message + " at " + pos);
+    }
+}
@@ -0,0 +1,380 @@
+package net.buj.surreal;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import mjson.Json;
+
+/**
+ * Serializer for outbound JSON-RPC requests.
+ * <p>
+ * Writes UTF-8 straight into a direct {@link ByteBuffer}, so encoding a
+ * request allocates no intermediate strings or byte arrays. Writers are
+ * taken from a small fixed pool with {@link JsonWriter#acquire()} and given
+ * back with {@link JsonWriter#release()}, so the amount of direct memory
+ * doesn't grow with the amount of threads sending requests. When every
+ * pooled writer is in use, a writer with a heap buffer is used instead.
+ */
+final class JsonWriter {
+    private static final int INITIAL_CAPACITY = 4096;
+    /**
+     * Requests larger than this are written into heap buffers, which are
+     * dropped after the request instead of being kept by the pool.
+     */
+    private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+    /**
+     * Chars of a string written between checks for room in the buffer.
+     */
+    private static final int CHUNK = 1024;
+
+    private static final byte[] ID = utf8("{\"id\":");
+    private static final byte[] METHOD = utf8(",\"method\":");
+    private static final byte[] PARAMS = utf8(",\"jsonrpc\":\"2.0\",\"params\":[");
+    private static final byte[] END = utf8("]}");
+    private static final byte[] PREPARED_ID = utf8("],\"id\":");
+    private static final byte[] NULL = utf8("null");
+    private static final byte[] TRUE = utf8("true");
+    private static final byte[] FALSE = utf8("false");
+    private static final byte[] HEX = utf8("0123456789abcdef");
+
+    /**
+     * Idle pooled writers, {@code null} slots are in use or not created yet.
+     */
+    private static final AtomicReferenceArray<JsonWriter> POOL = new AtomicReferenceArray<>(
+            Math.min(2 * Runtime.getRuntime().availableProcessors(), 32));
+    private static final AtomicInteger CREATED = new AtomicInteger();
+
+    private final boolean pooled;
+    /**
+     * The direct buffer kept between requests.
+     */
+    private ByteBuffer retained;
+    private ByteBuffer buffer;
+    /**
+     * Digits of a number, written back to front.
+     */
+    private final byte[] digits = new byte[20];
+
+    private JsonWriter(boolean pooled) {
+        this.pooled = pooled;
+        this.retained = pooled ? ByteBuffer.allocateDirect(INITIAL_CAPACITY) : null;
+        this.buffer = pooled ? retained : ByteBuffer.allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Take a writer from the pool.
+     *
+     * @return An idle writer, to be given back with
+     *         {@link JsonWriter#release()}.
+     */
+    static JsonWriter acquire() {
+        int size = POOL.length();
+        for (int i = 0; i < size; i++) {
+            JsonWriter writer = POOL.getAndSet(i, null);
+            if (writer != null)
+                return writer;
+        }
+        // There is a slot for every pooled writer, to be filled on release.
+        int created;
+        while ((created = CREATED.get()) < size)
+            if (CREATED.compareAndSet(created, created + 1))
+                return new JsonWriter(true);
+        return new JsonWriter(false);
+    }
+
+    /**
+     * Give this writer back to the pool. The last encoded request is no
+     * longer valid afterwards.
+     */
+    void release() {
+        if (!pooled)
+            return;
+        buffer = retained;
+        int size = POOL.length();
+        for (int i = 0; i < size; i++)
+            if (POOL.compareAndSet(i, null, this))
+                return;
+    }
+
+    static byte[] utf8(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Get the size of text encoded as UTF-8, without encoding it.
+     *
+     * @param text The text.
+     *
+     * @return Size in bytes.
+     */
+    static int utf8Length(String text) {
+        int length = text.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            // Surrogate pairs are 4 bytes, 2 for each half.
+            if (c >= 0x80 && c < 0x800 || Character.isSurrogate(c))
+                bytes++;
+            else if (c >= 0x800)
+                bytes += 2;
+        }
+        return bytes;
+    }
+
+    /**
+     * Encode a request into the buffer of this writer.
+     *
+     * @param id     Request ID.
+     * @param method RPC method.
+     * @param params RPC parameters.
+     *
+     * @return The encoded request, valid until the next call or until the
+     *         writer is released.
+     */
+    ByteBuffer encodeRequest(int id, String method, Object[] params) {
+        buffer.clear();
+
+        if (params.length == 2 && params[0] instanceof PreparedQuery) {
+            write(((PreparedQuery) params[0]).prefix);
+            writeObject(params[1]);
+            write(PREPARED_ID);
+            writeLong(id);
+            writeByte('}');
+        } else {
+            write(ID);
+            writeLong(id);
+            write(METHOD);
+            writeString(method);
+            write(PARAMS);
+            for (int i = 0; i < params.length; i++) {
+                if (i > 0)
+                    writeByte(',');
+                writeObject(params[i]);
+            }
+            write(END);
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Encode a request as text, for debugging.
+     *
+     * @param id     Request ID.
+     * @param method RPC method.
+     * @param params RPC parameters.
+     *
+     * @return The request as text.
+     */
+    static String toString(int id, String method, Object[] params) {
+        JsonWriter writer = acquire();
+        try {
+            return toString(writer.encodeRequest(id, method, params));
+        } finally {
+            writer.release();
+        }
+    }
+
+    /**
+     * Decode an encoded request, for debugging.
+     *
+     * @param request The request. Its position is left untouched.
+     *
+     * @return The request as text.
+     */
+    static String toString(ByteBuffer request) {
+        return StandardCharsets.UTF_8.decode(request.duplicate()).toString();
+    }
+
+    private void writeObject(Object value) {
+        if (value == null) {
+            write(NULL);
+        } else if (value instanceof String) {
+            writeString((String) value);
+        } else if (value instanceof Json) {
+            writeJson((Json) value);
+        } else if (value instanceof PreparedQuery) {
+            writeString(((PreparedQuery) value).sql);
+        } else if (value instanceof Number) {
+            writeNumber((Number) value);
+        } else if (value instanceof Boolean) {
+            write((Boolean) value ? TRUE : FALSE);
+        } else {
+            writeJson(Json.make(value));
+        }
+    }
+
+    private void writeJson(Json json) {
+        if (json.isNull()) {
+            write(NULL);
+        } else if (json.isBoolean()) {
+            write(json.asBoolean() ? TRUE : FALSE);
+        } else if (json.isString()) {
+            writeString(json.asString());
+        } else if (json.isNumber()) {
+            writeNumber((Number) json.getValue());
+        } else if (json.isArray()) {
+            List<Json> list = json.asJsonList();
+            writeByte('[');
+            for (int i = 0; i < list.size(); i++) {
+                if (i > 0)
+                    writeByte(',');
+                writeJson(list.get(i));
+            }
+            writeByte(']');
+        } else if (json.isObject()) {
+            writeByte('{');
+            boolean first = true;
+            for (Map.Entry<String, Json> entry : json.asJsonMap().entrySet()) {
+                if (!first)
+                    writeByte(',');
+                first = false;
+                writeString(entry.getKey());
+                writeByte(':');
+                writeJson(entry.getValue());
+            }
+            writeByte('}');
+        } else {
+            throw new IllegalArgumentException("Can't encode " + json);
+        }
+    }
+
+    private void writeNumber(Number number) {
+        if (number instanceof Integer || number instanceof Long || number instanceof Short
+                || number instanceof Byte) {
+            writeLong(number.longValue());
+        } else if ((number instanceof Double || number instanceof Float)
+                && (Double.isNaN(number.doubleValue()) || Double.isInfinite(number.doubleValue()))) {
+            write(NULL);
+        } else {
+            writeAscii(number.toString());
+        }
+    }
+
+    private void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            writeAscii(Long.toString(value));
+            return;
+        }
+
+        ensure(20);
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int i = digits.length;
+        do {
+            digits[--i] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        buffer.put(digits, i, digits.length - i);
+    }
+
+    private void writeString(String value) {
+        int length = value.length();
+        writeByte('"');
+        // Room for the worst case of six bytes per char is made a chunk at a
+        // time, so the buffer grows with what is actually written.
+        for (int start = 0; start < length;) {
+            int end = Math.min(start + CHUNK, length);
+            ensure((end - start) * 6);
+            start = writeChars(value, start, end);
+        }
+        writeByte('"');
+    }
+
+    /**
+     * Write chars of a string, without checking for room.
+     *
+     * @param value The string.
+     * @param start Index of the first char.
+     * @param end   Index after the last char. A surrogate pair starting
+     *              right before it is written whole.
+     *
+     * @return Index after the last char written.
+     */
+    private int writeChars(String value, int start, int end) {
+        int length = value.length();
+        int i = start;
+        for (; i < end; i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                buffer.put((byte) '\\').put((byte) c);
+            } else if (c < 0x20) {
+                writeControl(c);
+            } else if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xc0 | c >> 6)).put((byte) (0x80 | c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int code = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put((byte) (0xf0 | code >> 18)).put((byte) (0x80 | code >> 12 & 0x3f))
+                        .put((byte) (0x80 | code >> 6 & 0x3f)).put((byte) (0x80 | code & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xe0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3f))
+                        .put((byte) (0x80 | c & 0x3f));
+            }
+        }
+        return i;
+    }
+
+    private void writeControl(char c) {
+        buffer.put((byte) '\\');
+        switch (c) {
+            case '\n':
+                buffer.put((byte) 'n');
+                break;
+            case '\r':
+                buffer.put((byte) 'r');
+                break;
+            case '\t':
+                buffer.put((byte) 't');
+                break;
+            case '\b':
+                buffer.put((byte) 'b');
+                break;
+            case '\f':
+                buffer.put((byte) 'f');
+                break;
+            default:
+                buffer.put((byte) 'u').put((byte) '0').put((byte) '0').put(HEX[c >> 4]).put(HEX[c & 0xf]);
+        }
+    }
+
+    private void writeAscii(String value) {
+        ensure(value.length());
+        for (int i = 0; i < value.length(); i++)
+            buffer.put((byte) value.charAt(i));
+    }
+
+    private void write(byte[] bytes) {
+        ensure(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private void writeByte(char c) {
+        ensure(1);
+        buffer.put((byte) c);
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() >= bytes)
+            return;
+        int capacity = Math.max(buffer.capacity() * 2, buffer.position() + bytes);
+        boolean keep = pooled && capacity <= MAX_RETAINED_CAPACITY;
+        ByteBuffer grown = keep ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+        if (keep)
+            retained = grown;
+    }
+}
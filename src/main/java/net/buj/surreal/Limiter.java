@@ -0,0 +1,148 @@
+package net.buj.surreal;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the amount of requests in flight.
+ * <p>
+ * A permit is taken before a request is sent and given back when its
+ * callback completes. Requests that don't get a permit are handled according
+ * to the {@link OverloadPolicy}.
+ */
+final class Limiter {
+    private final Semaphore permits;
+    private final int maxQueued;
+    private final OverloadPolicy policy;
+    private final Queue<Runnable> deferred = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    Limiter(int maxInFlight, int maxQueued, OverloadPolicy policy) {
+        this.permits = new Semaphore(maxInFlight);
+        this.maxQueued = maxQueued;
+        this.policy = policy;
+    }
+
+    /**
+     * Wrap a callback so that it gives its permit back once completed.
+     *
+     * @param <T>      Result type.
+     * @param callback The callback.
+     *
+     * @return The wrapped callback, to be passed to {@link Limiter#admit}.
+     */
+    <T> EventCallback<T> track(EventCallback<T> callback) {
+        AtomicBoolean released = new AtomicBoolean();
+        return new EventCallback<T>() {
+            @Override
+            public void run(T value) {
+                if (released.compareAndSet(false, true))
+                    release();
+                callback.run(value);
+            }
+
+            @Override
+            public void fail(Exception error) {
+                if (released.compareAndSet(false, true))
+                    release();
+                callback.fail(error);
+            }
+        };
+    }
+
+    /**
+     * Send a request once there is a permit for it.
+     *
+     * @param send     Sends the request with the tracked callback.
+     * @param callback Untracked callback of the request, failed if the
+     *                 request is rejected.
+     */
+    void admit(Runnable send, EventCallback<?> callback) {
+        if (permits.tryAcquire()) {
+            send.run();
+            return;
+        }
+
+        switch (policy) {
+            case BLOCK:
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    callback.fail(e);
+                    return;
+                }
+                send.run();
+                break;
+            case DEFER:
+                if (queued.incrementAndGet() > maxQueued && maxQueued > 0) {
+                    queued.decrementAndGet();
+                    reject(callback);
+                    return;
+                }
+                enqueue(send);
+                break;
+            default:
+                reject(callback);
+        }
+    }
+
+    /**
+     * Send a request once there is a permit for it, regardless of the policy.
+     * <p>
+     * For requests that were already accepted, such as queries queued while
+     * connecting. Never blocks, so it's safe on the thread that reads
+     * responses, which is the one giving permits back.
+     *
+     * @param send Sends the request with the tracked callback.
+     */
+    void defer(Runnable send) {
+        if (permits.tryAcquire()) {
+            send.run();
+            return;
+        }
+
+        queued.incrementAndGet();
+        enqueue(send);
+    }
+
+    private void enqueue(Runnable send) {
+        deferred.add(send);
+        // A permit may have been given back before the request was queued.
+        drain();
+    }
+
+    private void reject(EventCallback<?> callback) {
+        callback.fail(new RejectedExecutionException("Too many queries in flight"));
+    }
+
+    /**
+     * Get the amount of requests waiting for a permit.
+     *
+     * @return Amount of requests.
+     */
+    int queued() {
+        return queued.get();
+    }
+
+    private void release() {
+        permits.release();
+        drain();
+    }
+
+    private void drain() {
+        while (!deferred.isEmpty() && permits.tryAcquire()) {
+            Runnable send = deferred.poll();
+            if (send == null) {
+                permits.release();
+                continue;
+            }
+            queued.decrementAndGet();
+            send.run();
+        }
+    }
+}
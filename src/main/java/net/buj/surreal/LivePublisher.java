@@ -0,0 +1,237 @@
+package net.buj.surreal;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import mjson.Json;
+
+/**
+ * Publishes the events of a live query.
+ * <p>
+ * Every subscriber gets its own live query, started when it subscribes and
+ * killed when it cancels. Events are buffered until the subscriber requests
+ * them, up to a fixed amount, see {@link OverflowStrategy}. The stream never
+ * completes by itself.
+ */
+final class LivePublisher implements Flow.Publisher<LiveResponse> {
+    private final Driver driver;
+    private final Query query;
+    private final int capacity;
+    private final OverflowStrategy overflow;
+
+    LivePublisher(Driver driver, Query query, int capacity, OverflowStrategy overflow) {
+        this.driver = driver;
+        this.query = query;
+        this.capacity = capacity;
+        this.overflow = overflow;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super LiveResponse> subscriber) {
+        Subscription subscription = new Subscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        subscription.start();
+    }
+
+    private final class Subscription implements Flow.Subscription, EventCallback<LiveResponse> {
+        private final Flow.Subscriber<? super LiveResponse> subscriber;
+        /**
+         * Buffered events, keyed by record ID when coalescing, by arrival
+         * otherwise.
+         */
+        private final Map<Object, LiveResponse> buffer = new LinkedHashMap<>();
+        private final ReentrantLock lock = new ReentrantLock();
+        private final AtomicLong demand = new AtomicLong();
+        /**
+         * Drain loop guard, only one thread emits at a time.
+         */
+        private final AtomicInteger wip = new AtomicInteger();
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private long sequence;
+        private volatile Exception error;
+        private volatile String liveId;
+
+        Subscription(Flow.Subscriber<? super LiveResponse> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        void start() {
+            if (cancelled.get())
+                return;
+
+            driver.live(query, new EventCallback<String>() {
+                @Override
+                public void run(String id) {
+                    liveId = id;
+                    driver.onLive(id, Subscription.this);
+                    // Cancelled while the live query was starting.
+                    if (cancelled.get())
+                        stop(id);
+                }
+
+                @Override
+                public void fail(Exception error) {
+                    Subscription.this.fail(error);
+                }
+            });
+        }
+
+        /**
+         * Buffer an event.
+         */
+        @Override
+        public void run(LiveResponse value) {
+            if (cancelled.get())
+                return;
+
+            boolean full = false;
+            lock.lock();
+            try {
+                Object key = key(value);
+                if (buffer.size() >= capacity && !buffer.containsKey(key)) {
+                    full = overflow != OverflowStrategy.DROP_OLDEST;
+                    if (!full) {
+                        Iterator<LiveResponse> oldest = buffer.values().iterator();
+                        oldest.next();
+                        oldest.remove();
+                    }
+                }
+                if (!full)
+                    buffer.put(key, value);
+            } finally {
+                lock.unlock();
+            }
+
+            if (full)
+                fail(new RejectedExecutionException(
+                        "Live query subscriber fell behind by more than " + capacity + " events"));
+            else
+                drain();
+        }
+
+        private Object key(LiveResponse value) {
+            if (overflow == OverflowStrategy.COALESCE) {
+                Json data = value.data;
+                if (data != null && data.isString())
+                    return data.asString();
+                Json id = data != null && data.isObject() ? data.at("id") : null;
+                if (id != null && id.isString())
+                    return id.asString();
+            }
+            return sequence++;
+        }
+
+        /**
+         * Fail the subscriber, dropping buffered events.
+         */
+        @Override
+        public void fail(Exception error) {
+            if (this.error != null || cancelled.get())
+                return;
+            this.error = error;
+            String id = liveId;
+            if (id != null)
+                stop(id);
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("Requested " + n + " events, must be positive"));
+                return;
+            }
+
+            long current;
+            do {
+                current = demand.get();
+                if (current == Long.MAX_VALUE)
+                    break;
+            } while (!demand.compareAndSet(current, current + n < 0 ? Long.MAX_VALUE : current + n));
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            if (!cancelled.compareAndSet(false, true))
+                return;
+
+            String id = liveId;
+            if (id != null)
+                stop(id);
+            lock.lock();
+            try {
+                buffer.clear();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void stop(String id) {
+            driver.offLive(id);
+            // If the connection is gone, so is the live query.
+            driver.kill(id, Driver.IGNORE);
+        }
+
+        private LiveResponse poll() {
+            lock.lock();
+            try {
+                Iterator<LiveResponse> oldest = buffer.values().iterator();
+                if (!oldest.hasNext())
+                    return null;
+                LiveResponse next = oldest.next();
+                oldest.remove();
+                return next;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0)
+                return;
+
+            int missed = 1;
+            do {
+                long requested = demand.get();
+                long emitted = 0;
+
+                while (emitted != requested && !cancelled.get() && error == null) {
+                    LiveResponse next = poll();
+                    if (next == null)
+                        break;
+                    try {
+                        subscriber.onNext(next);
+                    } catch (RuntimeException e) {
+                        // Broken subscriber, stop before it sees anything else.
+                        cancel();
+                        throw e;
+                    }
+                    emitted++;
+                }
+
+                Exception failure = error;
+                if (failure != null && cancelled.compareAndSet(false, true)) {
+                    lock.lock();
+                    try {
+                        buffer.clear();
+                    } finally {
+                        lock.unlock();
+                    }
+                    subscriber.onError(failure);
+                }
+                if (emitted != 0 && requested != Long.MAX_VALUE)
+                    demand.addAndGet(-emitted);
+
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package net.buj.surreal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import mjson.Json;
+
+/**
+ * An in-memory copy of a table, kept up to date with a live query.
+ * <p>
+ * Created with {@link Driver#liveView(String, Class)}. The live query is
+ * started before the table is read, and live events that arrive while the
+ * table is being read are applied after it, in order. Since every event
+ * carries the whole record, the view ends up with the latest state of every
+ * record even if some of those events are already part of the snapshot.
+ * <p>
+ * Lookups never block and never touch the database. While the driver is
+ * reconnecting the view is stale, see {@link LiveView#isStale()}. Once the live
+ * query is restored the table is read again, the same way as the first time,
+ * and records deleted in the meantime are dropped.
+ *
+ * @param <K> Key type.
+ * @param <V> Record type.
+ */
+public class LiveView<K, V> implements AutoCloseable {
+    /**
+     * A secondary index, mapping a field to the records that have it.
+     *
+     * @param <I> Field type.
+     */
+    public final class Index<I> {
+        private final Function<? super V, ? extends I> field;
+        private final Map<I, Set<K>> entries = new ConcurrentHashMap<>();
+
+        private Index(Function<? super V, ? extends I> field) {
+            this.field = field;
+        }
+
+        /**
+         * Get the records with a field value.
+         *
+         * @param value The field value.
+         *
+         * @return Matching records, possibly empty.
+         */
+        public List<V> get(I value) {
+            Set<K> keys = entries.get(value);
+            if (keys == null)
+                return Collections.emptyList();
+
+            List<V> list = new ArrayList<>(keys.size());
+            for (K key : keys) {
+                V record = values.get(key);
+                if (record != null)
+                    list.add(record);
+            }
+            return list;
+        }
+
+        private void add(K key, V record) {
+            I value = field.apply(record);
+            if (value != null)
+                entries.computeIfAbsent(value, v -> ConcurrentHashMap.newKeySet()).add(key);
+        }
+
+        private void remove(K key, V record) {
+            I value = field.apply(record);
+            if (value != null)
+                entries.computeIfPresent(value, (v, keys) -> {
+                    keys.remove(key);
+                    return keys.isEmpty() ? null : keys;
+                });
+        }
+    }
+
+    private final Driver driver;
+    private final String source;
+    private final Codec<V> codec;
+    private final Function<? super V, ? extends K> key;
+    private final Map<K, V> values = new ConcurrentHashMap<>();
+    /**
+     * Keys by record ID, for deletions.
+     */
+    private final Map<String, K> keys = new ConcurrentHashMap<>();
+    private final List<Index<?>> indexes = new CopyOnWriteArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * Live events received before the snapshot, {@code null} once loaded.
+     */
+    private List<LiveResponse> buffered = new ArrayList<>();
+    /**
+     * Number of the latest read of the table, older reads are ignored.
+     */
+    private int reads;
+    private volatile boolean stale = true;
+    volatile String liveId;
+
+    LiveView(Driver driver, String source, Codec<V> codec, Function<? super V, ? extends K> key) {
+        this.driver = driver;
+        this.source = source;
+        this.codec = codec;
+        this.key = key;
+    }
+
+    /**
+     * Get a record.
+     *
+     * @param key Key of the record.
+     *
+     * @return The record, or {@code null} if there is none.
+     */
+    public V get(K key) {
+        return values.get(key);
+    }
+
+    /**
+     * Get the amount of records.
+     *
+     * @return Amount of records.
+     */
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * Get all records.
+     *
+     * @return An unmodifiable, live view of the records.
+     */
+    public Map<K, V> asMap() {
+        return Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * Check whether the view may be missing changes.
+     * <p>
+     * A view is stale while the driver is reconnecting, until the table has
+     * been read again. It stays stale if the live query couldn't be restored,
+     * the table couldn't be read again or a live event couldn't be mapped.
+     *
+     * @return Whether the view may be outdated.
+     */
+    public boolean isStale() {
+        return stale;
+    }
+
+    /**
+     * Add a secondary index.
+     *
+     * @param <I>   Field type.
+     * @param field Gets the indexed field of a record. May return
+     *              {@code null} to leave a record out of the index.
+     *
+     * @return The index.
+     */
+    public <I> Index<I> index(Function<? super V, ? extends I> field) {
+        Index<I> index = new Index<>(field);
+        lock.lock();
+        try {
+            for (Map.Entry<K, V> entry : values.entrySet())
+                index.add(entry.getKey(), entry.getValue());
+            indexes.add(index);
+        } finally {
+            lock.unlock();
+        }
+        return index;
+    }
+
+    void event(LiveResponse response) {
+        lock.lock();
+        try {
+            if (buffered != null)
+                buffered.add(response);
+            else
+                apply(response.action, response.data);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void markStale() {
+        stale = true;
+    }
+
+    /**
+     * Read the table again, after the live query has been restored. Live
+     * events are buffered until it has been read.
+     */
+    void reload() {
+        int read;
+        lock.lock();
+        try {
+            stale = true;
+            if (buffered == null)
+                buffered = new ArrayList<>();
+            read = ++reads;
+        } finally {
+            lock.unlock();
+        }
+
+        driver.querySingle(new Query("SELECT * FROM " + source), new EventCallback<Response>() {
+            @Override
+            public void run(Response value) {
+                try {
+                    load(value.ok().result(), read);
+                } catch (Exception e) {
+                    fail(e);
+                }
+            }
+
+            @Override
+            public void fail(Exception error) {
+                // Keep following live events, but stay stale.
+                lock.lock();
+                try {
+                    if (read == reads && buffered != null)
+                        flush();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        });
+    }
+
+    void load(Json rows) {
+        load(rows, 0);
+    }
+
+    private void load(Json rows, int read) {
+        lock.lock();
+        try {
+            if (read != reads || buffered == null)
+                return;
+
+            // Records missing from the snapshot were deleted in the meantime.
+            Set<String> ids = new HashSet<>();
+            if (rows != null && rows.isArray())
+                for (Json row : rows.asJsonList())
+                    if (row.isObject() && row.has("id"))
+                        ids.add(row.at("id").asString());
+            for (String id : new ArrayList<>(keys.keySet()))
+                if (!ids.contains(id))
+                    apply("DELETE", Json.make(id));
+
+            if (rows != null && rows.isArray())
+                for (Json row : rows.asJsonList())
+                    apply("UPDATE", row);
+
+            flush();
+            stale = false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void flush() {
+        for (LiveResponse response : buffered)
+            apply(response.action, response.data);
+        buffered = null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void apply(String action, Json data) {
+        if (data == null || data.isNull())
+            return;
+
+        if (action.equals("DELETE")) {
+            // Older versions of SurrealDB only send the record ID.
+            K removed = keys.remove(data.isString() ? data.asString() : data.at("id").asString());
+            if (removed != null) {
+                V old = values.remove(removed);
+                if (old != null)
+                    for (Index<?> index : indexes)
+                        index.remove(removed, old);
+            }
+            return;
+        }
+
+        V record = codec.fromJson(data);
+        if (record == null)
+            return;
+        String id = data.at("id").asString();
+        K next = key == null ? (K) id : key.apply(record);
+
+        K previous = keys.put(id, next);
+        V old = previous == null ? null : values.remove(previous);
+        if (old != null)
+            for (Index<?> index : indexes)
+                index.remove(previous, old);
+
+        values.put(next, record);
+        for (Index<?> index : indexes)
+            index.add(next, record);
+    }
+
+    /**
+     * Stop updating the view.
+     * <p>
+     * Kills the live query. The records stay available.
+     */
+    @Override
+    public void close() {
+        String id = liveId;
+        if (id == null)
+            return;
+        liveId = null;
+
+        driver.liveViews.remove(id);
+        driver.offLive(id);
+        // If the connection is gone, so is the live query.
+        driver.kill(id, Driver.IGNORE);
+    }
+}
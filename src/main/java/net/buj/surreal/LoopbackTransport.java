@@ -0,0 +1,151 @@
+package net.buj.surreal;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * In-memory transport, for tests.
+ * <p>
+ * Messages sent by the driver are handed to a {@link Peer} standing in for
+ * SurrealDB, on the sending thread. Messages from the peer are delivered to
+ * the driver on a thread of the transport, like a socket would.
+ */
+public class LoopbackTransport implements Transport {
+    /**
+     * The other end of a loopback transport.
+     */
+    public interface Peer {
+        /**
+         * Called when the driver sends a text message.
+         *
+         * @param transport The transport, to reply with
+         *                  {@link LoopbackTransport#receiveText(String)}.
+         * @param message   The message.
+         */
+        void onText(LoopbackTransport transport, String message);
+
+        /**
+         * Called when the driver sends a binary message.
+         *
+         * @param transport The transport, to reply with
+         *                  {@link LoopbackTransport#receiveBinary(ByteBuffer)}.
+         * @param message   The message.
+         */
+        default void onBinary(LoopbackTransport transport, ByteBuffer message) {
+        }
+    }
+
+    private final Peer peer;
+    private final ExecutorService inbound = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "SurrealRPC-loopback");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final CompletableFuture<Void> closed = new CompletableFuture<>();
+    private volatile Listener listener;
+    private final AtomicBoolean open = new AtomicBoolean();
+
+    /**
+     * Create a new {@link LoopbackTransport}.
+     *
+     * @param peer Receives messages sent by the driver.
+     */
+    public LoopbackTransport(Peer peer) {
+        this.peer = Objects.requireNonNull(peer);
+    }
+
+    @Override
+    public CompletableFuture<Void> connect(URI uri, String subprotocol, Listener listener) {
+        if (this.listener != null)
+            throw new IllegalStateException("Transport was already connected");
+        this.listener = Objects.requireNonNull(listener);
+        open.set(true);
+
+        CompletableFuture<Void> opened = new CompletableFuture<>();
+        deliver(() -> {
+            listener.onOpen();
+            opened.complete(null);
+        });
+        return opened;
+    }
+
+    private void deliver(Runnable event) {
+        try {
+            inbound.execute(event);
+        } catch (RejectedExecutionException e) {
+            // Closed.
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (!open.get())
+            throw new IOException("Transport is not connected");
+    }
+
+    @Override
+    public void sendText(ByteBuffer message) throws IOException {
+        checkOpen();
+        peer.onText(this, StandardCharsets.UTF_8.decode(message).toString());
+    }
+
+    @Override
+    public void sendBinary(ByteBuffer message) throws IOException {
+        checkOpen();
+        peer.onBinary(this, ByteBuffer.allocate(message.remaining()).put(message).flip());
+    }
+
+    /**
+     * Deliver a text message to the driver.
+     *
+     * @param message The message.
+     */
+    public void receiveText(String message) {
+        if (open.get())
+            deliver(() -> listener.onText(message));
+    }
+
+    /**
+     * Deliver a binary message to the driver.
+     *
+     * @param message The message.
+     */
+    public void receiveBinary(ByteBuffer message) {
+        if (!open.get())
+            return;
+        ByteBuffer copy = ByteBuffer.allocate(message.remaining()).put(message).flip();
+        deliver(() -> listener.onBinary(copy));
+    }
+
+    /**
+     * Close the connection from the peer's side, like a dropped connection.
+     *
+     * @param code   WebSocket close code.
+     * @param reason Close reason.
+     */
+    public void disconnect(int code, String reason) {
+        if (!open.compareAndSet(true, false))
+            return;
+        deliver(() -> {
+            listener.onClose(code, reason);
+            closed.complete(null);
+        });
+        inbound.shutdown();
+    }
+
+    @Override
+    public CompletableFuture<Void> close() {
+        if (listener == null)
+            closed.complete(null);
+        else
+            disconnect(1000, "");
+        return closed;
+    }
+}
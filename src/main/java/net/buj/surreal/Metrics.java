@@ -0,0 +1,269 @@
+package net.buj.surreal;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Driver metrics.
+ * <p>
+ * Collects request latencies per RPC method and per query tag (see
+ * {@link Query#tag(String)}), frame and byte counts, errors, timeouts and
+ * live events. Attach to one or more drivers with
+ * {@link Driver#setMetrics(Metrics)}; a driver without metrics records
+ * nothing. Recording never locks.
+ * <p>
+ * Latencies are measured from sending a request until its response is
+ * received, before it is decoded. Sizes of JSON frames are counted in bytes
+ * of their UTF-8 encoding.
+ */
+public class Metrics implements AutoCloseable {
+    /**
+     * Metrics at one point in time.
+     */
+    public static final class Snapshot {
+        /**
+         * Latencies by RPC method.
+         */
+        public final Map<String, Histogram.Snapshot> methods;
+        /**
+         * Latencies by query tag.
+         */
+        public final Map<String, Histogram.Snapshot> tags;
+        /**
+         * Requests waiting for a response.
+         */
+        public final int inFlight;
+        /**
+         * Queries waiting to be sent: while connecting, to be batched or over
+         * the in-flight limit.
+         */
+        public final int queued;
+        /**
+         * Frames received.
+         */
+        public final long framesIn;
+        /**
+         * Frames sent.
+         */
+        public final long framesOut;
+        /**
+         * Bytes received.
+         */
+        public final long bytesIn;
+        /**
+         * Bytes sent.
+         */
+        public final long bytesOut;
+        /**
+         * Requests that failed with an RPC error or couldn't be sent.
+         */
+        public final long errors;
+        /**
+         * Requests that timed out.
+         */
+        public final long timeouts;
+        /**
+         * Live events received.
+         */
+        public final long liveEvents;
+        /**
+         * Live events received per second since the previous snapshot of the
+         * same exporter, or the previous call of {@link Metrics#snapshot()}.
+         */
+        public final double liveEventsPerSecond;
+
+        private Snapshot(Map<String, Histogram.Snapshot> methods, Map<String, Histogram.Snapshot> tags,
+                int inFlight, int queued, long framesIn, long framesOut, long bytesIn, long bytesOut, long errors,
+                long timeouts, long liveEvents, double liveEventsPerSecond) {
+            this.methods = methods;
+            this.tags = tags;
+            this.inFlight = inFlight;
+            this.queued = queued;
+            this.framesIn = framesIn;
+            this.framesOut = framesOut;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.errors = errors;
+            this.timeouts = timeouts;
+            this.liveEvents = liveEvents;
+            this.liveEventsPerSecond = liveEventsPerSecond;
+        }
+    }
+
+    /**
+     * Live event count of the previous snapshot of one consumer.
+     */
+    private static final class Rate {
+        private long lastLiveEvents;
+        private long lastSnapshot = System.nanoTime();
+
+        Rate(long liveEvents) {
+            lastLiveEvents = liveEvents;
+        }
+
+        synchronized double update(long liveEvents) {
+            long now = System.nanoTime();
+            long elapsed = now - lastSnapshot;
+            double rate = elapsed > 0 ? (liveEvents - lastLiveEvents) * 1e9 / elapsed : 0;
+            lastLiveEvents = liveEvents;
+            lastSnapshot = now;
+            return rate;
+        }
+    }
+
+    private final Map<String, Histogram> methods = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> tags = new ConcurrentHashMap<>();
+    private final List<Driver> drivers = new CopyOnWriteArrayList<>();
+    private final LongAdder framesIn = new LongAdder();
+    private final LongAdder framesOut = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder liveEvents = new LongAdder();
+    private final Rate rate = new Rate(0);
+    private ScheduledExecutorService exporter;
+
+    /**
+     * Get the latency histogram of an RPC method.
+     *
+     * @param method RPC method, such as {@code query}.
+     *
+     * @return The histogram.
+     */
+    public Histogram method(String method) {
+        return methods.computeIfAbsent(method, m -> new Histogram());
+    }
+
+    /**
+     * Get the latency histogram of a query tag.
+     *
+     * @param tag Query tag.
+     *
+     * @return The histogram.
+     */
+    public Histogram tag(String tag) {
+        return tags.computeIfAbsent(tag, t -> new Histogram());
+    }
+
+    void bind(Driver driver) {
+        drivers.add(driver);
+    }
+
+    void unbind(Driver driver) {
+        drivers.remove(driver);
+    }
+
+    void response(String method, String tag, long nanos) {
+        method(method).record(nanos);
+        if (tag != null)
+            tag(tag).record(nanos);
+    }
+
+    void frameIn(int bytes) {
+        framesIn.increment();
+        bytesIn.add(bytes);
+    }
+
+    void frameOut(int bytes) {
+        framesOut.increment();
+        bytesOut.add(bytes);
+    }
+
+    void error() {
+        errors.increment();
+    }
+
+    void timeout() {
+        timeouts.increment();
+    }
+
+    void liveEvent() {
+        liveEvents.increment();
+    }
+
+    /**
+     * Take a snapshot of all metrics.
+     *
+     * @return The snapshot.
+     */
+    public Snapshot snapshot() {
+        return snapshot(rate);
+    }
+
+    private Snapshot snapshot(Rate rate) {
+        int inFlight = 0;
+        int queued = 0;
+        for (Driver driver : drivers) {
+            int sent = driver.sent();
+            inFlight += sent;
+            queued += driver.inFlight() - sent;
+        }
+
+        long live = liveEvents.sum();
+        return new Snapshot(snapshot(methods), snapshot(tags), inFlight, queued, framesIn.sum(), framesOut.sum(),
+                bytesIn.sum(), bytesOut.sum(), errors.sum(), timeouts.sum(), live, rate.update(live));
+    }
+
+    private static Map<String, Histogram.Snapshot> snapshot(Map<String, Histogram> histograms) {
+        Map<String, Histogram.Snapshot> snapshots = new HashMap<>();
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet())
+            snapshots.put(entry.getKey(), entry.getValue().snapshot());
+        return Collections.unmodifiableMap(snapshots);
+    }
+
+    /**
+     * Export snapshots periodically.
+     * <p>
+     * Snapshots are taken and exported on a background thread, so a slow
+     * exporter doesn't delay requests. Exceptions thrown by the exporter are
+     * ignored. Rates are computed separately for every exporter.
+     *
+     * @param exporter The exporter.
+     * @param period   Time between snapshots.
+     * @param unit     Unit of {@code period}.
+     */
+    public synchronized void export(MetricsExporter exporter, long period, TimeUnit unit) {
+        Objects.requireNonNull(exporter);
+        if (period <= 0)
+            throw new IllegalArgumentException("Period must be positive");
+
+        if (this.exporter == null)
+            this.exporter = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "SurrealRPC-metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+        Rate rate = new Rate(liveEvents.sum());
+        this.exporter.scheduleAtFixedRate(() -> {
+            try {
+                exporter.export(snapshot(rate));
+            } catch (RuntimeException e) {
+                // Keep exporting.
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Stop all exports.
+     * <p>
+     * Metrics keep being recorded.
+     */
+    @Override
+    public synchronized void close() {
+        if (exporter != null) {
+            exporter.shutdown();
+            exporter = null;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package net.buj.surreal;
+
+/**
+ * Receives periodic snapshots of {@link Metrics}.
+ * <p>
+ * See {@link Metrics#export(MetricsExporter, long, java.util.concurrent.TimeUnit)}.
+ */
+public interface MetricsExporter {
+    /**
+     * Export a snapshot.
+     * <p>
+     * Called on the export thread of the metrics, one snapshot at a time.
+     *
+     * @param snapshot The snapshot.
+     */
+    void export(Metrics.Snapshot snapshot);
+}
@@ -0,0 +1,228 @@
+package net.buj.surreal;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import mjson.Json;
+
+/**
+ * Codec for records and plain objects.
+ * <p>
+ * Records are built through their canonical constructor. Other classes need a
+ * no-argument constructor and are mapped field by field, skipping static and
+ * transient fields. Unknown properties are ignored, missing ones keep their
+ * default value.
+ * <p>
+ * All members are resolved to {@link MethodHandle}s once, when the codec is
+ * created.
+ *
+ * @param <T> Mapped type.
+ */
+final class ObjectCodec<T> extends Codec<T> {
+    private static final MethodType CONSTRUCTOR = MethodType.methodType(Object.class, Object[].class);
+    private static final MethodType NEW_INSTANCE = MethodType.methodType(Object.class);
+    private static final MethodType GETTER = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER = MethodType.methodType(void.class, Object.class, Object.class);
+
+    // Looked up reflectively so that records work without requiring Java 16.
+    private static final Method GET_RECORD_COMPONENTS;
+    private static final Method COMPONENT_NAME;
+    private static final Method COMPONENT_TYPE;
+    private static final Method COMPONENT_GENERIC_TYPE;
+    private static final Method COMPONENT_ACCESSOR;
+
+    static {
+        Method components = null, name = null, type = null, genericType = null, accessor = null;
+        try {
+            components = Class.class.getMethod("getRecordComponents");
+            Class<?> component = Class.forName("java.lang.reflect.RecordComponent");
+            name = component.getMethod("getName");
+            type = component.getMethod("getType");
+            genericType = component.getMethod("getGenericType");
+            accessor = component.getMethod("getAccessor");
+        } catch (ReflectiveOperationException e) {
+            components = null;
+        }
+        GET_RECORD_COMPONENTS = components;
+        COMPONENT_NAME = name;
+        COMPONENT_TYPE = type;
+        COMPONENT_GENERIC_TYPE = genericType;
+        COMPONENT_ACCESSOR = accessor;
+    }
+
+    private final Class<T> type;
+    private final String[] names;
+    private final Codec<?>[] codecs;
+    private final Map<String, Integer> index = new HashMap<>();
+    private final MethodHandle[] getters;
+    /**
+     * Canonical constructor taking all properties as an array, for records.
+     */
+    private final MethodHandle constructor;
+    /**
+     * No-argument constructor and setters, for other classes.
+     */
+    private final MethodHandle newInstance;
+    private final MethodHandle[] setters;
+
+    ObjectCodec(Class<T> type) {
+        this.type = type;
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+        try {
+            Object[] components = recordComponents(type);
+            if (components != null) {
+                int count = components.length;
+                names = new String[count];
+                codecs = new Codec<?>[count];
+                getters = new MethodHandle[count];
+                Class<?>[] parameters = new Class<?>[count];
+
+                for (int i = 0; i < count; i++) {
+                    names[i] = (String) COMPONENT_NAME.invoke(components[i]);
+                    parameters[i] = (Class<?>) COMPONENT_TYPE.invoke(components[i]);
+                    codecs[i] = Codec.forType((Type) COMPONENT_GENERIC_TYPE.invoke(components[i]));
+                    Method accessor = (Method) COMPONENT_ACCESSOR.invoke(components[i]);
+                    accessor.setAccessible(true);
+                    getters[i] = lookup.unreflect(accessor).asType(GETTER);
+                    index.put(names[i], i);
+                }
+
+                Constructor<T> canonical = type.getDeclaredConstructor(parameters);
+                canonical.setAccessible(true);
+                constructor = lookup.unreflectConstructor(canonical).asSpreader(Object[].class, count)
+                        .asType(CONSTRUCTOR);
+                newInstance = null;
+                setters = null;
+            } else {
+                List<Field> fields = new ArrayList<>();
+                for (Class<?> clazz = type; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass())
+                    for (Field field : clazz.getDeclaredFields())
+                        if ((field.getModifiers() & (Modifier.STATIC | Modifier.TRANSIENT)) == 0
+                                && !field.isSynthetic())
+                            fields.add(field);
+
+                int count = fields.size();
+                names = new String[count];
+                codecs = new Codec<?>[count];
+                getters = new MethodHandle[count];
+                setters = new MethodHandle[count];
+
+                for (int i = 0; i < count; i++) {
+                    Field field = fields.get(i);
+                    field.setAccessible(true);
+                    names[i] = field.getName();
+                    codecs[i] = Codec.forType(field.getGenericType());
+                    getters[i] = lookup.unreflectGetter(field).asType(GETTER);
+                    setters[i] = lookup.unreflectSetter(field).asType(SETTER);
+                    index.putIfAbsent(names[i], i);
+                }
+
+                Constructor<T> noArgs = type.getDeclaredConstructor();
+                noArgs.setAccessible(true);
+                newInstance = lookup.unreflectConstructor(noArgs).asType(NEW_INSTANCE);
+                constructor = null;
+            }
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(
+                    "Can't map " + type.getName() + ": it needs a no-argument constructor or must be a record", e);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            throw new IllegalArgumentException("Can't map " + type.getName(), e);
+        }
+    }
+
+    private static Object[] recordComponents(Class<?> type) throws ReflectiveOperationException {
+        if (GET_RECORD_COMPONENTS == null)
+            return null;
+        return (Object[]) GET_RECORD_COMPONENTS.invoke(type);
+    }
+
+    @Override
+    T fromJson(Json json) {
+        if (isNull(json))
+            return null;
+
+        Object[] values = new Object[names.length];
+        boolean[] present = new boolean[names.length];
+        for (Map.Entry<String, Json> entry : json.asJsonMap().entrySet()) {
+            Integer i = index.get(entry.getKey());
+            if (i != null) {
+                values[i] = codecs[i].fromJson(entry.getValue());
+                present[i] = true;
+            }
+        }
+        return build(values, present);
+    }
+
+    @Override
+    T read(JsonReader reader) {
+        if (reader.peek() == JsonReader.Token.NULL) {
+            reader.nextNull();
+            return null;
+        }
+
+        Object[] values = new Object[names.length];
+        boolean[] present = new boolean[names.length];
+        reader.beginObject();
+        while (reader.hasNext()) {
+            Integer i = index.get(reader.nextName());
+            if (i == null) {
+                reader.skipValue();
+            } else {
+                values[i] = codecs[i].read(reader);
+                present[i] = true;
+            }
+        }
+        reader.endObject();
+        return build(values, present);
+    }
+
+    private T build(Object[] values, boolean[] present) {
+        try {
+            if (constructor != null) {
+                for (int i = 0; i < values.length; i++)
+                    if (values[i] == null)
+                        values[i] = codecs[i].defaultValue();
+                return type.cast((Object) constructor.invokeExact(values));
+            }
+
+            Object instance = (Object) newInstance.invokeExact();
+            for (int i = 0; i < values.length; i++) {
+                if (!present[i])
+                    continue;
+                // Primitive fields always get a non-null default.
+                Object value = values[i] != null ? values[i] : codecs[i].defaultValue();
+                setters[i].invokeExact(instance, value);
+            }
+            return type.cast(instance);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Can't construct " + type.getName(), e);
+        }
+    }
+
+    @Override
+    Json toJson(T value) {
+        Json object = Json.object();
+        try {
+            for (int i = 0; i < names.length; i++)
+                object.set(names[i], codecs[i].encode((Object) getters[i].invokeExact((Object) value)));
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Can't read " + type.getName(), e);
+        }
+        return object;
+    }
+}
@@ -0,0 +1,24 @@
+package net.buj.surreal;
+
+/**
+ * What a live query publisher does when its subscriber falls behind.
+ * <p>
+ * See {@link Driver#live(Query, int, OverflowStrategy)}.
+ */
+public enum OverflowStrategy {
+    /**
+     * Drop the oldest buffered event to make room for the new one.
+     */
+    DROP_OLDEST,
+    /**
+     * Keep only the latest event of every record, in the position of the
+     * first one. Fails like {@link OverflowStrategy#FAIL} once the buffer
+     * holds events of as many different records as it has room for.
+     */
+    COALESCE,
+    /**
+     * Kill the live query and fail the subscriber with a
+     * {@link java.util.concurrent.RejectedExecutionException}.
+     */
+    FAIL
+}
@@ -0,0 +1,26 @@
+package net.buj.surreal;
+
+/**
+ * What a {@link Driver} does with a query when too many are in flight.
+ * <p>
+ * See {@link Driver#setLimits(int, int, OverloadPolicy)}.
+ */
+public enum OverloadPolicy {
+    /**
+     * Block the submitting thread until a query completes.
+     * <p>
+     * Don't submit queries from callbacks with this policy: callbacks run on
+     * the thread that reads responses, so blocking it blocks forever.
+     */
+    BLOCK,
+    /**
+     * Fail the query right away with a
+     * {@link java.util.concurrent.RejectedExecutionException}.
+     */
+    FAIL,
+    /**
+     * Queue the query and send it once a query completes. Fails like
+     * {@link OverloadPolicy#FAIL} when the queue is full.
+     */
+    DEFER
+}
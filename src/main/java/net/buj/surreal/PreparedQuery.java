@@ -0,0 +1,80 @@
+package net.buj.surreal;
+
+import java.util.Objects;
+
+import mjson.Json;
+
+/**
+ * A reusable SurrealDB query.
+ * <p>
+ * The JSON-RPC envelope and the escaped SurrealQL text are serialized once,
+ * when the prepared query is created. Sending a query bound from it only
+ * writes its ID and parameters, which makes a difference for long queries
+ * that are sent often.
+ *
+ * <pre>
+ * PreparedQuery byName = new PreparedQuery("SELECT * FROM user WHERE name = $name");
+ * driver.query(byName.bind().x("name", "alice"), callback);
+ * </pre>
+ *
+ * Prepared queries are immutable and can be shared between threads and
+ * drivers. With the CBOR protocol, the SurrealQL text is encoded on every
+ * send like with a plain {@link Query}.
+ */
+public class PreparedQuery {
+    final String sql;
+    /**
+     * Encoded request up to the parameters.
+     */
+    final byte[] prefix;
+    private volatile Statements statements;
+    private volatile String normalized;
+
+    /**
+     * Construct a new {@link PreparedQuery}.
+     *
+     * @param sql SurrealQL query. Use {@code $varname} for referencing variables.
+     */
+    public PreparedQuery(String sql) {
+        this.sql = Objects.requireNonNull(sql);
+        this.prefix = JsonWriter.utf8("{\"jsonrpc\":\"2.0\",\"method\":\"query\",\"params\":[" + Json.make(sql) + ",");
+    }
+
+    /**
+     * Create a query to execute.
+     *
+     * @return A new query without parameters.
+     */
+    public Query bind() {
+        return new Query(this);
+    }
+
+    /**
+     * Get the statements of this query, analyzed once.
+     *
+     * @return The statements.
+     */
+    Statements statements() {
+        Statements result = statements;
+        if (result == null)
+            statements = result = Statements.analyze(sql);
+        return result;
+    }
+
+    /**
+     * Get the normalized text of this query, normalized once.
+     *
+     * @return The normalized text.
+     */
+    String normalized() {
+        String result = normalized;
+        if (result == null)
+            normalized = result = Statements.normalize(sql);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return sql;
+    }
+}
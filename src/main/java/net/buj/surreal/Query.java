@@ -1,5 +1,7 @@
 package net.buj.surreal;
 
+import java.util.concurrent.TimeUnit;
+
 import mjson.Json;
 
 /**
@@ -8,6 +10,11 @@ import mjson.Json;
 public class Query {
     String sql;
     Json params = Json.object();
+    long timeout = -1;
+    boolean idempotent;
+    String[] cacheTables;
+    String tag;
+    final PreparedQuery prepared;
 
     /**
      * Construct a new {@link Query}
@@ -16,6 +23,22 @@ public class Query {
      */
     public Query(String sql) {
         this.sql = sql;
+        this.prepared = null;
+    }
+
+    Query(PreparedQuery prepared) {
+        this.sql = prepared.sql;
+        this.prepared = prepared;
+    }
+
+    /**
+     * Get the first parameter of the {@code query} request.
+     *
+     * @return The {@link PreparedQuery} this query was bound from, or the
+     *         SurrealQL text.
+     */
+    Object text() {
+        return prepared != null ? prepared : sql;
     }
 
     /**
@@ -30,4 +53,75 @@ public class Query {
         params.set(param, value);
         return this;
     }
+
+    /**
+     * Set a timeout for this query.
+     * <p>
+     * If SurrealDB does not respond in time, the query callback fails with a
+     * {@link java.util.concurrent.TimeoutException}. Overrides
+     * {@link Driver#setTimeout(long, TimeUnit)}; a timeout of {@code 0} disables
+     * it for this query.
+     *
+     * @param timeout Maximum time to wait for a response.
+     * @param unit    Unit of {@code timeout}.
+     *
+     * @return Itself.
+     */
+    public Query timeout(long timeout, TimeUnit unit) {
+        if (timeout < 0)
+            throw new IllegalArgumentException("Timeout must not be negative");
+        this.timeout = unit.toNanos(timeout);
+        return this;
+    }
+
+    /**
+     * Mark this query as idempotent.
+     * <p>
+     * If the connection drops while an idempotent query is in flight and the
+     * driver has a {@link ReconnectPolicy}, the query is sent again once the
+     * driver has reconnected instead of failing. Only mark queries that are
+     * safe to execute twice.
+     *
+     * @return Itself.
+     */
+    public Query idempotent() {
+        idempotent = true;
+        return this;
+    }
+
+    /**
+     * Allow the results of this query to be cached.
+     * <p>
+     * Only has an effect if the driver has a cache, see
+     * {@link Driver#setCache(int, long, TimeUnit)}. Queries with the same
+     * SurrealQL text, ignoring formatting, and the same parameters share a
+     * cache entry. Only cache queries without side effects, and don't modify
+     * results of cached queries.
+     *
+     * @param tables Tables the query reads. The cached results are dropped
+     *               whenever one of them changes. Without tables, results
+     *               are only dropped once they expire.
+     *
+     * @return Itself.
+     */
+    public Query cached(String... tables) {
+        cacheTables = tables.clone();
+        return this;
+    }
+
+    /**
+     * Tag this query for metrics.
+     * <p>
+     * Latencies of tagged queries are also recorded under their tag, see
+     * {@link Metrics#tag(String)}. Queries sent together in a batch are only
+     * recorded under their RPC method.
+     *
+     * @param tag Tag name, such as the name of the operation.
+     *
+     * @return Itself.
+     */
+    public Query tag(String tag) {
+        this.tag = tag;
+        return this;
+    }
 }
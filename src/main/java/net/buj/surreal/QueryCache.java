@@ -0,0 +1,299 @@
+package net.buj.surreal;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache for results of queries marked with {@link Query#cached(String...)}.
+ * <p>
+ * Entries are keyed by normalized SurrealQL text and parameters, evicted in
+ * least recently used order once the cache is full, and expire after a fixed
+ * time. Concurrent misses for the same key share one request. Lookups don't
+ * lock, the lock is only taken to evict entries from a full cache.
+ * <p>
+ * Every table named by a cached query is watched with a live query, and all
+ * entries reading a table are dropped when it changes, found through an
+ * index of entries by table. Results are only stored once the watch is
+ * running, and are discarded if the table changed while they were being
+ * fetched.
+ */
+final class QueryCache {
+    private static final class Cached {
+        final String key;
+        final Response[] responses;
+        final String[] tables;
+        final long expires;
+        volatile long lastUsed = System.nanoTime();
+
+        Cached(String key, Response[] responses, String[] tables, long expires) {
+            this.key = key;
+            this.responses = responses;
+            this.tables = tables;
+            this.expires = expires;
+        }
+    }
+
+    private final Driver driver;
+    private final int maxEntries;
+    private final long ttl;
+    private final Map<String, Cached> entries = new ConcurrentHashMap<>();
+    /**
+     * Entries by the tables they read.
+     */
+    private final Map<String, Set<Cached>> byTable = new ConcurrentHashMap<>();
+    /**
+     * Held while evicting from a full cache.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, CompletableFuture<Response[]>> loading = new ConcurrentHashMap<>();
+    /**
+     * Incremented whenever a table changes.
+     */
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+    private final Set<String> watched = ConcurrentHashMap.newKeySet();
+    private final Set<String> ready = ConcurrentHashMap.newKeySet();
+    private final List<String> liveIds = new CopyOnWriteArrayList<>();
+    private volatile boolean closed;
+
+    QueryCache(Driver driver, int maxEntries, long ttl) {
+        this.driver = driver;
+        this.maxEntries = maxEntries;
+        this.ttl = ttl;
+    }
+
+    /**
+     * Execute a query through the cache.
+     *
+     * @param query    A query marked as cacheable.
+     * @param callback A callback for its results.
+     */
+    void query(Query query, EventCallback<Response[]> callback) {
+        String sql = query.prepared != null ? query.prepared.normalized() : Statements.normalize(query.sql);
+        String key = sql + '\0' + query.params;
+
+        Cached entry = get(key);
+        if (entry != null) {
+            callback.run(entry.responses.clone());
+            return;
+        }
+
+        CompletableFuture<Response[]> load = new CompletableFuture<>();
+        CompletableFuture<Response[]> existing = loading.putIfAbsent(key, load);
+        if (existing != null) {
+            existing.whenComplete((value, error) -> {
+                if (error == null)
+                    callback.run(value.clone());
+                else
+                    callback.fail(unwrap(error));
+            });
+            return;
+        }
+
+        String[] tables = query.cacheTables;
+        long[] before = new long[tables.length];
+        boolean watching = true;
+        for (int i = 0; i < tables.length; i++) {
+            watch(tables[i]);
+            watching &= ready.contains(tables[i]);
+            before[i] = generation(tables[i]).get();
+        }
+        boolean store = watching;
+
+        driver.send(query, null, new EventCallback<Response[]>() {
+            @Override
+            public void run(Response[] value) {
+                if (store && unchanged(tables, before) && allOk(value)) {
+                    // Decode results now, so the cache doesn't keep whole
+                    // frames alive.
+                    for (Response response : value)
+                        response.result();
+                    put(new Cached(key, value.clone(), tables, ttl > 0 ? System.nanoTime() + ttl : 0), before);
+                }
+                loading.remove(key, load);
+                load.complete(value);
+                callback.run(value);
+            }
+
+            @Override
+            public void fail(Exception error) {
+                loading.remove(key, load);
+                load.completeExceptionally(error);
+                callback.fail(error);
+            }
+        });
+    }
+
+    private Cached get(String key) {
+        Cached entry = entries.get(key);
+        if (entry == null)
+            return null;
+        if (entry.expires != 0 && entry.expires - System.nanoTime() < 0) {
+            remove(entry);
+            return null;
+        }
+        entry.lastUsed = System.nanoTime();
+        return entry;
+    }
+
+    private void put(Cached entry, long[] before) {
+        if (closed)
+            return;
+        Cached previous = entries.put(entry.key, entry);
+        if (previous != null)
+            unindex(previous);
+        for (String table : entry.tables)
+            byTable.compute(table, (name, cached) -> {
+                if (cached == null)
+                    cached = ConcurrentHashMap.newKeySet();
+                cached.add(entry);
+                return cached;
+            });
+
+        // Invalidated while being stored, the invalidation may not have seen
+        // it in the index.
+        if (closed || !unchanged(entry.tables, before))
+            remove(entry);
+        else if (entries.size() > maxEntries)
+            evict();
+    }
+
+    private void remove(Cached entry) {
+        if (entries.remove(entry.key, entry))
+            unindex(entry);
+    }
+
+    private void unindex(Cached entry) {
+        for (String table : entry.tables)
+            byTable.computeIfPresent(table, (name, cached) -> {
+                cached.remove(entry);
+                return cached.isEmpty() ? null : cached;
+            });
+    }
+
+    /**
+     * Drop least recently used entries from a full cache, a tenth more than
+     * needed so that the next puts don't have to evict again.
+     */
+    private void evict() {
+        // Someone else is already making room.
+        if (!lock.tryLock())
+            return;
+        try {
+            int excess = entries.size() - maxEntries;
+            if (excess <= 0)
+                return;
+
+            List<Cached> oldest = new ArrayList<>(entries.values());
+            oldest.sort(Comparator.comparingLong(entry -> entry.lastUsed));
+            int count = Math.min(oldest.size(), excess + maxEntries / 10);
+            for (int i = 0; i < count; i++)
+                remove(oldest.get(i));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private AtomicLong generation(String table) {
+        return generations.computeIfAbsent(table, t -> new AtomicLong());
+    }
+
+    private boolean unchanged(String[] tables, long[] before) {
+        for (int i = 0; i < tables.length; i++)
+            if (generation(tables[i]).get() != before[i])
+                return false;
+        return true;
+    }
+
+    private static boolean allOk(Response[] responses) {
+        for (Response response : responses)
+            if (!response.isOk())
+                return false;
+        return true;
+    }
+
+    private static Exception unwrap(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null)
+            error = error.getCause();
+        return error instanceof Exception ? (Exception) error : new CompletionException(error);
+    }
+
+    private void watch(String table) {
+        if (!watched.add(table))
+            return;
+
+        driver.live(new Query("LIVE SELECT * FROM " + Statements.identifier(table)), new EventCallback<String>() {
+            @Override
+            public void run(String id) {
+                if (closed) {
+                    driver.kill(id, Driver.IGNORE);
+                    return;
+                }
+                liveIds.add(id);
+                driver.onLive(id, new EventCallback<LiveResponse>() {
+                    @Override
+                    public void run(LiveResponse value) {
+                        invalidate(table);
+                    }
+
+                    @Override
+                    public void fail(Exception error) {
+                        // Changes may have been missed while reconnecting.
+                        invalidate(table);
+                    }
+                });
+                ready.add(table);
+            }
+
+            @Override
+            public void fail(Exception error) {
+                // Try again with the next query.
+                watched.remove(table);
+            }
+        });
+    }
+
+    /**
+     * Drop all entries reading a table.
+     *
+     * @param table Table name.
+     */
+    void invalidate(String table) {
+        generation(table).incrementAndGet();
+        Set<Cached> cached = byTable.get(table);
+        if (cached != null)
+            for (Cached entry : cached)
+                remove(entry);
+    }
+
+    /**
+     * Drop all entries, for when changes may have been missed.
+     */
+    void clear() {
+        for (AtomicLong generation : generations.values())
+            generation.incrementAndGet();
+        for (Cached entry : entries.values())
+            remove(entry);
+    }
+
+    /**
+     * Drop all entries and stop watching tables.
+     */
+    void close() {
+        closed = true;
+        for (Cached entry : entries.values())
+            remove(entry);
+        for (String id : liveIds) {
+            driver.offLive(id);
+            driver.kill(id, Driver.IGNORE);
+        }
+    }
+}
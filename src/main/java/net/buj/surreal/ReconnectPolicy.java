@@ -0,0 +1,110 @@
+package net.buj.surreal;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How a {@link Driver} reconnects after losing its connection.
+ * <p>
+ * Reconnection attempts are delayed with exponential backoff: the n-th attempt
+ * waits {@code initialDelay * multiplier^n}, capped at {@code maxDelay}, minus
+ * a random fraction of up to {@code jitter} of that delay so that many clients
+ * don't reconnect in lockstep.
+ * <p>
+ * See {@link Driver#setReconnect(ReconnectPolicy)}.
+ */
+public class ReconnectPolicy {
+    long initialDelay = TimeUnit.MILLISECONDS.toNanos(100);
+    long maxDelay = TimeUnit.SECONDS.toNanos(30);
+    double multiplier = 2;
+    double jitter = 0.5;
+    int maxAttempts;
+
+    /**
+     * Set the delay before the first attempt.
+     * <p>
+     * Defaults to 100 milliseconds.
+     *
+     * @param delay Delay before the first attempt.
+     * @param unit  Unit of {@code delay}.
+     *
+     * @return Itself.
+     */
+    public ReconnectPolicy initialDelay(long delay, TimeUnit unit) {
+        if (delay < 0)
+            throw new IllegalArgumentException("Delay must not be negative");
+        initialDelay = unit.toNanos(delay);
+        return this;
+    }
+
+    /**
+     * Set the maximum delay between attempts.
+     * <p>
+     * Defaults to 30 seconds.
+     *
+     * @param delay Maximum delay between attempts.
+     * @param unit  Unit of {@code delay}.
+     *
+     * @return Itself.
+     */
+    public ReconnectPolicy maxDelay(long delay, TimeUnit unit) {
+        if (delay < 0)
+            throw new IllegalArgumentException("Delay must not be negative");
+        maxDelay = unit.toNanos(delay);
+        return this;
+    }
+
+    /**
+     * Set the factor the delay grows by after each failed attempt.
+     * <p>
+     * Defaults to 2.
+     *
+     * @param multiplier Backoff multiplier, at least 1.
+     *
+     * @return Itself.
+     */
+    public ReconnectPolicy multiplier(double multiplier) {
+        if (!(multiplier >= 1))
+            throw new IllegalArgumentException("Multiplier must be at least 1");
+        this.multiplier = multiplier;
+        return this;
+    }
+
+    /**
+     * Set the jitter.
+     * <p>
+     * Defaults to 0.5, meaning each delay is randomly shortened by up to half.
+     *
+     * @param jitter Fraction of the delay to randomize, between 0 and 1.
+     *
+     * @return Itself.
+     */
+    public ReconnectPolicy jitter(double jitter) {
+        if (!(jitter >= 0 && jitter <= 1))
+            throw new IllegalArgumentException("Jitter must be between 0 and 1");
+        this.jitter = jitter;
+        return this;
+    }
+
+    /**
+     * Set the maximum amount of consecutive failed attempts.
+     * <p>
+     * Once exceeded, the driver gives up and fails all waiting queries.
+     * Defaults to {@code 0}, which retries forever.
+     *
+     * @param attempts Maximum amount of attempts, or {@code 0} for no limit.
+     *
+     * @return Itself.
+     */
+    public ReconnectPolicy maxAttempts(int attempts) {
+        if (attempts < 0)
+            throw new IllegalArgumentException("Attempts must not be negative");
+        maxAttempts = attempts;
+        return this;
+    }
+
+    long delay(int attempt) {
+        double delay = Math.min(initialDelay * Math.pow(multiplier, attempt), maxDelay);
+        return (long) (delay * (1 - jitter * ThreadLocalRandom.current().nextDouble()));
+    }
+}
@@ -1,13 +1,32 @@
 package net.buj.surreal;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+
 import mjson.Json;
 
 /**
  * A response to a query.
  * <p>
  * May be a failed response, make sure to use {@link Response#isOk()} to check.
+ * <p>
+ * Results received as JSON text are only decoded when they are first used,
+ * straight from the received frame. Until then the response keeps the whole
+ * frame in memory.
  */
 public class Response {
+    private static final VarHandle RESULT;
+
+    static {
+        try {
+            RESULT = MethodHandles.lookup().findVarHandle(Response.class, "result", Json.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     /**
      * Response status.
      * <p>
@@ -18,17 +37,52 @@ public class Response {
      * The amount of time it took to execute a statement.
      */
     public final String timeString;
+
+    private volatile Json result;
     /**
-     * Execution result.
-     * <p>
-     * If the query has failed, contains the error as string.
+     * Frame the result is still to be decoded from, {@code null} once decoded.
      */
-    public final Json result;
+    private volatile CharSequence source;
+    private final int start;
+    private final int end;
 
     Response(String status, String timeString, Json result) {
         this.status = status;
         this.timeString = timeString;
         this.result = result;
+        this.start = 0;
+        this.end = 0;
+    }
+
+    Response(String status, String timeString, CharSequence source, int start, int end) {
+        this.status = status;
+        this.timeString = timeString;
+        this.source = source;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Get the execution result.
+     * <p>
+     * If the query has failed, contains the error as string. Decoded on first
+     * use, every call returns the same tree.
+     *
+     * @return The result, or {@code null} if its rows were streamed.
+     */
+    public Json result() {
+        Json result = this.result;
+        CharSequence source = this.source;
+        if (result != null || source == null)
+            return this.result;
+
+        // Threads racing to decode keep the tree that was stored first.
+        Json decoded = new JsonReader(source, start, end).readJson();
+        if (RESULT.compareAndSet(this, null, decoded)) {
+            this.source = null;
+            return decoded;
+        }
+        return this.result;
     }
 
     /**
@@ -48,8 +102,99 @@ public class Response {
      * @return Itself.
      */
     public Response ok() throws ResponseException {
-        if (!isOk())
-            throw new ResponseException(result.isString() ? result.asString() : status);
+        if (!isOk()) {
+            Json result = result();
+            throw new ResponseException(result != null && result.isString() ? result.asString() : status);
+        }
         return this;
     }
+
+    /**
+     * Map the result to an object.
+     * <p>
+     * Supports records, classes with a no-argument constructor, enums, strings,
+     * numbers, booleans, arrays, collections and maps. Collections and maps are
+     * created with the declared class, or a standard implementation of it if it
+     * is an interface. Properties are matched to fields or record components by
+     * name; unknown properties are ignored.
+     *
+     * @param <T>  Mapped type.
+     * @param type Class to map to.
+     *
+     * @throws ResponseException        If the query has failed.
+     * @throws IllegalArgumentException If the class can't be mapped.
+     * @throws IllegalStateException    If the rows were streamed.
+     *
+     * @return The mapped result.
+     */
+    public <T> T as(Class<T> type) throws ResponseException {
+        ok();
+        Codec<T> codec = Codec.of(type);
+        CharSequence source = this.source;
+        if (source != null)
+            return codec.read(new JsonReader(source, start, end));
+        Json result = this.result;
+        if (result == null)
+            throw new IllegalStateException("Rows of the result were streamed");
+        return codec.fromJson(result);
+    }
+
+    /**
+     * Map every row of the result to an object.
+     * <p>
+     * See {@link Response#as(Class)}.
+     *
+     * @param <T>  Mapped type.
+     * @param type Class to map rows to.
+     *
+     * @throws ResponseException        If the query has failed.
+     * @throws IllegalArgumentException If the class can't be mapped.
+     *
+     * @return The mapped rows.
+     */
+    public <T> List<T> asList(Class<T> type) throws ResponseException {
+        ok();
+        Codec<T> codec = Codec.of(type);
+        CharSequence source = this.source;
+        if (source != null)
+            return readList(codec, new JsonReader(source, start, end));
+
+        Json result = this.result;
+        if (result == null || result.isNull())
+            return new ArrayList<>();
+        if (!result.isArray()) {
+            List<T> list = new ArrayList<>(1);
+            list.add(codec.fromJson(result));
+            return list;
+        }
+        List<Json> rows = result.asJsonList();
+        List<T> list = new ArrayList<>(rows.size());
+        for (Json row : rows)
+            list.add(codec.fromJson(row));
+        return list;
+    }
+
+    /**
+     * Map rows straight from a frame, without building a tree.
+     *
+     * @param <T>    Mapped type.
+     * @param codec  Codec for rows.
+     * @param reader Reader positioned at a result.
+     *
+     * @return The mapped rows.
+     */
+    static <T> List<T> readList(Codec<T> codec, JsonReader reader) {
+        List<T> list = new ArrayList<>();
+        if (reader.peek() == JsonReader.Token.BEGIN_ARRAY) {
+            reader.beginArray();
+            while (reader.hasNext())
+                list.add(codec.read(reader));
+            reader.endArray();
+        } else if (reader.peek() == JsonReader.Token.NULL) {
+            reader.nextNull();
+        } else {
+            list.add(codec.read(reader));
+        }
+        return list;
+    }
 }
@@ -0,0 +1,23 @@
+package net.buj.surreal;
+
+import mjson.Json;
+
+/**
+ * Handler for rows of a streamed query.
+ * <p>
+ * See {@link Driver#query(Query, RowHandler, EventCallback)}.
+ */
+public interface RowHandler {
+    /**
+     * Process a row.
+     * <p>
+     * Called on the connection thread, in order, as rows are decoded.
+     *
+     * @param statement Index of the statement that produced the row.
+     * @param row       The row.
+     *
+     * @throws Exception If the row can't be processed. Decoding stops and the
+     *                   query callback fails.
+     */
+    void row(int statement, Json row) throws Exception;
+}
@@ -1,125 +1,439 @@
 package net.buj.surreal;
 
-import java.net.URI;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-
-import org.java_websocket.client.WebSocketClient;
-import org.java_websocket.handshake.ServerHandshake;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import mjson.Json;
 
-class RpcClient extends WebSocketClient {
-    private List<EventCallback<Json>> callbacks = new ArrayList<>();
+/**
+ * A JSON-RPC connection to SurrealDB over a {@link Transport}.
+ */
+class RpcClient implements Transport.Listener {
+    /**
+     * A request waiting for a response.
+     */
+    static final class Pending {
+        final String method;
+        final Object[] params;
+        final long timeoutNanos;
+        final boolean replayable;
+        final String tag;
+        final EventCallback<Json> callback;
+        volatile TimerWheel.Timeout timeout;
+        /**
+         * When the request was sent, only set while metrics are enabled.
+         */
+        long started;
+
+        Pending(String method, Object[] params, long timeoutNanos, boolean replayable, String tag,
+                EventCallback<Json> callback) {
+            this.method = method;
+            this.params = params;
+            this.timeoutNanos = timeoutNanos;
+            this.replayable = replayable;
+            this.tag = tag;
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * Pending requests by their JSON-RPC ID.
+     * <p>
+     * Whoever removes an entry first (response, error, timeout or shutdown)
+     * owns the callback, so each callback is completed exactly once.
+     */
+    private final Map<Integer, Pending> callbacks = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicBoolean lost = new AtomicBoolean();
     private final Driver driver;
+    private final SurrealURL url;
+    private final SurrealURL.Protocol protocol;
+    private final Transport transport;
+    private volatile Exception lastError;
+
+    /**
+     * Get the amount of requests waiting for a response.
+     *
+     * @return Amount of requests in flight.
+     */
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    private Pending take(int id) {
+        Pending pending = callbacks.remove(id);
+        if (pending != null) {
+            inFlight.decrementAndGet();
+            if (pending.timeout != null)
+                pending.timeout.cancel();
+        }
+        return pending;
+    }
+
+    /**
+     * Take a request that got a response, recording its latency.
+     *
+     * @param id JSON-RPC ID.
+     *
+     * @return The request, or {@code null} if it already completed.
+     */
+    private Pending respond(int id) {
+        Pending pending = take(id);
+        Metrics metrics = driver.metrics;
+        if (pending != null && metrics != null && pending.started != 0)
+            metrics.response(pending.method, pending.tag, System.nanoTime() - pending.started);
+        return pending;
+    }
+
+    private boolean take(int id, Pending pending) {
+        if (!callbacks.remove(id, pending))
+            return false;
+        inFlight.decrementAndGet();
+        if (pending.timeout != null)
+            pending.timeout.cancel();
+        return true;
+    }
 
     public void request(String method, EventCallback<Json> callback, Object... params) {
-        int i = 0;
-        for (; i < callbacks.size(); i++)
-            if (callbacks.get(i) == null) {
-                callbacks.set(i, callback);
-                break;
+        request(method, 0, false, null, callback, params);
+    }
+
+    /**
+     * Send a request.
+     *
+     * @param method     RPC method.
+     * @param timeout    Timeout in nanoseconds, or {@code 0} to wait forever.
+     * @param replayable Whether the request may be sent again on a new
+     *                   connection if this one drops.
+     * @param tag        Tag to record the latency under, or {@code null}.
+     * @param callback   A callback for the result.
+     * @param params     RPC parameters.
+     */
+    public void request(String method, long timeout, boolean replayable, String tag, EventCallback<Json> callback,
+            Object... params) {
+        // IDs only have to be unique among in-flight requests, so wrapping
+        // around after 2^31 requests is fine.
+        int id = nextId.getAndIncrement() & Integer.MAX_VALUE;
+        Metrics metrics = driver.metrics;
+
+        // Encoded before the request is registered, parameters that can't be
+        // encoded must not leave it behind.
+        byte[] binary = null;
+        JsonWriter writer = null;
+        ByteBuffer text = null;
+        try {
+            if (protocol == SurrealURL.Protocol.CBOR) {
+                binary = Cbor.encodeRequest(id, method, params);
+            } else {
+                writer = JsonWriter.acquire();
+                text = writer.encodeRequest(id, method, params);
             }
-        if (i == callbacks.size())
-            callbacks.add(callback);
-
-        Json payload = Json.object();
-        payload.set("id", i);
-        payload.set("method", method);
-        payload.set("jsonrpc", "2.0");
-        Json payloadParams = Json.array();
-        for (Object param : params) {
-            payloadParams.add(param);
+        } catch (RuntimeException e) {
+            if (writer != null)
+                writer.release();
+            if (metrics != null)
+                metrics.error();
+            callback.fail(new ResponseException(e));
+            return;
         }
-        payload.set("params", payloadParams);
 
-        String stringPayload = payload.toString();
-        if (driver.debug != null)
-            driver.debug.rawMessageSend(stringPayload);
-        send(stringPayload);
+        Pending pending = new Pending(method, params, timeout, replayable, tag, callback);
+        if (metrics != null)
+            pending.started = System.nanoTime();
+        callbacks.put(id, pending);
+        inFlight.incrementAndGet();
+
+        if (timeout > 0)
+            pending.timeout = TimerWheel.shared().schedule(() -> {
+                if (!take(id, pending))
+                    return;
+                Metrics current = driver.metrics;
+                if (current != null)
+                    current.timeout();
+                // Callbacks may block, keep them off the timer thread.
+                TimerWheel.dispatcher().execute(() -> callback.fail(new TimeoutException("Request '" + method
+                        + "' timed out after " + TimeUnit.NANOSECONDS.toMillis(timeout) + "ms")));
+            }, timeout, TimeUnit.NANOSECONDS);
+
+        try {
+            if (binary != null) {
+                if (driver.debug != null)
+                    driver.debug.rawMessageSend(JsonWriter.toString(id, method, params));
+                if (metrics != null)
+                    metrics.frameOut(binary.length);
+                transport.sendBinary(ByteBuffer.wrap(binary));
+            } else {
+                if (driver.debug != null)
+                    driver.debug.rawMessageSend(JsonWriter.toString(text));
+                if (metrics != null)
+                    metrics.frameOut(text.remaining());
+                transport.sendText(text);
+            }
+        } catch (IOException | RuntimeException e) {
+            if (take(id, pending)) {
+                if (metrics != null)
+                    metrics.error();
+                callback.fail(e instanceof IOException ? new ConnectionException(e) : new ResponseException(e));
+            }
+        } finally {
+            if (writer != null)
+                writer.release();
+        }
+    }
+
+    /**
+     * Send a request that was in flight on a previous connection.
+     *
+     * @param pending The request.
+     */
+    void replay(Pending pending) {
+        request(pending.method, pending.timeoutNanos, pending.replayable, pending.tag, pending.callback,
+                pending.params);
     }
 
-    private static Map<String, String> headers = new HashMap<>();
-    static {
-        headers.put("sec-websocket-protocol", "json");
+    /**
+     * Mark this connection as lost.
+     *
+     * @return {@code true} if this is the first call.
+     */
+    boolean markLost() {
+        return lost.compareAndSet(false, true);
     }
 
-    public RpcClient(Driver driver, URI serverUri) {
-        super(serverUri, headers);
+    /**
+     * Remove all requests waiting for a response.
+     *
+     * @return The removed requests.
+     */
+    List<Pending> drain() {
+        List<Pending> drained = new ArrayList<>();
+        Iterator<Integer> ids = callbacks.keySet().iterator();
+        while (ids.hasNext()) {
+            Pending pending = take(ids.next());
+            if (pending != null)
+                drained.add(pending);
+        }
+        return drained;
+    }
 
+    public RpcClient(Driver driver, SurrealURL url, Transport transport) {
         this.driver = driver;
+        this.url = url;
+        this.protocol = url.protocol;
+        this.transport = transport;
+    }
+
+    /**
+     * Open the connection.
+     *
+     * @return A future completed once the connection is open.
+     */
+    CompletableFuture<Void> connect() {
+        return transport.connect(url.rpcUri, protocol == SurrealURL.Protocol.CBOR ? "cbor" : "json", this);
+    }
+
+    /**
+     * Close the connection.
+     *
+     * @return A future completed once the connection is closed.
+     */
+    CompletableFuture<Void> close() {
+        return transport.close();
     }
 
     @Override
-    public void onOpen(ServerHandshake handshakedata) {
+    public void onOpen() {
         if (driver.debug != null)
             driver.debug.rpcOpen();
     }
 
     @Override
-    public void onMessage(String message) {
+    public void onText(String message) {
         if (driver.debug != null)
             driver.debug.rawMessageRecv(message);
+        Metrics metrics = driver.metrics;
+        if (metrics != null)
+            metrics.frameIn(JsonWriter.utf8Length(message));
 
-        Json json = Json.read(message);
-
-        if (!json.has("id")) {
-            json = json.at("result");
+        // Route the frame by ID as soon as it's known, so that results can be
+        // decoded straight into what the caller asked for.
+        JsonReader reader = new JsonReader(message);
+        boolean hasId = false;
+        Pending pending = null;
+        Json result = null;
+        Json error = null;
+        LiveResponse live = null;
 
-            LiveResponse response = new LiveResponse(json.at("id").asString(), driver, json.at("action").asString(),
-                    json.at("result"));
-
-            synchronized (driver.sLiveListeners) {
-                EventCallback<LiveResponse> handle = driver.sLiveListeners.get(response.id);
-                if (handle != null) {
-                    try {
-                        handle.run(response);
-                    } catch (Exception e) {
-                        handle.fail(e);
-                    }
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "id":
+                        if (reader.peek() == JsonReader.Token.NULL) {
+                            reader.nextNull();
+                            break;
+                        }
+                        hasId = true;
+                        pending = respond(reader.nextInt());
+                        break;
+                    case "result":
+                        if (pending != null && pending.callback instanceof StreamingCallback) {
+                            try {
+                                ((StreamingCallback) pending.callback).decode(reader);
+                            } catch (Exception t) {
+                                pending.callback.fail(t);
+                            }
+                            return;
+                        }
+                        if (hasId && pending == null)
+                            reader.skipValue();
+                        else
+                            result = reader.readJson();
+                        break;
+                    case "error":
+                        error = reader.readJson();
+                        break;
+                    default:
+                        reader.skipValue();
                 }
             }
 
-            synchronized (driver.liveListeners) {
-                for (EventCallback<LiveResponse> handle : driver.liveListeners) {
-                    try {
-                        handle.run(response);
-                    } catch (Exception e) {
-                        handle.fail(e);
-                    }
-                }
-            }
+            if (!hasId && result != null)
+                live = liveResponse(result);
+        } catch (RuntimeException e) {
+            malformed(pending, e);
+            return;
+        }
 
+        if (!hasId) {
+            if (live != null)
+                dispatchLive(live);
             return;
         }
 
-        int id = json.at("id").asInteger();
-        EventCallback<Json> callback = callbacks.get(id);
-        callbacks.set(id, null);
+        complete(pending, result, error);
+    }
+
+    @Override
+    public void onBinary(ByteBuffer message) {
+        Metrics metrics = driver.metrics;
+        if (metrics != null)
+            metrics.frameIn(message.remaining());
 
-        if (json.has("error")) {
-            callback.fail(new ResponseException(json.at("error").at("message").asString()));
+        Json json;
+        try {
+            json = Cbor.decode(message);
+        } catch (RuntimeException e) {
+            malformed(null, e);
+            return;
+        }
+
+        if (driver.debug != null)
+            driver.debug.rawMessageRecv(json.toString());
+
+        Pending pending = null;
+        LiveResponse live = null;
+        try {
+            Json id = json.at("id");
+            if (id != null && !id.isNull())
+                pending = respond(id.asInteger());
+            else if (json.at("result") != null)
+                live = liveResponse(json.at("result"));
+            else
+                return;
+        } catch (RuntimeException e) {
+            malformed(pending, e);
+            return;
+        }
+
+        if (live != null)
+            dispatchLive(live);
+        else
+            complete(pending, json.at("result"), json.at("error"));
+    }
+
+    /**
+     * Give up on the connection after receiving a frame that can't be
+     * decoded.
+     * <p>
+     * The frame may have been the response to any request, so the connection
+     * is closed, which fails or replays every request still waiting for a
+     * response.
+     *
+     * @param pending The request the frame responded to, if known.
+     * @param error   The decoding error.
+     */
+    private void malformed(Pending pending, RuntimeException error) {
+        if (pending != null) {
+            Metrics metrics = driver.metrics;
+            if (metrics != null)
+                metrics.error();
+            pending.callback.fail(new ResponseException(error));
+        }
+        onError(error);
+        transport.close();
+    }
+
+    private void complete(Pending pending, Json result, Json error) {
+        if (pending == null)
+            return;
+
+        EventCallback<Json> callback = pending.callback;
+
+        if (error != null) {
+            Metrics metrics = driver.metrics;
+            if (metrics != null)
+                metrics.error();
+            callback.fail(new ResponseException(error.at("message").asString()));
         } else {
             try {
-                callback.run(json.at("result"));
+                callback.run(result);
             } catch (Exception t) {
                 callback.fail(t);
             }
         }
     }
 
+    private LiveResponse liveResponse(Json json) {
+        return new LiveResponse(driver.liveIdOf(json.at("id").asString()), driver, json.at("action").asString(),
+                json.at("result"));
+    }
+
+    private void dispatchLive(LiveResponse response) {
+        Metrics metrics = driver.metrics;
+        if (metrics != null)
+            metrics.liveEvent();
+        driver.dispatchLive(response);
+    }
+
     @Override
-    public void onClose(int code, String reason, boolean remote) {
+    public void onClose(int code, String reason) {
+        if (driver.debug != null)
+            driver.debug.rpcClose();
+
+        Exception cause = lastError;
+        driver.connectionLost(this, cause != null ? new ConnectionException(cause)
+                : new ConnectionException("Connection closed (" + code + "): " + reason));
     }
 
     @Override
     public void onError(Exception ex) {
-        for (EventCallback<Json> callback : callbacks) {
-            if (callback != null)
-                callback.fail(new ResponseException(ex));
-        }
-        callbacks.clear();
+        if (driver.debug != null)
+            driver.debug.rpcError(ex);
+
+        // Fatal errors are always followed by onClose, which fails or replays
+        // pending requests.
+        lastError = ex;
     }
 }
@@ -0,0 +1,108 @@
+package net.buj.surreal;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Runs tasks one at a time, in submission order, on another executor.
+ * <p>
+ * Only one task of a serial executor occupies a thread of the underlying
+ * executor at a time, so many serial executors can share one pool without
+ * any of them running tasks out of order.
+ */
+final class SerialExecutor implements Executor {
+    private final Executor executor;
+    private final Consumer<SerialExecutor> idle;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    SerialExecutor(Executor executor) {
+        this(executor, null);
+    }
+
+    /**
+     * Construct {@link SerialExecutor}.
+     *
+     * @param executor Executor to run tasks on.
+     * @param idle     Called with this executor whenever it has run all of
+     *                 its tasks, or {@code null}.
+     */
+    SerialExecutor(Executor executor, Consumer<SerialExecutor> idle) {
+        this.executor = executor;
+        this.idle = idle;
+    }
+
+    /**
+     * Run a task after all previously submitted ones.
+     * <p>
+     * If the underlying executor rejects the drain, tasks are run on the
+     * calling thread instead.
+     *
+     * @param task The task.
+     */
+    @Override
+    public void execute(Runnable task) {
+        add(task);
+        schedule();
+    }
+
+    /**
+     * Queue a task without running it yet, see
+     * {@link SerialExecutor#schedule()}.
+     *
+     * @param task The task.
+     */
+    void add(Runnable task) {
+        tasks.add(task);
+    }
+
+    /**
+     * Check whether there are no tasks left, running or queued.
+     *
+     * @return {@code true} if idle.
+     */
+    boolean isIdle() {
+        return !running.get() && tasks.isEmpty();
+    }
+
+    /**
+     * Run the queued tasks, unless they are already being run.
+     */
+    void schedule() {
+        if (!running.compareAndSet(false, true))
+            return;
+        try {
+            executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            drain();
+        }
+    }
+
+    private void drain() {
+        try {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    // A failing task must not stall the ones after it.
+                    Thread thread = Thread.currentThread();
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+                }
+            }
+        } finally {
+            running.set(false);
+        }
+
+        // Tasks added after the queue was drained but before the flag was
+        // cleared didn't schedule a drain.
+        if (!tasks.isEmpty())
+            schedule();
+        else if (idle != null)
+            idle.accept(this);
+    }
+}
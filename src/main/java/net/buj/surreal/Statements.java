@@ -0,0 +1,330 @@
+package net.buj.surreal;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Lexical analysis of SurrealQL text.
+ * <p>
+ * Only understands as much of the language as needed to split a query into
+ * top-level statements and to find parameter references: strings, quoted
+ * identifiers, comments and nesting.
+ */
+final class Statements {
+    private static final Set<String> UNBATCHABLE = new HashSet<>(Arrays.asList("BEGIN", "COMMIT", "CANCEL", "USE"));
+
+    /**
+     * Amount of top-level statements.
+     */
+    final int count;
+    /**
+     * Whether the query can be combined with others, i.e. it does not control
+     * transactions or switch namespaces.
+     */
+    final boolean batchable;
+    /**
+     * Whether the last statement ends with a {@code ;}.
+     */
+    final boolean terminated;
+    /**
+     * Offset just past the code of the last statement, before its {@code ;}
+     * and any comments after it.
+     */
+    final int end;
+    /**
+     * Names of variables declared with {@code LET}.
+     */
+    final Set<String> variables;
+    /**
+     * Whether the last statement has a top-level {@code ORDER BY}.
+     */
+    final boolean ordered;
+
+    private Statements(int count, boolean batchable, boolean terminated, int end, Set<String> variables,
+            boolean ordered) {
+        this.count = count;
+        this.batchable = batchable;
+        this.terminated = terminated;
+        this.end = end;
+        this.variables = variables;
+        this.ordered = ordered;
+    }
+
+    static Statements analyze(String sql) {
+        Analyzer analyzer = new Analyzer();
+        scan(sql, analyzer);
+        boolean terminated = !analyzer.content;
+        analyzer.endStatement();
+        return new Statements(analyzer.count, analyzer.batchable, terminated, analyzer.end, analyzer.variables,
+                analyzer.ordered);
+    }
+
+    /**
+     * Prefix references to some parameters.
+     * <p>
+     * Other parameters, such as built-in ones or ones defined with
+     * {@code DEFINE PARAM}, are left alone.
+     *
+     * @param sql    SurrealQL text.
+     * @param prefix Prefix for parameter names.
+     * @param names  Names of parameters to prefix.
+     *
+     * @return Rewritten text.
+     */
+    static String prefixParams(String sql, String prefix, Set<String> names) {
+        StringBuilder out = new StringBuilder(sql.length() + 32);
+        scan(sql, new Visitor() {
+            @Override
+            public void text(String sql, int start, int end) {
+                out.append(sql, start, end);
+            }
+
+            @Override
+            public void comment(String sql, int start, int end) {
+                out.append(sql, start, end);
+            }
+
+            @Override
+            public void param(String sql, int start, int end) {
+                out.append('$');
+                if (names.contains(sql.substring(start, end)))
+                    out.append(prefix);
+                out.append(sql, start, end);
+            }
+        });
+        return out.toString();
+    }
+
+    /**
+     * Quote an identifier, such as a table name.
+     *
+     * @param name The identifier.
+     *
+     * @return The identifier in backticks.
+     */
+    static String identifier(String name) {
+        return "`" + name.replace("\\", "\\\\").replace("`", "\\`") + "`";
+    }
+
+    /**
+     * Normalize SurrealQL text, so that queries that only differ in
+     * formatting compare equal.
+     * <p>
+     * Collapses whitespace and drops comments outside of strings and quoted
+     * identifiers.
+     *
+     * @param sql SurrealQL text.
+     *
+     * @return Normalized text.
+     */
+    static String normalize(String sql) {
+        StringBuilder out = new StringBuilder(sql.length());
+        boolean space = false;
+        int length = sql.length();
+        int i = 0;
+
+        while (i < length) {
+            char c = sql.charAt(i);
+            char next = i + 1 < length ? sql.charAt(i + 1) : '\0';
+            int start = i;
+
+            if (c == '#' || c == '-' && next == '-' || c == '/' && next == '/') {
+                while (i < length && sql.charAt(i) != '\n')
+                    i++;
+                space = true;
+                continue;
+            }
+            if (c == '/' && next == '*') {
+                int close = sql.indexOf("*/", i + 2);
+                i = close == -1 ? length : close + 2;
+                space = true;
+                continue;
+            }
+            if (Character.isWhitespace(c)) {
+                i++;
+                space = true;
+                continue;
+            }
+
+            if (space && out.length() > 0)
+                out.append(' ');
+            space = false;
+
+            if (c == '\'' || c == '"' || c == '`')
+                i = skipQuoted(sql, i, c);
+            else if (c == '\u27e8')
+                i = skipQuoted(sql, i, '\u27e9');
+            else
+                i++;
+            out.append(sql, start, i);
+        }
+        return out.toString();
+    }
+
+    private interface Visitor {
+        /**
+         * Called for every piece of text that isn't a parameter reference.
+         */
+        void text(String sql, int start, int end);
+
+        /**
+         * Called for the name of a parameter reference, without {@code $}.
+         */
+        void param(String sql, int start, int end);
+
+        /**
+         * Called for every comment.
+         */
+        default void comment(String sql, int start, int end) {
+        }
+
+        /**
+         * Called for a top-level {@code ;}, after its text.
+         */
+        default void separator() {
+        }
+
+        /**
+         * Called for every word of code outside comments, with the nesting
+         * depth it is at.
+         */
+        default void word(String word, int depth) {
+        }
+    }
+
+    private static final class Analyzer implements Visitor {
+        int count;
+        boolean batchable = true;
+        int end;
+        final Set<String> variables = new HashSet<>();
+        boolean ordered;
+        private boolean content;
+        private boolean first = true;
+        private boolean let;
+        private String previous;
+        private boolean order;
+
+        @Override
+        public void text(String sql, int start, int end) {
+            for (int i = start; i < end; i++) {
+                if (!Character.isWhitespace(sql.charAt(i)) && sql.charAt(i) != ';') {
+                    content = true;
+                    this.end = i + 1;
+                }
+            }
+        }
+
+        @Override
+        public void param(String sql, int start, int end) {
+            content = true;
+            this.end = end;
+            if (let)
+                variables.add(sql.substring(start, end));
+            let = false;
+        }
+
+        @Override
+        public void word(String word, int depth) {
+            if (first && UNBATCHABLE.contains(word.toUpperCase(Locale.ROOT)))
+                batchable = false;
+            let = first && word.equalsIgnoreCase("LET");
+            if (depth == 0 && word.equalsIgnoreCase("BY") && "ORDER".equalsIgnoreCase(previous))
+                order = true;
+            previous = depth == 0 ? word : null;
+            first = false;
+        }
+
+        @Override
+        public void separator() {
+            endStatement();
+        }
+
+        void endStatement() {
+            if (content) {
+                count++;
+                ordered = order;
+            }
+            content = false;
+            first = true;
+            let = false;
+            previous = null;
+            order = false;
+        }
+    }
+
+    private static boolean isIdentifier(char c) {
+        return c == '_' || c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9';
+    }
+
+    private static void scan(String sql, Visitor visitor) {
+        int length = sql.length();
+        int depth = 0;
+        int flushed = 0;
+        int i = 0;
+
+        while (i < length) {
+            char c = sql.charAt(i);
+            char next = i + 1 < length ? sql.charAt(i + 1) : '\0';
+
+            if (c == '\'' || c == '"' || c == '`') {
+                i = skipQuoted(sql, i, c);
+            } else if (c == '\u27e8') {
+                i = skipQuoted(sql, i, '\u27e9');
+            } else if (c == '#' || c == '-' && next == '-' || c == '/' && next == '/') {
+                visitor.text(sql, flushed, i);
+                int start = i;
+                while (i < length && sql.charAt(i) != '\n')
+                    i++;
+                visitor.comment(sql, start, i);
+                flushed = i;
+            } else if (c == '/' && next == '*') {
+                visitor.text(sql, flushed, i);
+                int start = i;
+                int close = sql.indexOf("*/", i + 2);
+                i = close == -1 ? length : close + 2;
+                visitor.comment(sql, start, i);
+                flushed = i;
+            } else if (c == '$' && i + 1 < length && isIdentifier(next)) {
+                visitor.text(sql, flushed, i);
+                int start = ++i;
+                while (i < length && isIdentifier(sql.charAt(i)))
+                    i++;
+                visitor.param(sql, start, i);
+                flushed = i;
+            } else if (c == '{' || c == '(' || c == '[') {
+                depth++;
+                i++;
+            } else if (c == '}' || c == ')' || c == ']') {
+                depth = Math.max(depth - 1, 0);
+                i++;
+            } else if (c == ';' && depth == 0) {
+                visitor.text(sql, flushed, ++i);
+                flushed = i;
+                visitor.separator();
+            } else if (isIdentifier(c) && (i == 0 || !isIdentifier(sql.charAt(i - 1)))) {
+                int start = i;
+                while (i < length && isIdentifier(sql.charAt(i)))
+                    i++;
+                visitor.word(sql.substring(start, i), depth);
+            } else {
+                i++;
+            }
+        }
+
+        visitor.text(sql, flushed, length);
+    }
+
+    private static int skipQuoted(String sql, int start, char close) {
+        int i = start + 1;
+        while (i < sql.length()) {
+            char c = sql.charAt(i++);
+            if (c == '\\')
+                i++;
+            else if (c == close)
+                return i;
+        }
+        return sql.length();
+    }
+}
@@ -0,0 +1,25 @@
+package net.buj.surreal;
+
+import mjson.Json;
+
+/**
+ * A request callback that decodes its result straight from the frame.
+ * <p>
+ * {@link RpcClient} hands it a reader positioned at the {@code result}
+ * value instead of a tree. {@link EventCallback#run(Object)} is still used
+ * when the result has already been read into a tree, for example when
+ * {@code result} came before {@code id} in the frame.
+ */
+abstract class StreamingCallback implements EventCallback<Json> {
+    /**
+     * Decode the result.
+     * <p>
+     * Must consume exactly one value from the reader.
+     *
+     * @param reader Reader positioned at the result.
+     *
+     * @throws Exception If decoding or a handler fails. The rest of the frame
+     *                   is discarded.
+     */
+    abstract void decode(JsonReader reader) throws Exception;
+}
@@ -2,6 +2,10 @@ package net.buj.surreal;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * URL parser for SurrealRPC URLs.
@@ -9,8 +13,37 @@ import java.net.URISyntaxException;
  * A valid SurrealRPC URL must have a {@code ws} or {@code wss} scheme,
  * end with 2 segments designated for namespace and path, and contain
  * authorization information.
+ * <p>
+ * Options can be passed in the query part of the URL:
+ * <ul>
+ * <li>{@code protocol} - {@code json} (default) or {@code cbor}. See
+ * {@link Protocol}.</li>
+ * <li>{@code compression} - {@code none} (default) or {@code deflate} to
+ * offer the permessage-deflate extension. Only supported by
+ * {@link WebSocketTransport}.</li>
+ * <li>{@code compressionLevel} - deflate level from {@code 0} to {@code 9},
+ * {@code 6} by default.</li>
+ * <li>{@code compressionThreshold} - smallest message in bytes that is
+ * compressed, {@code 1024} by default.</li>
+ * </ul>
  */
 public class SurrealURL {
+    /**
+     * Encoding of RPC messages.
+     */
+    public enum Protocol {
+        /**
+         * JSON text frames.
+         */
+        JSON,
+        /**
+         * CBOR binary frames.
+         * <p>
+         * Smaller than JSON and faster to decode.
+         */
+        CBOR,
+    }
+
     /**
      * An authorization scheme.
      * <p>
@@ -92,6 +125,37 @@ public class SurrealURL {
         else
             throw new InvalidURLException("Only root and token schemes are currently supported");
 
+        Map<String, String> options = new HashMap<>();
+        if (uri.getRawQuery() != null && !uri.getRawQuery().isEmpty()) {
+            for (String option : uri.getRawQuery().split("&")) {
+                int eq = option.indexOf('=');
+                String key = URLDecoder.decode(eq == -1 ? option : option.substring(0, eq), StandardCharsets.UTF_8);
+                String value = eq == -1 ? "" : URLDecoder.decode(option.substring(eq + 1), StandardCharsets.UTF_8);
+                options.put(key, value);
+            }
+        }
+
+        String protocol = options.remove("protocol");
+        if (protocol == null || protocol.equalsIgnoreCase("json"))
+            this.protocol = Protocol.JSON;
+        else if (protocol.equalsIgnoreCase("cbor"))
+            this.protocol = Protocol.CBOR;
+        else
+            throw new InvalidURLException("Unknown protocol '" + protocol + "'");
+
+        String compression = options.remove("compression");
+        if (compression == null || compression.equalsIgnoreCase("none"))
+            this.compression = false;
+        else if (compression.equalsIgnoreCase("deflate"))
+            this.compression = true;
+        else
+            throw new InvalidURLException("Unknown compression '" + compression + "'");
+        compressionLevel = intOption(options, "compressionLevel", 6, 0, 9);
+        compressionThreshold = intOption(options, "compressionThreshold", 1024, 0, Integer.MAX_VALUE);
+
+        if (!options.isEmpty())
+            throw new InvalidURLException("Unknown options " + options.keySet());
+
         String loginPath;
         String rpcPath;
         {
@@ -114,6 +178,21 @@ public class SurrealURL {
         }
     }
 
+    private static int intOption(Map<String, String> options, String name, int defaultValue, int min, int max)
+            throws InvalidURLException {
+        String value = options.remove(name);
+        if (value == null)
+            return defaultValue;
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed >= min && parsed <= max)
+                return parsed;
+        } catch (NumberFormatException e) {
+            // Reported below.
+        }
+        throw new InvalidURLException("Option '" + name + "' must be a number from " + min + " to " + max);
+    }
+
     final URI loginUri;
     final URI rpcUri;
 
@@ -129,4 +208,20 @@ public class SurrealURL {
      * Authorization scheme for RPC.
      */
     public final Authorization authorization;
+    /**
+     * Encoding of RPC messages.
+     */
+    public final Protocol protocol;
+    /**
+     * Whether to offer the permessage-deflate extension.
+     */
+    public final boolean compression;
+    /**
+     * Deflate level of compressed messages.
+     */
+    public final int compressionLevel;
+    /**
+     * Smallest message in bytes that is compressed.
+     */
+    public final int compressionThreshold;
 }
@@ -0,0 +1,187 @@
+package net.buj.surreal;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashed timer wheel.
+ * <p>
+ * All timeouts of all drivers share one wheel and one daemon thread, so
+ * scheduling and cancelling a timeout is O(1) and costs no extra threads no
+ * matter how many requests are in flight. Expiry precision is one tick.
+ * <p>
+ * Tasks run on the wheel thread and must be short. Slower work, such as user
+ * callbacks, is handed to {@link TimerWheel#dispatcher()}.
+ */
+final class TimerWheel {
+    private static final class Holder {
+        static final TimerWheel SHARED = new TimerWheel(10, TimeUnit.MILLISECONDS, 512);
+    }
+
+    /**
+     * Get the wheel shared by all drivers.
+     *
+     * @return The shared wheel.
+     */
+    static TimerWheel shared() {
+        return Holder.SHARED;
+    }
+
+    private static final class Dispatcher {
+        static final Executor EXECUTOR = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "SurrealRPC-dispatch");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Get the executor for work triggered by a timeout that isn't short.
+     *
+     * @return The shared executor.
+     */
+    static Executor dispatcher() {
+        return Dispatcher.EXECUTOR;
+    }
+
+    /**
+     * A scheduled task.
+     */
+    static final class Timeout {
+        private static final int WAITING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final Runnable task;
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+        private long rounds;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancel the task.
+         *
+         * @return {@code true} if the task will not run, {@code false} if it
+         *         has already run.
+         */
+        boolean cancel() {
+            return state.compareAndSet(WAITING, CANCELLED) || state.get() == CANCELLED;
+        }
+
+        private void expire() {
+            if (state.compareAndSet(WAITING, EXPIRED)) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    // Nothing sensible to report it to, don't kill the wheel.
+                }
+            }
+        }
+    }
+
+    private final long tickNanos;
+    private final Timeout[] buckets;
+    private final int mask;
+    private final Queue<Timeout> incoming = new ConcurrentLinkedQueue<>();
+    private final long startTime = System.nanoTime();
+    private long tick;
+
+    TimerWheel(long tickDuration, TimeUnit unit, int size) {
+        if (Integer.bitCount(size) != 1)
+            throw new IllegalArgumentException("Wheel size must be a power of two");
+
+        tickNanos = unit.toNanos(tickDuration);
+        buckets = new Timeout[size];
+        mask = size - 1;
+
+        Thread worker = new Thread(this::run, "SurrealRPC-timer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Schedule a task.
+     *
+     * @param task  The task to run.
+     * @param delay Delay before running the task.
+     * @param unit  Unit of {@code delay}.
+     *
+     * @return A handle that can be used for cancelling the task.
+     */
+    Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(task, System.nanoTime() + unit.toNanos(delay));
+        incoming.add(timeout);
+        return timeout;
+    }
+
+    private void run() {
+        while (true) {
+            long deadline = startTime + (tick + 1) * tickNanos;
+            long now;
+            while ((now = System.nanoTime()) < deadline) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(deadline - now);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+
+            transferIncoming();
+            expireBucket((int) (tick & mask));
+            tick++;
+        }
+    }
+
+    private void transferIncoming() {
+        Timeout timeout;
+        while ((timeout = incoming.poll()) != null) {
+            if (timeout.state.get() != Timeout.WAITING)
+                continue;
+
+            long ticks = Math.max((timeout.deadline - startTime + tickNanos - 1) / tickNanos, tick);
+            timeout.rounds = (ticks - tick) / buckets.length;
+
+            int index = (int) (ticks & mask);
+            timeout.next = buckets[index];
+            buckets[index] = timeout;
+        }
+    }
+
+    private void expireBucket(int index) {
+        Timeout previous = null;
+        Timeout timeout = buckets[index];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            boolean remove;
+            if (timeout.state.get() != Timeout.WAITING) {
+                remove = true;
+            } else if (timeout.rounds <= 0) {
+                timeout.expire();
+                remove = true;
+            } else {
+                timeout.rounds--;
+                remove = false;
+            }
+
+            if (remove) {
+                if (previous == null)
+                    buckets[index] = next;
+                else
+                    previous.next = next;
+                timeout.next = null;
+            } else {
+                previous = timeout;
+            }
+            timeout = next;
+        }
+    }
+}
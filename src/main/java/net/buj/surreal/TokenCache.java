@@ -0,0 +1,123 @@
+package net.buj.surreal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import mjson.Json;
+import net.buj.surreal.SurrealURL.RootAuthorization;
+
+/**
+ * Reuses tokens of root sign-ins until they expire.
+ * <p>
+ * Drivers that share a cache and sign in with the same credentials share one
+ * token, and concurrent sign-ins share one request. Tokens are reused until
+ * 30 seconds before the expiry in their {@code exp} claim; tokens without
+ * one are never reused. Failed sign-ins are not cached, and neither are
+ * tokens once SurrealDB rejects them.
+ * <p>
+ * See {@link Driver#connectAsync(SurrealURL, TokenCache)}.
+ */
+public final class TokenCache {
+    private static final long MARGIN = TimeUnit.SECONDS.toMillis(30);
+
+    private static final class Entry {
+        final CompletableFuture<String> token = new CompletableFuture<>();
+        /**
+         * Expiry in epoch milliseconds, unknown until signed in.
+         */
+        volatile long expires = Long.MAX_VALUE;
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Create an empty cache.
+     */
+    public TokenCache() {
+    }
+
+    /**
+     * Get a token, signing in if there is no valid one.
+     *
+     * @param url    URL with root authorization.
+     * @param signIn Starts a sign-in.
+     *
+     * @return A future for the token.
+     */
+    CompletableFuture<String> get(SurrealURL url, Supplier<CompletableFuture<String>> signIn) {
+        String key = key(url);
+        while (true) {
+            Entry cached = entries.get(key);
+            if (cached != null && cached.expires - MARGIN > System.currentTimeMillis())
+                return cached.token;
+
+            Entry entry = new Entry();
+            if (cached == null ? entries.putIfAbsent(key, entry) != null : !entries.replace(key, cached, entry))
+                continue;
+
+            signIn.get().whenComplete((token, error) -> {
+                if (error != null) {
+                    entries.remove(key, entry);
+                    entry.token.completeExceptionally(error);
+                    return;
+                }
+                entry.expires = expiry(token);
+                if (entry.expires == 0)
+                    entries.remove(key, entry);
+                entry.token.complete(token);
+            });
+            return entry.token;
+        }
+    }
+
+    /**
+     * Forget a token that SurrealDB rejected, for example because it was
+     * revoked. Does nothing if the cache has another token by now.
+     *
+     * @param url   URL with root authorization.
+     * @param token The rejected token.
+     */
+    void invalidate(SurrealURL url, String token) {
+        String key = key(url);
+        Entry entry = entries.get(key);
+        if (entry != null && token.equals(entry.token.getNow(null)))
+            entries.remove(key, entry);
+    }
+
+    private static String key(SurrealURL url) {
+        RootAuthorization root = (RootAuthorization) url.authorization;
+        return url.loginUri + "\n" + root.username + "\n" + root.password;
+    }
+
+    /**
+     * Read the expiry of a JWT.
+     *
+     * @param token The token.
+     *
+     * @return Expiry in epoch milliseconds, or {@code 0} if unknown.
+     */
+    static long expiry(String token) {
+        String[] parts = token.split("\\.");
+        if (parts.length != 3)
+            return 0;
+        try {
+            Json claims = Json.read(new String(Base64.getUrlDecoder().decode(parts[1]), StandardCharsets.UTF_8));
+            Json exp = claims.isObject() ? claims.at("exp") : null;
+            return exp != null && exp.isNumber() ? exp.asLong() * 1000 : 0;
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Forget all tokens.
+     */
+    public void clear() {
+        entries.clear();
+    }
+}
@@ -0,0 +1,100 @@
+package net.buj.surreal;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A message-based connection to SurrealDB, such as a WebSocket.
+ * <p>
+ * Every connection of a {@link Driver} gets a new transport, see
+ * {@link Driver#Driver(SurrealURL, java.util.function.Supplier)}. A
+ * transport is connected at most once.
+ * <p>
+ * Implementations: {@link WebSocketTransport} (the default),
+ * {@link HttpClientTransport} and {@link LoopbackTransport}.
+ */
+public interface Transport {
+    /**
+     * Receives events of a transport.
+     * <p>
+     * Events are delivered one at a time, in order.
+     */
+    interface Listener {
+        /**
+         * Called once the connection is open.
+         */
+        void onOpen();
+
+        /**
+         * Called when a whole text message was received.
+         *
+         * @param message The message.
+         */
+        void onText(String message);
+
+        /**
+         * Called when a whole binary message was received.
+         *
+         * @param message The message, only valid until this method returns.
+         */
+        void onBinary(ByteBuffer message);
+
+        /**
+         * Called once the connection is closed, for any reason. Called after
+         * {@link Listener#onError(Exception)} if the error closed the
+         * connection.
+         *
+         * @param code   WebSocket close code.
+         * @param reason Close reason, may be empty.
+         */
+        void onClose(int code, String reason);
+
+        /**
+         * Called when an error happens.
+         *
+         * @param error The error.
+         */
+        void onError(Exception error);
+    }
+
+    /**
+     * Open the connection.
+     *
+     * @param uri         RPC endpoint.
+     * @param subprotocol WebSocket subprotocol to request, such as
+     *                    {@code json}.
+     * @param listener    Receives events of the connection.
+     *
+     * @return A future completed once the connection is open, or failed if it
+     *         couldn't be opened.
+     */
+    CompletableFuture<Void> connect(URI uri, String subprotocol, Listener listener);
+
+    /**
+     * Send a text message.
+     *
+     * @param message UTF-8 encoded message. Only valid until this method
+     *                returns.
+     *
+     * @throws IOException If the connection isn't open.
+     */
+    void sendText(ByteBuffer message) throws IOException;
+
+    /**
+     * Send a binary message.
+     *
+     * @param message The message. Only valid until this method returns.
+     *
+     * @throws IOException If the connection isn't open.
+     */
+    void sendBinary(ByteBuffer message) throws IOException;
+
+    /**
+     * Close the connection.
+     *
+     * @return A future completed once the connection is closed.
+     */
+    CompletableFuture<Void> close();
+}
@@ -0,0 +1,154 @@
+package net.buj.surreal;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
+import org.java_websocket.framing.TextFrame;
+import org.java_websocket.handshake.ServerHandshake;
+
+/**
+ * Transport on top of Java-WebSocket.
+ * <p>
+ * Every connection has its own thread reading from a blocking socket. This
+ * is the default transport.
+ * <p>
+ * Supports the permessage-deflate extension, see {@link SurrealURL}.
+ */
+public class WebSocketTransport implements Transport {
+    private final boolean compression;
+    private final int compressionLevel;
+    private final int compressionThreshold;
+    private final CompletableFuture<Void> opened = new CompletableFuture<>();
+    private final CompletableFuture<Void> closed = new CompletableFuture<>();
+    private volatile Client client;
+
+    private final class Client extends WebSocketClient {
+        private final Listener listener;
+
+        Client(URI uri, Draft_6455 draft, Map<String, String> headers, Listener listener) {
+            super(uri, draft, headers);
+            this.listener = listener;
+        }
+
+        @Override
+        public void onOpen(ServerHandshake handshakedata) {
+            listener.onOpen();
+            opened.complete(null);
+        }
+
+        @Override
+        public void onMessage(String message) {
+            listener.onText(message);
+        }
+
+        @Override
+        public void onMessage(ByteBuffer message) {
+            listener.onBinary(message);
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+            listener.onClose(code, reason);
+            opened.completeExceptionally(new IOException("Connection closed (" + code + "): " + reason));
+            closed.complete(null);
+        }
+
+        @Override
+        public void onError(Exception ex) {
+            listener.onError(ex);
+        }
+    }
+
+    /**
+     * Create a transport without compression.
+     */
+    public WebSocketTransport() {
+        compression = false;
+        compressionLevel = -1;
+        compressionThreshold = 0;
+    }
+
+    /**
+     * Create a transport configured by the options of a URL.
+     * <p>
+     * Offers permessage-deflate if the URL enables compression. Frames are
+     * only compressed if the server accepts it.
+     *
+     * @param url SurrealRPC URL.
+     */
+    public WebSocketTransport(SurrealURL url) {
+        compression = url.compression;
+        compressionLevel = url.compressionLevel;
+        compressionThreshold = url.compressionThreshold;
+    }
+
+    @Override
+    public CompletableFuture<Void> connect(URI uri, String subprotocol, Listener listener) {
+        if (client != null)
+            throw new IllegalStateException("Transport was already connected");
+
+        Map<String, String> headers = new HashMap<>();
+        headers.put("sec-websocket-protocol", subprotocol);
+        Draft_6455 draft;
+        if (compression) {
+            PerMessageDeflateExtension deflate = new PerMessageDeflateExtension(compressionLevel);
+            deflate.setThreshold(compressionThreshold);
+            draft = new Draft_6455(deflate);
+        } else {
+            draft = new Draft_6455();
+        }
+        client = new Client(uri, draft, headers, listener);
+        client.connect();
+        return opened;
+    }
+
+    @Override
+    public void sendText(ByteBuffer message) throws IOException {
+        Client client = this.client;
+        if (client == null)
+            throw new IOException("Transport is not connected");
+
+        // The frame is copied while sending, so the buffer can be reused
+        // right after. permessage-deflate reads the whole backing array
+        // instead, so compressed frames need a heap buffer of their own.
+        TextFrame frame = new TextFrame();
+        frame.setPayload(compression ? ByteBuffer.allocate(message.remaining()).put(message).flip() : message);
+        frame.setFin(true);
+        try {
+            client.sendFrame(frame);
+        } catch (WebsocketNotConnectedException e) {
+            throw new IOException("Transport is not connected", e);
+        }
+    }
+
+    @Override
+    public void sendBinary(ByteBuffer message) throws IOException {
+        Client client = this.client;
+        if (client == null)
+            throw new IOException("Transport is not connected");
+
+        try {
+            client.send(message);
+        } catch (WebsocketNotConnectedException e) {
+            throw new IOException("Transport is not connected", e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> close() {
+        Client client = this.client;
+        if (client == null)
+            closed.complete(null);
+        else
+            client.close();
+        return closed;
+    }
+}
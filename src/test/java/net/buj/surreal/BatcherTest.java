@@ -0,0 +1,129 @@
+package net.buj.surreal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import mjson.Json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BatcherTest {
+    /**
+     * Answers every statement with its own text.
+     */
+    private static final class Statements extends MockPeer {
+        @Override
+        Json query(String sql, Json params) {
+            Json results = Json.array();
+            for (String statement : sql.split(";"))
+                if (!statement.isBlank())
+                    results.add(ok(statement.trim()));
+            return results;
+        }
+    }
+
+    /**
+     * Records how often it was completed.
+     */
+    private static final class Counter implements EventCallback<Response[]> {
+        final AtomicInteger runs = new AtomicInteger();
+        final List<Exception> failures = new CopyOnWriteArrayList<>();
+        final boolean broken;
+        volatile Response[] results;
+
+        Counter(boolean broken) {
+            this.broken = broken;
+        }
+
+        @Override
+        public void run(Response[] value) {
+            runs.incrementAndGet();
+            results = value;
+            if (broken)
+                throw new IllegalStateException("Broken callback");
+        }
+
+        @Override
+        public void fail(Exception error) {
+            failures.add(error);
+        }
+    }
+
+    private Statements peer;
+    private Driver driver;
+
+    @Before
+    public void setUp() throws Exception {
+        peer = new Statements();
+        driver = peer.connect();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        driver.close();
+    }
+
+    @Test
+    public void batchTest() throws Exception {
+        driver.setBatching(3, 100, TimeUnit.MILLISECONDS);
+        Counter first = new Counter(false);
+        Counter second = new Counter(false);
+        driver.query(new Query("RETURN $x").x("x", 1), first);
+        driver.query(new Query("RETURN 2; RETURN 3"), second);
+        driver.querySingleBlocking(new Query("RETURN 4"), 5, TimeUnit.SECONDS);
+
+        assertEquals(1, peer.queries.size());
+        assertEquals("RETURN $b0_x", first.results[0].result().asString());
+        assertEquals(2, second.results.length);
+        assertEquals("RETURN 3", second.results[1].result().asString());
+    }
+
+    @Test
+    public void throwingCallbackTest() throws Exception {
+        driver.setBatching(3, 100, TimeUnit.MILLISECONDS);
+        Counter first = new Counter(false);
+        Counter broken = new Counter(true);
+        Counter last = new Counter(false);
+        driver.query(new Query("RETURN 1"), first);
+        driver.query(new Query("RETURN 2"), broken);
+        driver.query(new Query("RETURN 3"), last);
+        // Answered after the batch has been handled.
+        driver.querySingleBlocking(new Query("RETURN 4"), 5, TimeUnit.SECONDS);
+
+        assertEquals(2, peer.queries.size());
+        assertEquals(1, first.runs.get());
+        assertEquals(0, first.failures.size());
+        assertEquals(1, last.runs.get());
+        assertEquals(0, last.failures.size());
+        assertEquals(1, broken.runs.get());
+        assertEquals(1, broken.failures.size());
+        assertEquals("Broken callback", broken.failures.get(0).getMessage());
+    }
+
+    @Test
+    public void mismatchTest() throws Exception {
+        driver.setBatching(2, 100, TimeUnit.MILLISECONDS);
+        Counter first = new Counter(false);
+        Counter second = new Counter(false);
+        // One statement, answered as two by the peer.
+        driver.query(new Query("RETURN \"a;b\""), first);
+        driver.query(new Query("RETURN 2"), second);
+        // Sent on its own once the batch is full.
+        driver.querySingleBlocking(new Query("RETURN 3"), 5, TimeUnit.SECONDS);
+
+        assertEquals(2, peer.queries.size());
+        for (Counter counter : new Counter[] { first, second }) {
+            assertEquals(0, counter.runs.get());
+            assertEquals(1, counter.failures.size());
+            assertTrue(counter.failures.get(0) instanceof BatchException);
+            assertEquals(3, ((BatchException) counter.failures.get(0)).responses().length);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package net.buj.surreal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import mjson.Json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BulkWriterTest {
+    /**
+     * Accepts inserted chunks, not answering the first few requests and
+     * answering the next few with an error.
+     */
+    private static final class Table extends MockPeer {
+        final List<Integer> chunks = new CopyOnWriteArrayList<>();
+        final List<String> threads = new CopyOnWriteArrayList<>();
+        final AtomicInteger drop = new AtomicInteger();
+        final AtomicInteger reject = new AtomicInteger();
+
+        @Override
+        Json query(String sql, Json params) {
+            threads.add(Thread.currentThread().getName());
+            if (drop.getAndDecrement() > 0)
+                return null;
+            if (reject.getAndDecrement() > 0)
+                throw new RpcError("Overloaded");
+
+            Json rows = params.at("rows");
+            if (rows.asJsonList().stream().anyMatch(row -> row.at("n").asInteger() < 0))
+                return Json.array(err("Found a negative number"));
+            chunks.add(rows.asJsonList().size());
+            return Json.array(ok(rows));
+        }
+    }
+
+    public static final class Row {
+        public int n;
+
+        public Row() {
+        }
+
+        Row(int n) {
+            this.n = n;
+        }
+    }
+
+    private Table table;
+    private Driver driver;
+
+    @Before
+    public void setUp() throws Exception {
+        table = new Table();
+        driver = table.connect();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        driver.close();
+    }
+
+    @Test
+    public void chunkTest() throws Exception {
+        BulkWriter writer = driver.bulkInsert("user").chunkSize(10).parallelism(2);
+        for (int i = 0; i < 25; i++)
+            writer.add(i % 2 == 0 ? new Row(i) : Json.object().set("n", i));
+        writer.close();
+
+        assertEquals(25, writer.written());
+        assertEquals(List.of(10, 10, 5), table.chunks);
+        assertTrue(writer.failures().isEmpty());
+    }
+
+    @Test
+    public void chunkBytesTest() throws Exception {
+        // 18 characters of JSON each, but 22 bytes in UTF-8.
+        BulkWriter writer = driver.bulkInsert("user").chunkBytes(40);
+        for (int i = 0; i < 4; i++)
+            writer.add(Json.object().set("n", i).set("s", "\u00e4\u00e4\u00e4\u00e4"));
+        writer.close();
+
+        assertEquals(4, writer.written());
+        assertEquals(List.of(1, 1, 1, 1), table.chunks);
+    }
+
+    @Test
+    public void noRetryTest() throws Exception {
+        driver.setTimeout(50, TimeUnit.MILLISECONDS);
+        table.drop.set(1);
+        BulkWriter writer = driver.bulkInsert("user");
+        writer.add(new Row(1));
+        writer.close();
+
+        // The insert may have been executed, so it isn't sent again by default.
+        List<BulkWriter.Failure> failures = writer.failures();
+        assertEquals(0, writer.written());
+        assertEquals(1, failures.size());
+        assertEquals(1, failures.get(0).attempts);
+        assertEquals(1, table.threads.size());
+    }
+
+    @Test
+    public void retryTest() throws Exception {
+        driver.setTimeout(50, TimeUnit.MILLISECONDS);
+        table.drop.set(2);
+        BulkWriter writer = driver.bulkInsert("user").retries(2, 1, TimeUnit.MILLISECONDS);
+        writer.add(new Row(1));
+        writer.close();
+
+        assertEquals(1, writer.written());
+        assertTrue(writer.failures().isEmpty());
+        assertEquals(3, table.threads.size());
+        assertFalse(table.threads.contains("SurrealRPC-timer"));
+    }
+
+    @Test
+    public void errorTest() throws Exception {
+        table.reject.set(1);
+        BulkWriter writer = driver.bulkInsert("user").retries(2, 1, TimeUnit.MILLISECONDS);
+        writer.add(new Row(1));
+        writer.close();
+
+        // SurrealDB would answer a retry the same way.
+        List<BulkWriter.Failure> failures = writer.failures();
+        assertEquals(0, writer.written());
+        assertEquals(1, failures.size());
+        assertEquals(1, failures.get(0).attempts);
+        assertEquals("Overloaded", failures.get(0).error.getMessage());
+    }
+
+    @Test
+    public void failureTest() throws Exception {
+        table.reject.set(1);
+        BulkWriter writer = driver.bulkInsert("user").chunkSize(2).retries(0, 0, TimeUnit.MILLISECONDS);
+        writer.addAll(List.of(new Row(1), new Row(2), new Row(-3), new Row(4), new Row(5)));
+        writer.close();
+
+        List<BulkWriter.Failure> failures = writer.failures();
+        assertEquals(1, writer.written());
+        assertEquals(2, failures.size());
+        assertEquals(1, failures.get(0).attempts);
+        assertTrue(failures.stream().anyMatch(failure -> failure.error instanceof ResponseException
+                && failure.error.getMessage().equals("Found a negative number")));
+    }
+}
@@ -0,0 +1,105 @@
+package net.buj.surreal;
+
+import org.junit.Test;
+
+import mjson.Json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class CborTest {
+    /**
+     * Answers requests with {@code null} and queries with a broken frame.
+     */
+    private static final class Peer implements LoopbackTransport.Peer {
+        @Override
+        public void onText(LoopbackTransport transport, String message) {
+        }
+
+        @Override
+        public void onBinary(LoopbackTransport transport, ByteBuffer message) {
+            Json request = Cbor.decode(message);
+            int id = request.at("id").asInteger();
+            // {"id": id, "result": null}, cut short for queries.
+            byte[] frame = bytes(0xa2, 0x62, 'i', 'd', 0x18, id, 0x66, 'r', 'e', 's', 'u', 'l', 't', 0xf6);
+            int length = request.at("method").asString().equals("query") ? frame.length - 1 : frame.length;
+            transport.receiveBinary(ByteBuffer.wrap(frame, 0, length));
+        }
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++)
+            bytes[i] = (byte) values[i];
+        return bytes;
+    }
+
+    private static Json decode(int... values) {
+        return Cbor.decode(ByteBuffer.wrap(bytes(values)));
+    }
+
+    @Test
+    public void roundTripTest() {
+        Json params = Json.object()
+                .set("name", "ä \"quoted\"\n😀")
+                .set("n", -42)
+                .set("big", 1L << 40)
+                .set("list", Json.array(1.5, true, false, Json.nil(), "x".repeat(300)))
+                .set("nested", Json.object().set("empty", Json.array()));
+        byte[] frame = Cbor.encodeRequest(7, "query", new Object[] { "SELECT * FROM x", params });
+
+        Json decoded = Cbor.decode(ByteBuffer.wrap(frame));
+        assertEquals(Json.object().set("id", 7).set("method", "query")
+                .set("params", Json.array("SELECT * FROM x", params)), decoded);
+    }
+
+    @Test
+    public void tagTest() {
+        // Record ID user:tobie.
+        byte[] table = "user".getBytes(StandardCharsets.UTF_8);
+        assertEquals("user:tobie", decode(0xc8, 0x82, 0x64, table[0], table[1], table[2], table[3],
+                0x65, 't', 'o', 'b', 'i', 'e').asString());
+        // NONE.
+        assertTrue(decode(0xc6, 0xf6).isNull());
+        // UUID.
+        assertEquals("00010203-0405-0607-0809-0a0b0c0d0e0f", decode(0xd8, 0x25, 0x50, 0, 1, 2, 3, 4, 5, 6, 7,
+                8, 9, 10, 11, 12, 13, 14, 15).asString());
+        // Compact datetime of 1 second and 5 nanoseconds.
+        assertEquals("1970-01-01T00:00:01.000000005Z", decode(0xcc, 0x82, 0x01, 0x05).asString());
+        // Half-precision 1.5 and an indefinite-length array.
+        assertEquals(1.5, decode(0xf9, 0x3e, 0x00).asDouble(), 0);
+        assertEquals(Json.array(1, 2), decode(0x9f, 0x01, 0x02, 0xff));
+    }
+
+    @Test
+    public void malformedTest() {
+        // Truncated, with and without a length.
+        assertThrows(IllegalStateException.class, () -> decode(0x82, 0x01));
+        assertThrows(IllegalStateException.class, () -> decode(0x9f, 0x01));
+        assertThrows(IllegalStateException.class, () -> decode(0x63, 'a'));
+        // Unsupported simple value.
+        assertThrows(IllegalStateException.class, () -> decode(0xfc));
+        // UUID of 4 bytes.
+        assertThrows(IllegalStateException.class, () -> decode(0xd8, 0x25, 0x44, 0, 1, 2, 3));
+        // Record ID without an ID.
+        assertThrows(IllegalStateException.class, () -> decode(0xc8, 0x81, 0x61, 'a'));
+    }
+
+    @Test
+    public void malformedFrameTest() throws Exception {
+        try (Driver driver = new Driver(new SurrealURL(MockPeer.URL + "?protocol=cbor"),
+                () -> new LoopbackTransport(new Peer()))) {
+            CompletableFuture<Response> query = driver.querySingleAsync(new Query("RETURN 1"));
+            Throwable error = assertThrows(ExecutionException.class, () -> query.get(5, TimeUnit.SECONDS)).getCause();
+            assertTrue(error instanceof ResponseException);
+            assertTrue(error.getCause() instanceof IllegalStateException);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package net.buj.surreal;
+
+import org.junit.Test;
+
+import mjson.Json;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assume.assumeNotNull;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+public class CodecTest {
+    public enum Kind {
+        ADMIN, USER
+    }
+
+    public static final class Member {
+        public String name;
+        public Kind kind;
+    }
+
+    public static final class Team {
+        public String id;
+        public Map<String, List<Member>> roles;
+        public Member[] members;
+        public Set<Kind> kinds;
+        public double score;
+    }
+
+    public static final class Containers {
+        public LinkedList<Integer> linked;
+        public TreeSet<String> sorted;
+        public LinkedHashSet<String> ordered;
+        public Deque<Integer> deque;
+        public Queue<Integer> queue;
+        public ArrayDeque<Integer> array;
+        public SortedMap<String, Integer> map;
+    }
+
+    public static final class Unsupported {
+        public BlockingQueue<String> queue;
+    }
+
+    /**
+     * Answers every query with the same rows.
+     */
+    private static final class Rows extends MockPeer {
+        final Json rows;
+
+        Rows(Json rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        Json query(String sql, Json params) {
+            return Json.array(ok(rows));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Codec<T> codec(Class<T> type) {
+        return (Codec<T>) Codec.forType(type);
+    }
+
+    private static final String TEAM = "{\"id\":\"team:a\",\"roles\":{\"lead\":[{\"name\":\"x\",\"kind\":\"ADMIN\"}],"
+            + "\"rest\":[]},\"members\":[{\"name\":\"y\",\"kind\":\"USER\"},null],\"kinds\":[\"USER\"],"
+            + "\"score\":1.5,\"unknown\":{\"a\":[1]}}";
+
+    @Test
+    public void primitiveArrayTest() {
+        Codec<int[]> codec = codec(int[].class);
+        Json json = Json.read("[1,null,3]");
+        assertArrayEquals(new int[] { 1, 0, 3 }, codec.fromJson(json));
+        assertArrayEquals(new int[] { 1, 0, 3 }, codec.read(new JsonReader(json.toString())));
+        assertEquals(Json.read("[1,0,3]"), codec.encode(new int[] { 1, 0, 3 }));
+        assertNull(codec.read(new JsonReader("null")));
+    }
+
+    @Test
+    public void objectArrayTest() {
+        Codec<String[][]> codec = codec(String[][].class);
+        Json json = Json.read("[[\"a\",null],[]]");
+        String[][] expected = { { "a", null }, {} };
+        assertArrayEquals(expected, codec.fromJson(json));
+        assertArrayEquals(expected, codec.read(new JsonReader(json.toString())));
+        assertEquals(json, codec.encode(expected));
+    }
+
+    @Test
+    public void objectTest() {
+        Codec<Team> codec = Codec.of(Team.class);
+        for (Team team : new Team[] { codec.fromJson(Json.read(TEAM)), codec.read(new JsonReader(TEAM)) }) {
+            assertEquals("team:a", team.id);
+            assertEquals("x", team.roles.get("lead").get(0).name);
+            assertEquals(Kind.ADMIN, team.roles.get("lead").get(0).kind);
+            assertEquals(0, team.roles.get("rest").size());
+            assertEquals(Kind.USER, team.members[0].kind);
+            assertNull(team.members[1]);
+            assertEquals(Set.of(Kind.USER), team.kinds);
+            assertEquals(1.5, team.score, 0);
+        }
+
+        Json json = Json.read(TEAM);
+        json.delAt("unknown");
+        assertEquals(json, codec.toJson(codec.fromJson(json)));
+    }
+
+    @Test
+    public void collectionTest() {
+        String text = "{\"linked\":[1,2],\"sorted\":[\"b\",\"a\"],\"ordered\":[\"b\",\"a\"],\"deque\":[1],"
+                + "\"queue\":[2],\"array\":[3],\"map\":{\"b\":2,\"a\":1}}";
+        Codec<Containers> codec = Codec.of(Containers.class);
+        for (Containers value : new Containers[] { codec.fromJson(Json.read(text)),
+                codec.read(new JsonReader(text)) }) {
+            assertEquals(List.of(1, 2), value.linked);
+            assertEquals(List.of("a", "b"), List.copyOf(value.sorted));
+            assertEquals(List.of("b", "a"), List.copyOf(value.ordered));
+            assertEquals(Integer.valueOf(1), value.deque.peekFirst());
+            assertEquals(Integer.valueOf(2), value.queue.peek());
+            assertEquals(Integer.valueOf(3), value.array.peek());
+            assertEquals("a", value.map.firstKey());
+        }
+    }
+
+    @Test
+    public void unsupportedTest() {
+        assertThrows(IllegalArgumentException.class, () -> Codec.of(Unsupported.class));
+    }
+
+    @Test
+    public void recordTest() throws Exception {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assumeNotNull(compiler);
+        assumeTrue(Runtime.version().feature() >= 16);
+
+        // Compiled here, so that the tests still build for Java 11.
+        Path dir = Files.createTempDirectory("codec");
+        Path source = dir.resolve("Point.java");
+        Files.write(source, "public record Point(int x, java.util.List<String> tags) {}"
+                .getBytes(StandardCharsets.UTF_8));
+        assertEquals(0, compiler.run(null, null, null, source.toString()));
+
+        try (URLClassLoader loader = new URLClassLoader(new URL[] { dir.toUri().toURL() })) {
+            Class<?> type = loader.loadClass("Point");
+            Codec<?> codec = Codec.of(type);
+            Object point = codec.read(new JsonReader("{\"tags\":[\"a\"],\"x\":3}"));
+            Method x = type.getMethod("x");
+            Method tags = type.getMethod("tags");
+            assertEquals(3, x.invoke(point));
+            assertEquals(List.of("a"), tags.invoke(point));
+
+            // Missing components get their defaults.
+            Object empty = codec.fromJson(Json.object());
+            assertEquals(0, x.invoke(empty));
+            assertNull(tags.invoke(empty));
+            assertEquals(Json.read("{\"x\":3,\"tags\":[\"a\"]}"), codec.encode(point));
+        }
+    }
+
+    @Test
+    public void typedQueryTest() throws Exception {
+        try (Driver driver = new Rows(Json.array(Json.read(TEAM), Json.read(TEAM))).connect()) {
+            List<Team> teams = driver.queryAsync(new Query("SELECT * FROM team"), Team.class)
+                    .get(5, TimeUnit.SECONDS);
+            assertEquals(2, teams.size());
+            assertEquals("x", teams.get(1).roles.get("lead").get(0).name);
+            assertEquals(Kind.USER, teams.get(0).members[0].kind);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package net.buj.surreal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import mjson.Json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+
+public class CursorTest {
+    /**
+     * Serves pages of a table with 25 records.
+     */
+    private static final class Table extends MockPeer {
+        final List<Json> records = new ArrayList<>();
+
+        Table() {
+            for (int i = 0; i < 25; i++)
+                records.add(Json.object().set("id", String.format("user:%02d", i)).set("n", i));
+        }
+
+        @Override
+        Json query(String sql, Json params) {
+            if (sql.contains("broken"))
+                return Json.array(err("Parse error"));
+
+            int start = params.has("cursor_start") ? params.at("cursor_start").asInteger() : 0;
+            if (params.has("cursor_after"))
+                while (start < records.size()
+                        && records.get(start).at("id").asString().compareTo(params.at("cursor_after").asString()) <= 0)
+                    start++;
+            int end = Math.min(records.size(), start + params.at("cursor_limit").asInteger());
+
+            Json rows = Json.array();
+            for (int i = start; i < end; i++)
+                rows.add(records.get(i));
+            return Json.array(ok(rows));
+        }
+    }
+
+    private Table table;
+    private Driver driver;
+
+    @Before
+    public void setUp() throws Exception {
+        table = new Table();
+        driver = table.connect();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        driver.close();
+    }
+
+    @Test
+    public void offsetTest() throws Exception {
+        List<Integer> numbers = driver.stream(new Query("SELECT * FROM user;"), 10)
+                .map(row -> row.at("n").asInteger())
+                .collect(Collectors.toList());
+
+        assertEquals(25, numbers.size());
+        assertEquals(24, (int) numbers.get(24));
+        assertEquals(3, table.queries.size());
+        assertTrue(table.queries.get(0).startsWith("SELECT * FROM (SELECT * FROM user)"));
+    }
+
+    @Test
+    public void trailingCommentTest() throws Exception {
+        assertEquals(25, driver.stream(new Query("SELECT * FROM user WHERE n < $n; -- a;b").x("n", 100), 10)
+                .count());
+        assertEquals("SELECT * FROM (SELECT * FROM user WHERE n < $n) ORDER BY id"
+                + " LIMIT $cursor_limit START $cursor_start", table.queries.get(0));
+    }
+
+    @Test
+    public void orderTest() throws Exception {
+        assertEquals(25, driver.stream(new Query("SELECT * FROM user ORDER BY n DESC"), 10).count());
+        assertEquals("SELECT * FROM (SELECT * FROM user ORDER BY n DESC) LIMIT $cursor_limit START $cursor_start",
+                table.queries.get(0));
+    }
+
+    @Test
+    public void tableTest() throws Exception {
+        Cursor cursor = driver.cursor("user", 5);
+        int count = 0;
+        while (cursor.hasNext()) {
+            assertEquals(count, cursor.next().at("n").asInteger());
+            count++;
+        }
+
+        assertEquals(25, count);
+        // The last page is full, so one more empty page is read.
+        assertEquals(6, table.queries.size());
+        assertFalse(table.queries.get(0).contains("cursor_after"));
+        assertTrue(table.queries.get(1).contains("cursor_after"));
+    }
+
+    @Test
+    public void pageTest() throws Exception {
+        Cursor cursor = driver.cursor(new Query("SELECT * FROM user"), 20);
+        assertEquals(20, cursor.nextPage().join().size());
+        assertEquals(5, cursor.nextPage().join().size());
+        assertTrue(cursor.nextPage().join().isEmpty());
+    }
+
+    @Test(expected = ResponseException.class)
+    public void failTest() throws Throwable {
+        Cursor cursor = driver.cursor(new Query("SELECT * FROM broken"), 10);
+        try {
+            cursor.hasNext();
+        } catch (CompletionException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void statementsTest() {
+        driver.cursor(new Query("LET $x = 1; SELECT * FROM user"), 10);
+    }
+}
@@ -0,0 +1,188 @@
+package net.buj.surreal;
+
+import org.junit.Test;
+
+import mjson.Json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+public class DriverPoolTest {
+    /**
+     * Holds queries on {@code held} until told to answer them.
+     */
+    private static final class Gate extends MockPeer {
+        final List<Object[]> held = new CopyOnWriteArrayList<>();
+
+        @Override
+        Json query(String sql, Json params) {
+            return sql.contains("held") ? null : super.query(sql, params);
+        }
+
+        @Override
+        public void onText(LoopbackTransport transport, String message) {
+            super.onText(transport, message);
+            if (message.contains("held"))
+                held.add(new Object[] { transport, Json.read(message).at("id") });
+        }
+
+        void release() {
+            for (Object[] query : held) {
+                held.remove(query);
+                ((LoopbackTransport) query[0]).receiveText(Json.object().set("id", query[1])
+                        .set("result", Json.array(ok(Json.nil()))).toString());
+            }
+        }
+    }
+
+    private static final class Gates {
+        final List<Gate> peers = new CopyOnWriteArrayList<>();
+        final DriverPool pool;
+
+        Gates(int minSize, int maxSize) throws Exception {
+            pool = new DriverPool(new SurrealURL(MockPeer.URL), minSize, maxSize, () -> {
+                Gate peer = new Gate();
+                peers.add(peer);
+                return new LoopbackTransport(peer);
+            });
+        }
+
+        void hold() {
+            pool.querySingle(new Query("SELECT * FROM held"), new EventCallback<Response>() {
+                @Override
+                public void run(Response value) {
+                }
+
+                @Override
+                public void fail(Exception error) {
+                }
+            });
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        assertTrue(condition.getAsBoolean());
+    }
+
+    @Test
+    public void lostMemberTest() throws Exception {
+        MockPeer peer = new MockPeer();
+        List<LoopbackTransport> transports = new CopyOnWriteArrayList<>();
+        try (DriverPool pool = new DriverPool(new SurrealURL(MockPeer.URL), 2, 2, () -> {
+            LoopbackTransport transport = new LoopbackTransport(peer);
+            transports.add(transport);
+            return transport;
+        })) {
+            // Lost without a reconnect policy, it has nothing in flight.
+            transports.get(0).close().get(5, TimeUnit.SECONDS);
+
+            for (int i = 0; i < 10; i++)
+                assertEquals(i, pool.querySingleBlocking(new Query("RETURN $n").x("n", i), 5, TimeUnit.SECONDS)
+                        .result().at("n").asInteger());
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (pool.size() < 2 && System.nanoTime() < deadline)
+                Thread.sleep(10);
+            assertEquals(2, pool.size());
+            assertEquals(3, transports.size());
+        }
+    }
+
+    @Test
+    public void waitingTest() throws Exception {
+        MockPeer peer = new MockPeer();
+        List<LoopbackTransport> transports = new CopyOnWriteArrayList<>();
+        try (DriverPool pool = new DriverPool(new SurrealURL(MockPeer.URL), 1, 1, () -> {
+            if (transports.size() == 2)
+                throw new IllegalStateException("Database is gone");
+            LoopbackTransport transport = new LoopbackTransport(peer);
+            transports.add(transport);
+            return transport;
+        })) {
+            // Waits for the lost connection to be replaced.
+            transports.get(0).close().get(5, TimeUnit.SECONDS);
+            CompletableFuture<Response> replaced = pool.querySingleAsync(new Query("RETURN $n").x("n", 1), null);
+            assertEquals(1, replaced.get(5, TimeUnit.SECONDS).result().at("n").asInteger());
+
+            // Fails through the future when it can't be replaced.
+            transports.get(1).close().get(5, TimeUnit.SECONDS);
+            CompletableFuture<Response> failed = pool.querySingleAsync(new Query("RETURN 1"), null);
+            Throwable error = null;
+            try {
+                failed.get(5, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                error = e.getCause();
+            }
+            assertTrue(error instanceof ConnectionException);
+        }
+    }
+
+    @Test
+    public void leastInFlightTest() throws Exception {
+        Gates gates = new Gates(2, 2);
+        try (DriverPool pool = gates.pool) {
+            // Connections are busy until their handshake is done.
+            await(() -> pool.inFlight() == 0);
+            gates.hold();
+            await(() -> gates.peers.get(0).held.size() == 1);
+
+            // Every other query goes to the idle connection.
+            for (int i = 0; i < 5; i++)
+                pool.querySingleBlocking(new Query("RETURN $n").x("n", i), 5, TimeUnit.SECONDS);
+            assertEquals(1, gates.peers.get(0).queries.size());
+            assertEquals(5, gates.peers.get(1).queries.size());
+        }
+    }
+
+    @Test
+    public void growTest() throws Exception {
+        Gates gates = new Gates(1, 3);
+        try (DriverPool pool = gates.pool) {
+            // Grows while every connection is busy.
+            await(() -> {
+                gates.hold();
+                return pool.size() == 3;
+            });
+
+            for (int i = 0; i < 10; i++)
+                gates.hold();
+            pool.querySingleBlocking(new Query("RETURN 1"), 5, TimeUnit.SECONDS);
+            assertEquals(3, pool.size());
+            assertEquals(3, gates.peers.size());
+        }
+    }
+
+    @Test
+    public void evictTest() throws Exception {
+        Gates gates = new Gates(1, 3);
+        try (DriverPool pool = gates.pool) {
+            pool.setIdleTimeout(50, TimeUnit.MILLISECONDS);
+            await(() -> {
+                gates.hold();
+                return pool.size() == 3;
+            });
+
+            // Closed once idle, down to the minimum size.
+            await(() -> {
+                for (Gate peer : gates.peers)
+                    peer.release();
+                return pool.size() == 1;
+            });
+            Thread.sleep(200);
+            assertEquals(1, pool.size());
+            assertEquals(0, pool.inFlight());
+            assertEquals(1, pool.querySingleBlocking(new Query("RETURN $n").x("n", 1), 5, TimeUnit.SECONDS)
+                    .result().at("n").asInteger());
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package net.buj.surreal;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+    @Test
+    public void percentileTest() {
+        Histogram histogram = new Histogram();
+        for (long i = 1; i <= 100_000; i++)
+            histogram.record(i * 1000);
+
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100_000, snapshot.count);
+        assertEquals(100_000_000, snapshot.max);
+        assertEquals(50_000_000, snapshot.percentile(50), 50_000_000 * 0.04);
+        assertEquals(99_000_000, snapshot.percentile(99), 99_000_000 * 0.04);
+        assertEquals(100_000_000, snapshot.percentile(100));
+        assertEquals(50_000_000, snapshot.mean, 50_000_000 * 0.04);
+    }
+
+    @Test
+    public void rangeTest() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5);
+        histogram.record(0);
+        histogram.record(Long.MAX_VALUE);
+
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(3, snapshot.count);
+        assertEquals(0, snapshot.percentile(50));
+        assertTrue(snapshot.percentile(100) > Long.MAX_VALUE / 2);
+        assertEquals(0, new Histogram().snapshot().percentile(99));
+    }
+}
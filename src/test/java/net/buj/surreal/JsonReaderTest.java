@@ -0,0 +1,71 @@
+package net.buj.surreal;
+
+import org.junit.Test;
+
+import mjson.Json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class JsonReaderTest {
+    @Test
+    public void readTest() {
+        String text = " {\"id\": 7, \"result\": [{\"s\": \"a\\\"b\\\\c\\n\\u00e4\", \"n\": -1.5e2, \"big\": 4294967296,"
+                + " \"t\": true, \"f\": false, \"x\": null, \"e\": [], \"o\": {}}]} ";
+        assertEquals(Json.read(text), new JsonReader(text).readJson());
+    }
+
+    @Test
+    public void pullTest() {
+        JsonReader reader = new JsonReader("{\"id\":7,\"skip\":{\"a\":[1,{\"b\":\"]}\"}]},\"result\":[\"x\",2]}");
+        reader.beginObject();
+        assertEquals("id", reader.nextName());
+        assertEquals(7, reader.nextInt());
+        assertEquals("skip", reader.nextName());
+        reader.skipValue();
+        assertEquals("result", reader.nextName());
+        reader.beginArray();
+        assertTrue(reader.hasNext());
+        assertEquals(JsonReader.Token.STRING, reader.peek());
+        assertEquals("x", reader.nextString());
+        assertEquals(2, reader.nextNumber());
+        assertFalse(reader.hasNext());
+        reader.endArray();
+        reader.endObject();
+        assertEquals(JsonReader.Token.END, reader.peek());
+    }
+
+    @Test
+    public void rangeTest() {
+        String text = "{\"result\":[{\"n\":1},{\"n\":2}]}";
+        JsonReader reader = new JsonReader(text);
+        reader.beginObject();
+        reader.nextName();
+        int start = reader.valueStart();
+        reader.skipValue();
+
+        // Reads only the value, as a document of its own.
+        assertEquals(Json.read("[{\"n\":1},{\"n\":2}]"), new JsonReader(text, start, reader.position()).readJson());
+    }
+
+    @Test
+    public void numberTest() {
+        assertEquals(Integer.valueOf(-3), new JsonReader("-3").nextNumber());
+        assertEquals(Long.valueOf(1L << 40), new JsonReader("1099511627776").nextNumber());
+        assertEquals(Double.valueOf(0.25), new JsonReader("2.5E-1").nextNumber());
+        assertEquals(Double.valueOf(1e19), new JsonReader("10000000000000000000").nextNumber());
+    }
+
+    @Test
+    public void malformedTest() {
+        assertThrows(IllegalStateException.class, () -> new JsonReader("{\"a\":").readJson());
+        assertThrows(IllegalStateException.class, () -> new JsonReader("[1,2").readJson());
+        assertThrows(IllegalStateException.class, () -> new JsonReader("\"abc").readJson());
+        assertThrows(IllegalStateException.class, () -> new JsonReader("\"\\u12\"").readJson());
+        assertThrows(IllegalStateException.class, () -> new JsonReader("nul").readJson());
+        assertThrows(IllegalStateException.class, () -> new JsonReader("{\"a\" 1}").readJson());
+        assertThrows(IllegalStateException.class, () -> new JsonReader("[1]").nextString());
+    }
+}
@@ -0,0 +1,88 @@
+package net.buj.surreal;
+
+import org.junit.Test;
+
+import mjson.Json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class JsonWriterTest {
+    private static void encode(int id, Object[] params) {
+        JsonWriter writer = JsonWriter.acquire();
+        writer.encodeRequest(id, "query", params);
+        writer.release();
+    }
+
+    @Test
+    public void encodeTest() {
+        Json params = Json.object().set("name", "ä \"quoted\"\n😀").set("n", -42).set("list", Json.array(1.5, true));
+        Json decoded = Json.read(JsonWriter.toString(7, "query", new Object[] { "SELECT * FROM x", params }));
+        assertEquals(7, decoded.at("id").asInteger());
+        assertEquals("query", decoded.at("method").asString());
+        assertEquals(Json.array("SELECT * FROM x", params), decoded.at("params"));
+
+        PreparedQuery prepared = new PreparedQuery("SELECT * FROM x WHERE name = $name");
+        decoded = Json.read(JsonWriter.toString(8, "query", new Object[] { prepared, params }));
+        assertEquals(8, decoded.at("id").asInteger());
+        assertEquals(Json.array(prepared.sql, params), decoded.at("params"));
+    }
+
+    @Test
+    public void largeStringTest() {
+        // Surrogate pairs across the points where room is made.
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < 3_000_000)
+            builder.append("abc\"\u00e4\u20ac\ud83d\ude00\n");
+        String text = builder.toString();
+
+        JsonWriter writer = JsonWriter.acquire();
+        try {
+            ByteBuffer request = writer.encodeRequest(1, "query", new Object[] { text });
+            assertEquals(text, Json.read(JsonWriter.toString(request)).at("params").at(0).asString());
+            // Grown with what was written, not six bytes per char.
+            assertTrue(request.capacity() < 3 * text.length());
+            assertFalse(request.isDirect());
+        } finally {
+            writer.release();
+        }
+    }
+
+    @Test
+    public void utf8LengthTest() {
+        for (String text : new String[] { "", "abc", "ä", "€", "😀", "a ä € 😀 \u07ff\u0800\uffff" })
+            assertEquals(text, text.getBytes(StandardCharsets.UTF_8).length, JsonWriter.utf8Length(text));
+    }
+
+    @Test
+    public void allocationTest() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        PreparedQuery prepared = new PreparedQuery("SELECT * FROM user WHERE name = $name AND age > $age");
+        Object[] params = { prepared, Json.object().set("name", "alice").set("age", 30) };
+        int requests = 100_000;
+
+        for (int i = 0; i < requests; i++)
+            encode(i, params);
+
+        long thread = Thread.currentThread().getId();
+        long before = allocations.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < requests; i++)
+            encode(i, params);
+        long perRequest = (allocations.getThreadAllocatedBytes(thread) - before) / requests;
+
+        // Only iterating the parameters may allocate.
+        assertTrue("Allocated " + perRequest + " bytes per request", perRequest < 64);
+    }
+}
@@ -0,0 +1,132 @@
+package net.buj.surreal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class LimiterTest {
+    /**
+     * Holds queries on {@code held} until released.
+     */
+    private static final class Gate extends MockPeer {
+        final List<Runnable> held = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onText(LoopbackTransport transport, String message) {
+            if (message.contains("held"))
+                held.add(() -> super.onText(transport, message));
+            else
+                super.onText(transport, message);
+        }
+
+        void release() {
+            for (Runnable answer : held) {
+                held.remove(answer);
+                answer.run();
+            }
+        }
+    }
+
+    private final List<LoopbackTransport> transports = new CopyOnWriteArrayList<>();
+    private Gate peer;
+    private Driver driver;
+
+    @Before
+    public void setUp() throws Exception {
+        peer = new Gate();
+        driver = new Driver(new SurrealURL(MockPeer.URL), () -> {
+            LoopbackTransport transport = new LoopbackTransport(peer);
+            transports.add(transport);
+            return transport;
+        });
+        // Answered once the handshake is done.
+        driver.querySingleBlocking(new Query("RETURN 0"), 5, TimeUnit.SECONDS);
+    }
+
+    private static Throwable failure(CompletableFuture<?> future) {
+        return assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS)).getCause();
+    }
+
+    @Test
+    public void failTest() throws Exception {
+        driver.setLimits(1, 0, OverloadPolicy.FAIL);
+        CompletableFuture<Response> held = driver.querySingleAsync(new Query("SELECT * FROM held"));
+        CompletableFuture<Response> rejected = driver.querySingleAsync(new Query("RETURN 1"));
+
+        assertTrue(failure(rejected) instanceof RejectedExecutionException);
+        peer.release();
+        held.get(5, TimeUnit.SECONDS);
+        // The permit was given back.
+        assertEquals(2, driver.querySingleBlocking(new Query("RETURN $x").x("x", 2), 5, TimeUnit.SECONDS)
+                .result().at("x").asInteger());
+    }
+
+    @Test
+    public void deferTest() throws Exception {
+        driver.setLimits(1, 1, OverloadPolicy.DEFER);
+        CompletableFuture<Response> held = driver.querySingleAsync(new Query("SELECT * FROM held"));
+        CompletableFuture<Response> deferred = driver.querySingleAsync(new Query("RETURN $x").x("x", 1));
+        CompletableFuture<Response> rejected = driver.querySingleAsync(new Query("RETURN 2"));
+
+        assertTrue(failure(rejected) instanceof RejectedExecutionException);
+        assertEquals(2, driver.inFlight());
+        assertFalse(deferred.isDone());
+
+        peer.release();
+        held.get(5, TimeUnit.SECONDS);
+        assertEquals(1, deferred.get(5, TimeUnit.SECONDS).result().at("x").asInteger());
+        assertEquals(0, driver.inFlight());
+    }
+
+    @Test
+    public void blockTest() throws Exception {
+        driver.setLimits(1, 0, OverloadPolicy.BLOCK);
+        CompletableFuture<Response> held = driver.querySingleAsync(new Query("SELECT * FROM held"));
+        CompletableFuture<Response> blocked = CompletableFuture.supplyAsync(() -> driver.querySingleAsync(
+                new Query("RETURN $x").x("x", 1))).thenCompose(future -> future);
+
+        Thread.sleep(100);
+        assertFalse(blocked.isDone());
+        assertFalse(peer.queries.contains("RETURN $x"));
+
+        peer.release();
+        held.get(5, TimeUnit.SECONDS);
+        assertEquals(1, blocked.get(5, TimeUnit.SECONDS).result().at("x").asInteger());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        driver.close();
+    }
+
+    @Test
+    public void queuedBlockTest() throws Exception {
+        driver.setLimits(1, 0, OverloadPolicy.BLOCK);
+        driver.setReconnect(new ReconnectPolicy().initialDelay(100, TimeUnit.MILLISECONDS).jitter(0));
+        transports.get(0).disconnect(1006, "Connection dropped");
+        // Completed once the driver has noticed the drop.
+        transports.get(0).close().get(5, TimeUnit.SECONDS);
+
+        // Sent from the reading thread once reconnected, more than the limit.
+        List<CompletableFuture<Response>> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            results.add(driver.querySingleAsync(new Query("RETURN $x").x("x", i)));
+
+        for (int i = 0; i < 3; i++)
+            assertEquals(i, results.get(i).get(5, TimeUnit.SECONDS).result().at("x").asInteger());
+        assertEquals(2, transports.size());
+    }
+}
@@ -0,0 +1,156 @@
+package net.buj.surreal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import mjson.Json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class LivePublisherTest {
+    /**
+     * Starts live queries and remembers killed ones.
+     */
+    private static final class Peer extends MockPeer {
+        final List<String> killed = new CopyOnWriteArrayList<>();
+
+        @Override
+        Json query(String sql, Json params) {
+            return Json.array(ok(sql.startsWith("LIVE") ? Json.make("live-1") : Json.array()));
+        }
+
+        @Override
+        Json call(String method, Json params) {
+            if (method.equals("kill"))
+                killed.add(params.at(0).asString());
+            return Json.nil();
+        }
+
+        void event(String record, int version) {
+            event("live-1", "UPDATE", Json.object().set("id", record).set("v", version));
+        }
+    }
+
+    private static final class Subscriber implements Flow.Subscriber<LiveResponse> {
+        volatile Flow.Subscription subscription;
+        final List<LiveResponse> events = new CopyOnWriteArrayList<>();
+        volatile Throwable error;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(LiveResponse item) {
+            events.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+
+    private Peer peer;
+    private Driver driver;
+
+    @Before
+    public void setUp() throws Exception {
+        peer = new Peer();
+        driver = peer.connect();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        driver.close();
+    }
+
+    private Subscriber subscribe(int bufferSize, OverflowStrategy overflow) throws Exception {
+        Subscriber subscriber = new Subscriber();
+        driver.live(new Query("LIVE SELECT * FROM user"), bufferSize, overflow).subscribe(subscriber);
+        sync();
+        return subscriber;
+    }
+
+    /**
+     * Wait until every message sent so far has been handled.
+     */
+    private void sync() throws Exception {
+        // Responses are handled in order, so earlier events are done too.
+        driver.querySingleBlocking(new Query("RETURN 1"), 5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void demandTest() throws Exception {
+        Subscriber subscriber = subscribe(16, OverflowStrategy.FAIL);
+        for (int i = 0; i < 3; i++)
+            peer.event("user:a", i);
+        sync();
+        assertEquals(0, subscriber.events.size());
+
+        subscriber.subscription.request(2);
+        assertEquals(2, subscriber.events.size());
+        subscriber.subscription.request(5);
+        assertEquals(3, subscriber.events.size());
+        assertEquals(2, subscriber.events.get(2).data.at("v").asInteger());
+    }
+
+    @Test
+    public void dropOldestTest() throws Exception {
+        Subscriber subscriber = subscribe(2, OverflowStrategy.DROP_OLDEST);
+        for (int i = 0; i < 5; i++)
+            peer.event("user:a", i);
+        sync();
+
+        subscriber.subscription.request(10);
+        assertEquals(2, subscriber.events.size());
+        assertEquals(3, subscriber.events.get(0).data.at("v").asInteger());
+    }
+
+    @Test
+    public void coalesceTest() throws Exception {
+        Subscriber subscriber = subscribe(2, OverflowStrategy.COALESCE);
+        peer.event("user:a", 0);
+        peer.event("user:b", 1);
+        peer.event("user:a", 2);
+        sync();
+
+        subscriber.subscription.request(10);
+        assertEquals(2, subscriber.events.size());
+        assertEquals(2, subscriber.events.get(0).data.at("v").asInteger());
+        assertEquals(1, subscriber.events.get(1).data.at("v").asInteger());
+    }
+
+    @Test
+    public void failTest() throws Exception {
+        Subscriber subscriber = subscribe(2, OverflowStrategy.FAIL);
+        for (int i = 0; i < 3; i++)
+            peer.event("user:" + i, i);
+        sync();
+
+        assertTrue(subscriber.error instanceof RejectedExecutionException);
+        assertEquals(List.of("live-1"), peer.killed);
+    }
+
+    @Test
+    public void cancelTest() throws Exception {
+        Subscriber subscriber = subscribe(2, OverflowStrategy.FAIL);
+        subscriber.subscription.cancel();
+        sync();
+
+        assertEquals(List.of("live-1"), peer.killed);
+    }
+}
@@ -0,0 +1,146 @@
+package net.buj.surreal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import mjson.Json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+public class LiveViewTest {
+    public static final class User {
+        public String id;
+        public String team;
+        public int v;
+    }
+
+    /**
+     * Starts live queries and holds the answers to reading the table until
+     * told to answer.
+     */
+    private static final class Table extends MockPeer {
+        final BlockingQueue<String> reads = new LinkedBlockingQueue<>();
+
+        @Override
+        Json query(String sql, Json params) {
+            if (sql.startsWith("LIVE"))
+                return Json.array(ok("live-1"));
+            return sql.startsWith("SELECT") ? null : super.query(sql, params);
+        }
+
+        @Override
+        public void onText(LoopbackTransport transport, String message) {
+            super.onText(transport, message);
+            if (message.contains("\"SELECT * FROM `user`\""))
+                reads.add(Json.read(message).at("id").toString());
+        }
+
+        String read() throws InterruptedException {
+            String id = reads.poll(5, TimeUnit.SECONDS);
+            assertNotNull("Table not read", id);
+            return id;
+        }
+
+        void answer(String read, Json rows) {
+            transport.receiveText("{\"id\":" + read + ",\"result\":" + Json.array(ok(rows)) + "}");
+        }
+
+        void event(String action, String id, String team, int version) {
+            event("live-1", action, user(id, team, version));
+        }
+    }
+
+    private static Json user(String id, String team, int version) {
+        return Json.object().set("id", id).set("team", team).set("v", version);
+    }
+
+    private Table table;
+    private List<LoopbackTransport> transports;
+    private Driver driver;
+
+    @Before
+    public void setUp() throws Exception {
+        table = new Table();
+        transports = new CopyOnWriteArrayList<>();
+        driver = new Driver(new SurrealURL(MockPeer.URL), () -> {
+            LoopbackTransport transport = new LoopbackTransport(table);
+            transports.add(transport);
+            return transport;
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        driver.close();
+    }
+
+    @Test
+    public void convergeTest() throws Exception {
+        CompletableFuture<LiveView<String, User>> future = driver.liveView("user", User.class);
+        String read = table.read();
+
+        // Changed while the table is read, some of them already part of it.
+        table.event("UPDATE", "user:a", "red", 2);
+        table.event("DELETE", "user:b", "red", 2);
+        table.event("CREATE", "user:c", "blue", 1);
+        table.answer(read, Json.array(user("user:a", "red", 1), user("user:b", "red", 1)));
+
+        LiveView<String, User> view = future.get(5, TimeUnit.SECONDS);
+        assertEquals(2, view.size());
+        assertEquals(2, view.get("user:a").v);
+        assertNull(view.get("user:b"));
+        assertEquals("blue", view.get("user:c").team);
+
+        // Changed after loading.
+        LiveView<String, User>.Index<String> teams = view.index(user -> user.team);
+        table.event("UPDATE", "user:a", "blue", 3);
+        driver.querySingleBlocking(new Query("RETURN 1"), 5, TimeUnit.SECONDS);
+
+        assertEquals(Set.of("user:a", "user:c"), teams.get("blue").stream().map(user -> user.id)
+                .collect(Collectors.toSet()));
+        assertTrue(teams.get("red").isEmpty());
+        assertEquals(3, view.get("user:a").v);
+    }
+
+    @Test
+    public void reconnectTest() throws Exception {
+        CompletableFuture<LiveView<String, User>> future = driver.liveView("user", User.class);
+        table.answer(table.read(), Json.array(user("user:a", "red", 1), user("user:b", "red", 1)));
+        LiveView<String, User> view = future.get(5, TimeUnit.SECONDS);
+        assertFalse(view.isStale());
+
+        driver.setReconnect(new ReconnectPolicy().initialDelay(10, TimeUnit.MILLISECONDS).jitter(0));
+        transports.get(0).disconnect(1006, "Connection dropped");
+        transports.get(0).close().get(5, TimeUnit.SECONDS);
+
+        // Read again once the live query is restored, user:b was deleted and
+        // user:a changed while disconnected.
+        String read = table.read();
+        assertTrue(view.isStale());
+        table.event("CREATE", "user:c", "blue", 1);
+        table.answer(read, Json.array(user("user:a", "red", 2)));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (view.isStale() && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        assertFalse(view.isStale());
+        assertEquals(2, view.size());
+        assertEquals(2, view.get("user:a").v);
+        assertNull(view.get("user:b"));
+        assertEquals("blue", view.get("user:c").team);
+    }
+}
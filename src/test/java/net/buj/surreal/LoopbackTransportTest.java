@@ -0,0 +1,59 @@
+package net.buj.surreal;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+public class LoopbackTransportTest {
+    @Test
+    public void queryTest() throws Exception {
+        Driver driver = new MockPeer().connect();
+        try {
+            Response response = driver.querySingleBlocking(new Query("RETURN $x").x("x", 42), 5, TimeUnit.SECONDS);
+            assertEquals(42, response.result().at("x").asInteger());
+        } finally {
+            driver.close();
+        }
+    }
+
+    @Test
+    public void connectAsyncTest() throws Exception {
+        Driver driver = Driver.connectAsync(new SurrealURL(MockPeer.URL),
+                () -> new LoopbackTransport(new MockPeer()), null).get(5, TimeUnit.SECONDS);
+        try {
+            Response response = driver.querySingleBlocking(new Query("RETURN $x").x("x", 7), 5, TimeUnit.SECONDS);
+            assertEquals(7, response.result().at("x").asInteger());
+        } finally {
+            driver.close();
+        }
+    }
+
+    @Test
+    public void reconnectTest() throws Exception {
+        List<LoopbackTransport> transports = new CopyOnWriteArrayList<>();
+        Driver driver = new Driver(new SurrealURL(MockPeer.URL), () -> {
+            LoopbackTransport transport = new LoopbackTransport(new MockPeer());
+            transports.add(transport);
+            return transport;
+        });
+        try {
+            driver.setReconnect(new ReconnectPolicy().initialDelay(10, TimeUnit.MILLISECONDS));
+            transports.get(0).disconnect(1006, "Connection dropped");
+            // Queries are queued once the driver has noticed the drop.
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (transports.size() < 2 && System.nanoTime() < deadline)
+                Thread.sleep(5);
+
+            Response response = driver.querySingleBlocking(new Query("RETURN $x").x("x", "again"), 5,
+                    TimeUnit.SECONDS);
+            assertEquals("again", response.result().at("x").asString());
+            assertEquals(2, transports.size());
+        } finally {
+            driver.close();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package net.buj.surreal;
+
+import org.junit.Test;
+
+import mjson.Json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+public class MetricsTest {
+    /**
+     * Answers queries with text that is longer in UTF-8, counting the bytes
+     * of every frame it sends.
+     */
+    private static final class Peer implements LoopbackTransport.Peer {
+        final List<Integer> frames = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onText(LoopbackTransport transport, String message) {
+            Json request = Json.read(message);
+            Json result = request.at("method").asString().equals("query")
+                    ? Json.array(MockPeer.ok("ä € 😀"))
+                    : Json.nil();
+            String frame = Json.object().set("id", request.at("id")).set("result", result).toString();
+            frames.add(frame.getBytes(StandardCharsets.UTF_8).length);
+            transport.receiveText(frame);
+        }
+    }
+
+    @Test
+    public void bytesTest() throws Exception {
+        Peer peer = new Peer();
+        Metrics metrics = new Metrics();
+        try (Driver driver = new Driver(new SurrealURL(MockPeer.URL), () -> new LoopbackTransport(peer))) {
+            driver.setMetrics(metrics);
+            driver.querySingleBlocking(new Query("RETURN 1"), 5, TimeUnit.SECONDS);
+
+            // Frames are received in order, the answer to the query last.
+            Metrics.Snapshot snapshot = metrics.snapshot();
+            long bytes = 0;
+            for (int i = peer.frames.size() - (int) snapshot.framesIn; i < peer.frames.size(); i++)
+                bytes += peer.frames.get(i);
+            assertTrue(snapshot.framesIn > 0);
+            assertEquals(bytes, snapshot.bytesIn);
+        }
+    }
+
+    @Test
+    public void rateTest() throws Exception {
+        try (Metrics metrics = new Metrics()) {
+            for (int i = 0; i < 10; i++)
+                metrics.liveEvent();
+
+            CompletableFuture<Metrics.Snapshot> exported = new CompletableFuture<>();
+            metrics.export(exported::complete, 10, TimeUnit.MILLISECONDS);
+            // Only counts events since the exporter was added.
+            assertEquals(0, exported.get(5, TimeUnit.SECONDS).liveEventsPerSecond, 0);
+
+            // Not reset by the exporter.
+            Metrics.Snapshot snapshot = metrics.snapshot();
+            assertEquals(10, snapshot.liveEvents);
+            assertTrue(snapshot.liveEventsPerSecond > 0);
+        }
+    }
+}
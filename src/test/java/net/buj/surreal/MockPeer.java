@@ -0,0 +1,135 @@
+package net.buj.surreal;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import mjson.Json;
+
+/**
+ * A loopback peer speaking enough of the SurrealDB RPC protocol for tests.
+ * <p>
+ * Answers {@code query} requests with {@link MockPeer#query(String, Json)},
+ * which echoes the query parameters by default, and other requests with
+ * {@link MockPeer#call(String, Json)}, which answers {@code null}. Handlers
+ * answer with a JSON-RPC error by throwing {@link MockPeer.RpcError}, and
+ * don't answer at all by returning {@code null}.
+ */
+class MockPeer implements LoopbackTransport.Peer {
+    /**
+     * Answers a request with a JSON-RPC error.
+     */
+    static final class RpcError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        RpcError(String message) {
+            super(message);
+        }
+    }
+
+    static final String URL = "ws://token@localhost/ns/db";
+
+    /**
+     * SurrealQL of every query received, in order.
+     */
+    final List<String> queries = new CopyOnWriteArrayList<>();
+    /**
+     * The transport of the last request.
+     */
+    volatile LoopbackTransport transport;
+
+    /**
+     * Create a driver connected to this peer.
+     *
+     * @return A connected driver.
+     *
+     * @throws Exception If the driver couldn't connect.
+     */
+    Driver connect() throws Exception {
+        return new Driver(new SurrealURL(URL), () -> new LoopbackTransport(this));
+    }
+
+    /**
+     * Answer a query.
+     *
+     * @param sql    SurrealQL text.
+     * @param params Query parameters.
+     *
+     * @return The result, usually an array of statement results, or
+     *         {@code null} to not answer.
+     */
+    Json query(String sql, Json params) {
+        return Json.array(ok(params));
+    }
+
+    /**
+     * Answer a request other than {@code query}.
+     *
+     * @param method RPC method.
+     * @param params RPC parameters.
+     *
+     * @return The result, or {@code null} to not answer.
+     */
+    Json call(String method, Json params) {
+        return Json.nil();
+    }
+
+    /**
+     * Get the result of a successful statement.
+     *
+     * @param result Statement result.
+     *
+     * @return Statement result with {@code OK} status.
+     */
+    static Json ok(Object result) {
+        return Json.object().set("status", "OK").set("time", "1ms").set("result", result);
+    }
+
+    /**
+     * Get the result of a failed statement.
+     *
+     * @param message Error message.
+     *
+     * @return Statement result with {@code ERR} status.
+     */
+    static Json err(String message) {
+        return Json.object().set("status", "ERR").set("time", "1ms").set("result", message);
+    }
+
+    /**
+     * Send a live query notification over the last transport.
+     *
+     * @param id     Live query ID.
+     * @param action Action, such as {@code CREATE}.
+     * @param record The record.
+     */
+    void event(String id, String action, Json record) {
+        transport.receiveText(Json.object()
+                .set("result", Json.object().set("id", id).set("action", action).set("result", record)).toString());
+    }
+
+    @Override
+    public void onText(LoopbackTransport transport, String message) {
+        this.transport = transport;
+        Json request = Json.read(message);
+        String method = request.at("method").asString();
+        Json params = request.at("params");
+        Json reply = Json.object().set("id", request.at("id"));
+
+        try {
+            Json result;
+            if (method.equals("query")) {
+                String sql = params.at(0).asString();
+                queries.add(sql);
+                result = query(sql, params.at(1));
+            } else {
+                result = call(method, params);
+            }
+            if (result == null)
+                return;
+            reply.set("result", result);
+        } catch (RpcError e) {
+            reply.set("error", Json.object().set("code", -32000).set("message", e.getMessage()));
+        }
+        transport.receiveText(reply.toString());
+    }
+}
@@ -0,0 +1,147 @@
+package net.buj.surreal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import mjson.Json;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class QueryCacheTest {
+    /**
+     * Starts live queries and holds the answer to queries on {@code held}
+     * until told to answer.
+     */
+    private static final class Table extends MockPeer {
+        final CompletableFuture<String> held = new CompletableFuture<>();
+
+        @Override
+        Json query(String sql, Json params) {
+            if (sql.startsWith("LIVE"))
+                return Json.array(ok("live-1"));
+            return sql.contains("held") ? null : super.query(sql, params);
+        }
+
+        @Override
+        public void onText(LoopbackTransport transport, String message) {
+            super.onText(transport, message);
+            if (message.contains("\"SELECT * FROM held\""))
+                held.complete(Json.read(message).at("id").toString());
+        }
+
+        void answer(Json result) throws Exception {
+            transport.receiveText("{\"id\":" + held.get(5, TimeUnit.SECONDS) + ",\"result\":"
+                    + Json.array(ok(result)) + "}");
+        }
+
+        int count(String table) {
+            int count = 0;
+            for (String sql : queries)
+                if (sql.startsWith("SELECT") && sql.contains(table))
+                    count++;
+            return count;
+        }
+    }
+
+    private Table table;
+    private Driver driver;
+
+    @Before
+    public void setUp() throws Exception {
+        table = new Table();
+        driver = table.connect();
+        driver.setCache(16, 0, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        driver.close();
+    }
+
+    private int read(String sql, int n) throws Exception {
+        return driver.querySingleBlocking(new Query(sql).x("n", n).cached("user"), 5, TimeUnit.SECONDS)
+                .result().at("n").asInteger();
+    }
+
+    /**
+     * Read until the result is stored, which needs the table to be watched.
+     *
+     * @return Amount of reads sent.
+     */
+    private int warm() throws Exception {
+        read("SELECT * FROM user WHERE n = $n", 1);
+        read("SELECT * FROM user WHERE n = $n", 1);
+        return table.count("user");
+    }
+
+    @Test
+    public void hitTest() throws Exception {
+        int sent = warm();
+        assertEquals(1, read("SELECT * FROM user WHERE n = $n", 1));
+        assertEquals(sent, table.count("user"));
+
+        // Same text ignoring formatting, and the same parameters.
+        assertEquals(1, read("SELECT *  FROM user\n WHERE n = $n", 1));
+        assertEquals(sent, table.count("user"));
+
+        // Other parameters.
+        assertEquals(2, read("SELECT * FROM user WHERE n = $n", 2));
+        assertEquals(sent + 1, table.count("user"));
+    }
+
+    @Test
+    public void singleFlightTest() throws Exception {
+        List<CompletableFuture<Response>> reads = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            reads.add(driver.querySingleAsync(new Query("SELECT * FROM held").cached("held")));
+        table.held.get(5, TimeUnit.SECONDS);
+        driver.querySingleBlocking(new Query("RETURN 1"), 5, TimeUnit.SECONDS);
+        assertEquals(1, table.count("held"));
+
+        table.answer(Json.array("a"));
+        for (CompletableFuture<Response> read : reads)
+            assertEquals(Json.array("a"), read.get(5, TimeUnit.SECONDS).result());
+        assertEquals(1, table.count("held"));
+    }
+
+    @Test
+    public void invalidateTest() throws Exception {
+        int sent = warm();
+
+        // Dropped once the table changes.
+        table.event("live-1", "UPDATE", Json.object().set("id", "user:a"));
+        driver.querySingleBlocking(new Query("RETURN 1"), 5, TimeUnit.SECONDS);
+        read("SELECT * FROM user WHERE n = $n", 1);
+        assertEquals(sent + 1, table.count("user"));
+
+        // And stored again.
+        read("SELECT * FROM user WHERE n = $n", 1);
+        assertEquals(sent + 1, table.count("user"));
+    }
+
+    @Test
+    public void evictTest() throws Exception {
+        driver.setCache(10, 0, TimeUnit.SECONDS);
+        int sent = warm();
+        for (int n = 2; n <= 10; n++)
+            read("SELECT * FROM user WHERE n = $n", n);
+        sent += 9;
+
+        // Used last, so it stays when the two oldest entries are dropped.
+        read("SELECT * FROM user WHERE n = $n", 1);
+        read("SELECT * FROM user WHERE n = $n", 11);
+        assertEquals(sent + 1, table.count("user"));
+
+        read("SELECT * FROM user WHERE n = $n", 1);
+        read("SELECT * FROM user WHERE n = $n", 4);
+        assertEquals(sent + 1, table.count("user"));
+        read("SELECT * FROM user WHERE n = $n", 2);
+        assertEquals(sent + 2, table.count("user"));
+    }
+}
@@ -0,0 +1,90 @@
+package net.buj.surreal;
+
+import org.junit.Test;
+
+import mjson.Json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+public class ResponseTest {
+    public static final class User {
+        public String name;
+    }
+
+    private static Response lazy(String status, String result) {
+        String frame = "{\"result\":" + result + "}";
+        return new Response(status, "1ms", frame, 10, 10 + result.length());
+    }
+
+    @Test
+    public void resultTest() {
+        Response response = lazy("OK", "[{\"name\":\"a\"},{\"name\":\"b\"}]");
+        Json result = response.result();
+        assertEquals("b", result.at(1).at("name").asString());
+        assertSame(result, response.result());
+    }
+
+    @Test
+    public void raceTest() throws Exception {
+        for (int round = 0; round < 100; round++) {
+            Response response = lazy("OK", "[{\"name\":\"a\"},{\"name\":\"b\"}]");
+            CountDownLatch start = new CountDownLatch(1);
+            List<Json> results = new CopyOnWriteArrayList<>();
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                Thread thread = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    results.add(response.result());
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            start.countDown();
+            for (Thread thread : threads)
+                thread.join();
+
+            // Changes made through one caller's tree are seen by all others.
+            for (Json result : results)
+                assertSame(response.result(), result);
+        }
+    }
+
+    @Test
+    public void asListTest() throws Exception {
+        List<User> users = lazy("OK", "[{\"name\":\"a\"},{\"name\":\"b\"}]").asList(User.class);
+        assertEquals(2, users.size());
+        assertEquals("a", users.get(0).name);
+
+        assertEquals(0, lazy("OK", "null").asList(User.class).size());
+        assertEquals("c", lazy("OK", "{\"name\":\"c\"}").as(User.class).name);
+    }
+
+    @Test
+    public void errorTest() {
+        try {
+            lazy("ERR", "\"Table not found\"").ok();
+            fail("Expected a ResponseException");
+        } catch (ResponseException e) {
+            assertEquals("Table not found", e.getMessage());
+        }
+        assertNull(new Response("OK", "1ms", null).result());
+    }
+
+    @Test
+    public void streamedTest() {
+        assertThrows(IllegalStateException.class, () -> new Response("OK", "1ms", null).as(User.class));
+    }
+}
@@ -0,0 +1,104 @@
+package net.buj.surreal;
+
+import org.junit.Test;
+
+import mjson.Json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RpcClientTest {
+    /**
+     * Never answers queries on {@code held}, and answers the first few
+     * queries on {@code broken} with a frame that can't be decoded.
+     */
+    private static final class Broken extends MockPeer {
+        final AtomicInteger broken = new AtomicInteger(Integer.MAX_VALUE);
+        final String frame;
+
+        Broken(String frame) {
+            this.frame = frame;
+        }
+
+        @Override
+        Json query(String sql, Json params) {
+            return sql.contains("held") ? null : super.query(sql, params);
+        }
+
+        @Override
+        public void onText(LoopbackTransport transport, String message) {
+            Json request = Json.read(message);
+            if (message.contains("broken") && broken.getAndDecrement() > 0)
+                transport.receiveText(frame.replace("$id", request.at("id").toString()));
+            else
+                super.onText(transport, message);
+        }
+    }
+
+    private static Throwable failure(CompletableFuture<?> future) {
+        return assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS)).getCause();
+    }
+
+    @Test
+    public void truncatedTest() throws Exception {
+        Broken peer = new Broken("{\"id\":$id,\"error\":{\"code\":");
+        try (Driver driver = peer.connect()) {
+            CompletableFuture<Response> held = driver.querySingleAsync(new Query("SELECT * FROM held"));
+            CompletableFuture<Response> broken = driver.querySingleAsync(new Query("SELECT * FROM broken"));
+
+            Throwable error = failure(broken);
+            assertTrue(error instanceof ResponseException);
+            assertTrue(error.getCause() instanceof IllegalStateException);
+            // Closed, since it can't tell what else the frame was about.
+            assertTrue(failure(held) instanceof ResponseException);
+        }
+    }
+
+    @Test
+    public void sendFailureTest() throws Exception {
+        MockPeer peer = new MockPeer() {
+            @Override
+            Json query(String sql, Json params) {
+                // Thrown on the sending thread, like a failing transport.
+                if (sql.contains("rejected"))
+                    throw new IllegalStateException("Rejected");
+                return super.query(sql, params);
+            }
+        };
+        try (Driver driver = peer.connect()) {
+            CompletableFuture<Response> rejected = driver.querySingleAsync(new Query("SELECT * FROM rejected"));
+
+            Throwable error = failure(rejected);
+            assertTrue(error instanceof ResponseException);
+            assertTrue(error.getCause() instanceof IllegalStateException);
+            assertEquals(0, driver.inFlight());
+        }
+    }
+
+    @Test
+    public void replayTest() throws Exception {
+        List<LoopbackTransport> transports = new CopyOnWriteArrayList<>();
+        Broken peer = new Broken("not json");
+        peer.broken.set(1);
+        try (Driver driver = new Driver(new SurrealURL(MockPeer.URL), () -> {
+            LoopbackTransport transport = new LoopbackTransport(peer);
+            transports.add(transport);
+            return transport;
+        })) {
+            driver.setReconnect(new ReconnectPolicy().initialDelay(10, TimeUnit.MILLISECONDS));
+            Response response = driver.querySingleBlocking(new Query("SELECT * FROM broken WHERE n = $n").x("n", 3)
+                    .idempotent(), 5, TimeUnit.SECONDS);
+
+            assertEquals(3, response.result().at("n").asInteger());
+            assertEquals(2, transports.size());
+        }
+    }
+}
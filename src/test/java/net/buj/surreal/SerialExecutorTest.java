@@ -0,0 +1,134 @@
+package net.buj.surreal;
+
+import org.junit.Test;
+
+import mjson.Json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SerialExecutorTest {
+    @Test
+    public void orderTest() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Integer> order = new CopyOnWriteArrayList<>();
+            CountDownLatch done = new CountDownLatch(1);
+            SerialExecutor executor = new SerialExecutor(pool);
+            for (int i = 0; i < 1000; i++) {
+                int n = i;
+                executor.execute(() -> order.add(n));
+            }
+            executor.execute(done::countDown);
+
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 1000; i++)
+                assertEquals(i, (int) order.get(i));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Records the versions of the events of one live query, waiting for a
+     * latch before handling the first one.
+     */
+    private static final class Versions implements EventCallback<LiveResponse> {
+        final List<Integer> versions = new CopyOnWriteArrayList<>();
+        final CountDownLatch done;
+        final CountDownLatch start;
+
+        Versions(CountDownLatch done, CountDownLatch start) {
+            this.done = done;
+            this.start = start;
+        }
+
+        @Override
+        public void run(LiveResponse value) {
+            try {
+                assertTrue(start.await(5, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+            versions.add(value.data.at("v").asInteger());
+            done.countDown();
+        }
+
+        @Override
+        public void fail(Exception error) {
+        }
+    }
+
+    @Test
+    public void liveDispatchTest() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        MockPeer peer = new MockPeer();
+        try (Driver driver = peer.connect()) {
+            driver.querySingleBlocking(new Query("RETURN 1"), 5, TimeUnit.SECONDS);
+            driver.setLiveExecutor(pool);
+            Versions fast = new Versions(new CountDownLatch(100), new CountDownLatch(0));
+            Versions slow = new Versions(new CountDownLatch(100), fast.done);
+            driver.onLive("slow", slow);
+            driver.onLive("fast", fast);
+
+            for (int i = 0; i < 100; i++) {
+                peer.event("slow", "UPDATE", Json.object().set("v", i));
+                peer.event("fast", "UPDATE", Json.object().set("v", i));
+            }
+
+            // The slow live query waits for all events of the other one.
+            assertTrue(fast.done.await(5, TimeUnit.SECONDS));
+            assertTrue(slow.done.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 100; i++) {
+                assertEquals(i, (int) slow.versions.get(i));
+                assertEquals(i, (int) fast.versions.get(i));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void failingTaskTest() throws Exception {
+        ExecutorService pool = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task);
+            thread.setUncaughtExceptionHandler((t, e) -> {
+            });
+            return thread;
+        });
+        try {
+            AtomicInteger idle = new AtomicInteger();
+            SerialExecutor executor = new SerialExecutor(pool, queue -> idle.incrementAndGet());
+            executor.execute(() -> {
+                throw new AssertionError("Broken task");
+            });
+            CountDownLatch after = new CountDownLatch(1);
+            executor.execute(after::countDown);
+            // Drains and idle reports run on the single pool thread, in order.
+            pool.submit(() -> {
+            }).get(5, TimeUnit.SECONDS);
+            assertEquals(0, after.getCount());
+            assertTrue(executor.isIdle());
+            int reports = idle.get();
+            assertTrue(reports >= 1);
+
+            // Still accepts tasks, and reports being idle after each drain.
+            executor.execute(() -> {
+            });
+            pool.submit(() -> {
+            }).get(5, TimeUnit.SECONDS);
+            assertEquals(reports + 1, idle.get());
+            assertTrue(executor.isIdle());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
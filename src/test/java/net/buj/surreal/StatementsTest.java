@@ -0,0 +1,93 @@
+package net.buj.surreal;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+
+public class StatementsTest {
+    @Test
+    public void countTest() {
+        assertEquals(0, Statements.analyze("").count);
+        assertEquals(0, Statements.analyze(" ; -- nothing\n;").count);
+        assertEquals(1, Statements.analyze("SELECT * FROM x").count);
+        assertEquals(2, Statements.analyze("SELECT * FROM x; SELECT * FROM y").count);
+        // Separators inside strings, quoted identifiers and comments.
+        assertEquals(1, Statements.analyze("SELECT 'a;b', \"c;d\", `e;f`, ⟨g;h⟩ FROM x").count);
+        assertEquals(1, Statements.analyze("SELECT * FROM x -- a;b\n/* c;d */ # e;f\n// g;h").count);
+        assertEquals(1, Statements.analyze("SELECT 'it\\'s;' FROM x").count);
+        // Separators inside blocks.
+        assertEquals(1, Statements.analyze("IF true { LET $a = 1; RETURN [$a, (SELECT * FROM x; )]; }").count);
+        assertEquals(2, Statements.analyze("DEFINE FUNCTION fn::a() { RETURN { a: 1 }; }; RETURN fn::a()").count);
+    }
+
+    @Test
+    public void terminatedTest() {
+        assertFalse(Statements.analyze("SELECT * FROM x").terminated);
+        assertTrue(Statements.analyze("SELECT * FROM x;").terminated);
+        assertTrue(Statements.analyze("SELECT * FROM x; -- done").terminated);
+        assertTrue(Statements.analyze("SELECT * FROM x; /* a;b */\n").terminated);
+        assertFalse(Statements.analyze("SELECT * FROM x; RETURN 1 -- a;b").terminated);
+        assertFalse(Statements.analyze("RETURN { a: 1; }").terminated);
+    }
+
+    @Test
+    public void endTest() {
+        assertEquals(15, Statements.analyze("SELECT * FROM x").end);
+        assertEquals(15, Statements.analyze("SELECT * FROM x; -- a;b").end);
+        assertEquals(19, Statements.analyze("RETURN 1; RETURN $a /* ; */ ;\n").end);
+        assertEquals(16, Statements.analyze("RETURN { a: 1; }").end);
+        assertEquals(0, Statements.analyze("-- nothing").end);
+    }
+
+    @Test
+    public void batchableTest() {
+        assertTrue(Statements.analyze("SELECT * FROM x; CREATE x").batchable);
+        assertFalse(Statements.analyze("BEGIN; CREATE x; COMMIT").batchable);
+        assertFalse(Statements.analyze("use NS test").batchable);
+        // Only the first word of a statement counts.
+        assertTrue(Statements.analyze("SELECT * FROM begin; SELECT 'COMMIT' FROM x").batchable);
+    }
+
+    @Test
+    public void orderedTest() {
+        assertTrue(Statements.analyze("SELECT * FROM x ORDER BY n DESC").ordered);
+        assertTrue(Statements.analyze("RETURN 1; SELECT * FROM x order\nby n;").ordered);
+        assertFalse(Statements.analyze("SELECT * FROM x ORDER BY n; SELECT * FROM x").ordered);
+        // Only a clause of the statement itself counts.
+        assertFalse(Statements.analyze("SELECT * FROM (SELECT * FROM x ORDER BY n)").ordered);
+        assertFalse(Statements.analyze("SELECT 'ORDER BY n' FROM x -- ORDER BY n").ordered);
+    }
+
+    @Test
+    public void variablesTest() {
+        assertEquals(Set.of("a", "b"), Statements.analyze("LET $a = 1; let $b = $a; SELECT * FROM $c").variables);
+        assertEquals(Set.of(), Statements.analyze("SELECT * FROM x WHERE y = 'LET $a = 1'").variables);
+    }
+
+    @Test
+    public void prefixParamsTest() {
+        Set<String> names = Set.of("a", "b");
+        assertEquals("SELECT * FROM x WHERE a = $p_a AND b = $p_b AND c = $c AND d = $auth",
+                Statements.prefixParams("SELECT * FROM x WHERE a = $a AND b = $b AND c = $c AND d = $auth", "p_",
+                        names));
+        // Not parameters.
+        assertEquals("SELECT '$a', \"$a\", `$a`, ⟨$a⟩ FROM x -- $a\n/* $b */",
+                Statements.prefixParams("SELECT '$a', \"$a\", `$a`, ⟨$a⟩ FROM x -- $a\n/* $b */", "p_",
+                        names));
+        assertEquals("RETURN $ + 1; { LET $p_a = $p_b; }",
+                Statements.prefixParams("RETURN $ + 1; { LET $a = $b; }", "p_", names));
+    }
+
+    @Test
+    public void normalizeTest() {
+        assertEquals("SELECT * FROM x WHERE a = $a;",
+                Statements.normalize("  SELECT *\n\tFROM x -- table\n  WHERE /* filter */ a = $a;  # done"));
+        assertEquals("SELECT 'a  -- b', `c  d` FROM ⟨e  f⟩",
+                Statements.normalize("SELECT 'a  -- b',   `c  d`\nFROM ⟨e  f⟩"));
+        assertEquals(Statements.normalize("RETURN { a: 1 }"), Statements.normalize("RETURN  {\n  a: 1\n}"));
+    }
+}
@@ -0,0 +1,57 @@
+package net.buj.surreal;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SurrealURLTest {
+    private static void assertInvalid(String url, String message) throws Exception {
+        try {
+            new SurrealURL(url);
+            fail("Expected an InvalidURLException for " + url);
+        } catch (InvalidURLException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    @Test
+    public void defaultsTest() throws Exception {
+        SurrealURL url = new SurrealURL("ws://root:secret@localhost:8000/ns/db");
+        assertEquals("ns", url.namespace);
+        assertEquals("db", url.database);
+        assertEquals(SurrealURL.Protocol.JSON, url.protocol);
+        assertFalse(url.compression);
+        assertEquals(6, url.compressionLevel);
+        assertEquals(1024, url.compressionThreshold);
+    }
+
+    @Test
+    public void compressionTest() throws Exception {
+        SurrealURL url = new SurrealURL(
+                "ws://token@localhost/ns/db?compression=DEFLATE&compressionLevel=0&compressionThreshold=0");
+        assertTrue(url.compression);
+        assertEquals(0, url.compressionLevel);
+        assertEquals(0, url.compressionThreshold);
+
+        assertFalse(new SurrealURL("ws://token@localhost/ns/db?compression=none").compression);
+    }
+
+    @Test
+    public void invalidOptionsTest() throws Exception {
+        assertInvalid("ws://token@localhost/ns/db?compression=gzip", "Unknown compression 'gzip'");
+        assertInvalid("ws://token@localhost/ns/db?compression", "Unknown compression ''");
+        assertInvalid("ws://token@localhost/ns/db?compressionLevel=10",
+                "Option 'compressionLevel' must be a number from 0 to 9");
+        assertInvalid("ws://token@localhost/ns/db?compressionLevel=fast",
+                "Option 'compressionLevel' must be a number from 0 to 9");
+        assertInvalid("ws://token@localhost/ns/db?compressionThreshold=-1",
+                "Option 'compressionThreshold' must be a number from 0 to " + Integer.MAX_VALUE);
+        assertInvalid("ws://token@localhost/ns/db?compressionThreshold=4294967296",
+                "Option 'compressionThreshold' must be a number from 0 to " + Integer.MAX_VALUE);
+        assertInvalid("ws://token@localhost/ns/db?protocol=xml", "Unknown protocol 'xml'");
+        assertInvalid("ws://token@localhost/ns/db?level=9", "Unknown options [level]");
+    }
+}
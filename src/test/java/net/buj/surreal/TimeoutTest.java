@@ -0,0 +1,90 @@
+package net.buj.surreal;
+
+import org.junit.Test;
+
+import mjson.Json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class TimeoutTest {
+    /**
+     * Never answers queries on {@code held}.
+     */
+    private static final class Held extends MockPeer {
+        @Override
+        Json query(String sql, Json params) {
+            return sql.contains("held") ? null : super.query(sql, params);
+        }
+    }
+
+    /**
+     * Records the thread it was failed on.
+     */
+    private static final class Failure implements EventCallback<Response> {
+        final CompletableFuture<Thread> thread = new CompletableFuture<>();
+        volatile Exception error;
+
+        @Override
+        public void run(Response value) {
+            thread.completeExceptionally(new AssertionError("Answered"));
+        }
+
+        @Override
+        public void fail(Exception error) {
+            this.error = error;
+            thread.complete(Thread.currentThread());
+        }
+    }
+
+    @Test
+    public void sentTest() throws Exception {
+        try (Driver driver = new Held().connect()) {
+            Failure failure = new Failure();
+            driver.querySingle(new Query("SELECT * FROM held").timeout(50, TimeUnit.MILLISECONDS), failure);
+
+            Thread thread = failure.thread.get(5, TimeUnit.SECONDS);
+            assertTrue(failure.error instanceof TimeoutException);
+            assertNotEquals("SurrealRPC-timer", thread.getName());
+            assertEquals(0, driver.inFlight());
+        }
+    }
+
+    @Test
+    public void queuedTest() throws Exception {
+        MockPeer peer = new MockPeer();
+        List<LoopbackTransport> transports = new CopyOnWriteArrayList<>();
+        try (Driver driver = new Driver(new SurrealURL(MockPeer.URL), () -> {
+            LoopbackTransport transport = new LoopbackTransport(peer);
+            transports.add(transport);
+            return transport;
+        })) {
+            // Answered once the handshake is done, dropping the connection
+            // before would fail the handshake.
+            driver.querySingleBlocking(new Query("RETURN 1"), 5, TimeUnit.SECONDS);
+            driver.setReconnect(new ReconnectPolicy().initialDelay(500, TimeUnit.MILLISECONDS).jitter(0));
+            transports.get(0).disconnect(1006, "Connection dropped");
+            transports.get(0).close().get(5, TimeUnit.SECONDS);
+
+            // Waits for the connection longer than its timeout.
+            Failure failure = new Failure();
+            driver.querySingle(new Query("RETURN 1").timeout(50, TimeUnit.MILLISECONDS), failure);
+            Thread thread = failure.thread.get(400, TimeUnit.MILLISECONDS);
+            assertTrue(failure.error instanceof TimeoutException);
+            assertNotEquals("SurrealRPC-timer", thread.getName());
+
+            // Sent after reconnecting with what is left of its timeout.
+            CompletableFuture<Response> sent = driver.querySingleAsync(new Query("RETURN $x").x("x", 1)
+                    .timeout(5, TimeUnit.SECONDS));
+            assertEquals(1, sent.get(5, TimeUnit.SECONDS).result().at("x").asInteger());
+            assertEquals(0, driver.inFlight());
+        }
+    }
+}
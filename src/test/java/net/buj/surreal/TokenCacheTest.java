@@ -0,0 +1,116 @@
+package net.buj.surreal;
+
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import mjson.Json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TokenCacheTest {
+    private static String token(String claims) {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return encoder.encodeToString("{\"alg\":\"HS512\"}".getBytes(StandardCharsets.UTF_8)) + "."
+                + encoder.encodeToString(claims.getBytes(StandardCharsets.UTF_8)) + ".signature";
+    }
+
+    @Test
+    public void expiryTest() {
+        assertEquals(1700000000000L, TokenCache.expiry(token("{\"exp\":1700000000}")));
+        assertEquals(0, TokenCache.expiry(token("{\"ns\":\"test\"}")));
+        assertEquals(0, TokenCache.expiry("not a token"));
+    }
+
+    @Test
+    public void reuseTest() throws Exception {
+        SurrealURL url = new SurrealURL("ws://root:root@localhost/ns/db");
+        TokenCache cache = new TokenCache();
+        AtomicInteger signIns = new AtomicInteger();
+        long exp = System.currentTimeMillis() / 1000 + TimeUnit.HOURS.toSeconds(1);
+        CompletableFuture<String> pending = new CompletableFuture<>();
+
+        CompletableFuture<String> first = cache.get(url, () -> {
+            signIns.incrementAndGet();
+            return pending;
+        });
+        CompletableFuture<String> second = cache.get(url, () -> {
+            signIns.incrementAndGet();
+            return CompletableFuture.completedFuture(token("{}"));
+        });
+        assertSame(first, second);
+
+        pending.complete(token("{\"exp\":" + exp + "}"));
+        cache.get(url, () -> {
+            signIns.incrementAndGet();
+            return CompletableFuture.completedFuture(token("{}"));
+        }).get();
+        assertEquals(1, signIns.get());
+    }
+
+    @Test
+    public void expiredTest() throws Exception {
+        SurrealURL url = new SurrealURL("ws://root:root@localhost/ns/db");
+        TokenCache cache = new TokenCache();
+        AtomicInteger signIns = new AtomicInteger();
+        // Expires within the safety margin.
+        long exp = System.currentTimeMillis() / 1000 + 10;
+
+        for (int i = 0; i < 2; i++)
+            cache.get(url, () -> {
+                signIns.incrementAndGet();
+                return CompletableFuture.completedFuture(token("{\"exp\":" + exp + "}"));
+            }).get();
+        assertEquals(2, signIns.get());
+    }
+
+    @Test
+    public void revokedTest() throws Exception {
+        long exp = System.currentTimeMillis() / 1000 + TimeUnit.HOURS.toSeconds(1);
+        AtomicInteger signIns = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/signin", exchange -> {
+            String token = token("{\"exp\":" + exp + ",\"n\":" + signIns.incrementAndGet() + "}");
+            byte[] body = Json.object().set("code", 200).set("token", token).toString()
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+
+        Set<String> revoked = ConcurrentHashMap.newKeySet();
+        MockPeer peer = new MockPeer() {
+            @Override
+            Json call(String method, Json params) {
+                if (method.equals("authenticate") && revoked.contains(params.at(0).asString()))
+                    throw new RpcError("The token has been revoked");
+                return super.call(method, params);
+            }
+        };
+
+        try {
+            SurrealURL url = new SurrealURL("ws://root:root@127.0.0.1:" + server.getAddress().getPort() + "/ns/db");
+            TokenCache cache = new TokenCache();
+            Driver.connectAsync(url, () -> new LoopbackTransport(peer), cache).get(5, TimeUnit.SECONDS).close();
+            String token = cache.get(url, () -> CompletableFuture.failedFuture(new AssertionError())).get();
+            assertEquals(1, signIns.get());
+
+            revoked.add(token);
+            Driver.connectAsync(url, () -> new LoopbackTransport(peer), cache).get(5, TimeUnit.SECONDS).close();
+            assertEquals(2, signIns.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+}
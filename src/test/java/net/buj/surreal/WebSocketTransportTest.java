@@ -0,0 +1,95 @@
+package net.buj.surreal;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import mjson.Json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class WebSocketTransportTest {
+    /**
+     * Accepts permessage-deflate and answers queries with their parameters.
+     */
+    private static final class Server extends WebSocketServer {
+        final CountDownLatch started = new CountDownLatch(1);
+        volatile boolean deflated;
+
+        Server() {
+            super(new InetSocketAddress("127.0.0.1", 0), List.<Draft>of(new Draft_6455(new PerMessageDeflateExtension())));
+            setReuseAddr(true);
+        }
+
+        @Override
+        public void onStart() {
+            started.countDown();
+        }
+
+        @Override
+        public void onOpen(WebSocket conn, ClientHandshake handshake) {
+            deflated = ((Draft_6455) conn.getDraft()).getExtension() instanceof PerMessageDeflateExtension;
+        }
+
+        @Override
+        public void onMessage(WebSocket conn, String message) {
+            Json request = Json.read(message);
+            Json result = Json.nil();
+            if (request.at("method").asString().equals("query"))
+                result = Json.array(MockPeer.ok(request.at("params").at(1)));
+            conn.send(Json.object().set("id", request.at("id")).set("result", result).toString());
+        }
+
+        @Override
+        public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+        }
+
+        @Override
+        public void onError(WebSocket conn, Exception ex) {
+        }
+    }
+
+    private Server server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new Server();
+        server.start();
+        assertTrue(server.started.await(5, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    @Test
+    public void deflateTest() throws Exception {
+        SurrealURL url = new SurrealURL("ws://token@127.0.0.1:" + server.getPort()
+                + "/ns/db?compression=deflate&compressionThreshold=16");
+        try (Driver driver = new Driver(url)) {
+            String text = "compressible ".repeat(1000);
+            for (int i = 0; i < 3; i++) {
+                Response response = driver.querySingleBlocking(new Query("RETURN $text").x("text", text + i), 5,
+                        TimeUnit.SECONDS);
+                assertEquals(text + i, response.result().at("text").asString());
+            }
+            // Smaller than the threshold, sent as is.
+            assertEquals(1, driver.querySingleBlocking(new Query("RETURN $n").x("n", 1), 5, TimeUnit.SECONDS)
+                    .result().at("n").asInteger());
+        }
+        assertTrue(server.deflated);
+    }
+}
@@ -9,6 +9,7 @@ import net.buj.surreal.Response;
 
 import static org.junit.Assume.assumeNotNull;
 
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -66,7 +67,7 @@ public class LibraryTest {
                                             throw new RuntimeException(e);
                                         }
 
-                                        if (value[0].result.asJsonList().get(0).asInteger() == nonce)
+                                        if (value[0].result().asJsonList().get(0).asInteger() == nonce)
                                             synchronized (complete) {
                                                 complete[0] = true;
                                             }
@@ -107,4 +108,51 @@ public class LibraryTest {
                 throw new Exception("Took too long to complete");
         }
     }
+
+    @Test
+    public void asyncQueryTest() throws Exception {
+        assumeNotNull(connectionUrl);
+
+        try (Driver driver = new Driver(connectionUrl)) {
+            int nonce = new Random().nextInt();
+
+            int result = driver
+                    .queryAsync(new Query("define table __surrealrpcasynctest;"
+                            + "create __surrealrpcasynctest content { nonce: $nonce };").x("nonce", nonce))
+                    .thenCompose(created -> driver.querySingleAsync(
+                            new Query("select value nonce from __surrealrpcasynctest;")))
+                    .thenApply(response -> response.result().asJsonList().get(0).asInteger())
+                    .get(5, TimeUnit.SECONDS);
+
+            driver.queryAsync(new Query("remove table __surrealrpcasynctest;")).get(5, TimeUnit.SECONDS);
+
+            if (result != nonce)
+                throw new Exception("Invalid nonce");
+        }
+    }
+
+    public static class Nonce {
+        public String id;
+        public int nonce;
+    }
+
+    @Test
+    public void typedQueryTest() throws Exception {
+        assumeNotNull(connectionUrl);
+
+        try (Driver driver = new Driver(connectionUrl)) {
+            int nonce = new Random().nextInt();
+
+            List<Nonce> rows = driver
+                    .queryAsync(new Query("define table __surrealrpctypedtest;"
+                            + "create __surrealrpctypedtest content { nonce: $nonce, ignored: true };")
+                            .x("nonce", nonce), Nonce.class)
+                    .get(5, TimeUnit.SECONDS);
+
+            driver.queryAsync(new Query("remove table __surrealrpctypedtest;")).get(5, TimeUnit.SECONDS);
+
+            if (rows.size() != 1 || rows.get(0).nonce != nonce || !rows.get(0).id.startsWith("__surrealrpctypedtest:"))
+                throw new Exception("Invalid row");
+        }
+    }
 }